@@ -0,0 +1,2 @@
+#!/bin/bash
+java -classpath ./target/classes:target/dependency/* org.jgroups.tests.perf.IdleStrategyPerf "$@";
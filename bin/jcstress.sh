@@ -0,0 +1,5 @@
+#!/bin/bash
+# Runs the jcstress tests of the ring buffer (src/jcstress). Extra args are passed to jcstress, e.g. -t FullRing -m quick
+mvn -q -Pjcstress test-compile dependency:build-classpath -Dmdep.outputFile=target/jcstress.classpath || exit 1
+CP=target/test-classes:target/classes:$(cat target/jcstress.classpath)
+java -cp "$CP" org.openjdk.jcstress.Main -r target/jcstress "$@"
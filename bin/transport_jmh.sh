@@ -0,0 +1,6 @@
+#!/bin/bash
+# Runs TransportBenchmark (SHM vs TCP, NIO, UDP, and the shared memory vs the Unix domain socket local transport),
+# including allocations per message, and writes the results as JSON, e.g. to compare them across releases.
+# Requires 'mvn package'. Params can be restricted, e.g. -p config=shm.xml,tcp.xml
+RESULTS=${RESULTS:-transport-$(date +%Y%m%d-%H%M%S).json}
+java -jar target/SharedMemoryTransport-*-jmh-tests.jar TransportBenchmark -prof gc -rf json -rff "$RESULTS" "$@";
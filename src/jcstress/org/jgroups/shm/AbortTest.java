@@ -0,0 +1,46 @@
+package org.jgroups.shm;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+
+/**
+ * r1: payloads seen by the consumer while the producers run, r2: payloads seen in total.
+ */
+@JCStressTest
+@Description("One producer aborts its claim while another one commits: the aborted record is skipped as padding, " +
+   "and doesn't hide the committed one")
+@Outcome(id = {"0, 2", "2, 2"}, expect = ACCEPTABLE, desc = "only the committed record is delivered")
+@State
+public class AbortTest extends RingBufferFixture {
+
+   public AbortTest() {
+      super(128);
+   }
+
+   @Actor
+   public void aborting() {
+      offerAndAbort(1, 8);
+   }
+
+   @Actor
+   public void committing() {
+      offer(2, 8);
+   }
+
+   @Actor
+   public void consumer(II_Result r) {
+      r.r1 = poll(Integer.MAX_VALUE);
+   }
+
+   @Arbiter
+   public void arbiter(II_Result r) {
+      r.r2 = r.r1 | drain();
+   }
+}
@@ -0,0 +1,49 @@
+package org.jgroups.shm;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+
+/**
+ * r1: payloads seen by the consumer while the producers run, r2: payloads seen in total.
+ */
+@JCStressTest
+@Description("Two producers claim and commit a record each while the consumer reads: every committed record is " +
+   "delivered exactly once, with the payload written before commit()")
+@Outcome(id = "0, 3", expect = ACCEPTABLE, desc = "the consumer read before the commits")
+@Outcome(id = {"1, 3", "2, 3"}, expect = ACCEPTABLE_INTERESTING, desc = "the consumer read one record")
+@Outcome(id = "3, 3", expect = ACCEPTABLE, desc = "the consumer read both records")
+@State
+public class ClaimCommitReadTest extends RingBufferFixture {
+
+   public ClaimCommitReadTest() {
+      super(128);
+   }
+
+   @Actor
+   public void producer1() {
+      offer(1, 8);
+   }
+
+   @Actor
+   public void producer2() {
+      offer(2, 8);
+   }
+
+   @Actor
+   public void consumer(II_Result r) {
+      r.r1 = poll(Integer.MAX_VALUE);
+   }
+
+   @Arbiter
+   public void arbiter(II_Result r) {
+      r.r2 = r.r1 | drain();
+   }
+}
@@ -0,0 +1,53 @@
+package org.jgroups.shm;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.III_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+
+/**
+ * r1: whether producer 1 could claim, r2: whether producer 2 could claim, r3: payloads seen by the consumer.
+ */
+@JCStressTest
+@Description("The ring buffer is full and the head cache is stale: the producers can only claim the space released " +
+   "by the consumer, after reading the head (or the head cache updated by the other producer), and their records " +
+   "must not be clobbered by the zeroing of that space")
+@Outcome(id = "0, 0, 0", expect = ACCEPTABLE, desc = "both producers saw a full ring buffer")
+@Outcome(id = {"1, 0, 1", "0, 1, 2"}, expect = ACCEPTABLE_INTERESTING, desc = "one producer claimed")
+@Outcome(id = "1, 1, 3", expect = ACCEPTABLE_INTERESTING, desc = "both producers claimed")
+@State
+public class FullRingTest extends RingBufferFixture {
+
+   public FullRingTest() {
+      super(128);
+      // 8 records of 16 bytes: the tail is at 128, the head (and the head cache) at 0
+      advance(8, 8, false);
+   }
+
+   @Actor
+   public void producer1(III_Result r) {
+      r.r1 = offer(1, 8) ? 1 : 0;
+   }
+
+   @Actor
+   public void producer2(III_Result r) {
+      r.r2 = offer(2, 8) ? 1 : 0;
+   }
+
+   @Actor
+   public void consumer(III_Result r) {
+      // releases (and zeroes) the first 64 bytes
+      r.r3 = poll(4);
+   }
+
+   @Arbiter
+   public void arbiter(III_Result r) {
+      r.r3 |= drain();
+   }
+}
@@ -0,0 +1,105 @@
+package org.jgroups.shm;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small ring buffer shared by the actors of a jcstress test, whose records carry an int payload identifying the
+ * producer.
+ */
+class RingBufferFixture {
+
+   /**
+    * Payload of the records written before the actors run, which are ignored.
+    */
+   static final int FILLER = 100;
+
+   /**
+    * Set in a mask when a record has an unexpected payload, e.g. one clobbered by the zeroing of the consumer.
+    */
+   static final int CORRUPTED = 1 << 4;
+
+   final ManyToOneBoundedChannel channel;
+
+   /**
+    * @param capacity of the ring buffer, a power of 2 (the max payload is {@code capacity / 8}).
+    */
+   RingBufferFixture(int capacity) {
+      channel = new ManyToOneBoundedChannel(ByteBuffer.allocate(capacity + ManyToOneBoundedChannel.TRAILER_LENGTH));
+   }
+
+   /**
+    * Write and commit a record with {@code payload}, or return {@code false} if the ring buffer is full.
+    */
+   boolean offer(int payload, int length) {
+      final long claim = channel.tryClaim(1, length);
+      if (claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+         return false;
+      }
+      channel.buffer().putInt(ManyToOneBoundedChannel.claimedIndex(claim), payload);
+      channel.commit(claim);
+      return true;
+   }
+
+   /**
+    * Write and abort a record with {@code payload}, which the consumer must skip.
+    */
+   boolean offerAndAbort(int payload, int length) {
+      final long claim = channel.tryClaim(1, length);
+      if (claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+         return false;
+      }
+      channel.buffer().putInt(ManyToOneBoundedChannel.claimedIndex(claim), payload);
+      channel.abort(claim);
+      return true;
+   }
+
+   /**
+    * Write {@code count} filler records of {@code length} bytes and, if {@code consume}, read them.
+    */
+   void advance(int count, int length, boolean consume) {
+      for (int i = 0; i < count; i++) {
+         if (!offer(FILLER, length)) {
+            throw new IllegalStateException("ring buffer is full");
+         }
+      }
+      if (consume) {
+         drain();
+      }
+   }
+
+   /**
+    * Read at most {@code limit} records once (a single {@code read()} stops at the end of the buffer).
+    *
+    * @return the mask of the payloads read (filler records excluded).
+    */
+   int poll(int limit) {
+      final int[] mask = {0};
+      channel.read((msgTypeId, buffer, index, length) -> mask[0] |= bit(buffer.getInt(index)), limit);
+      return mask[0];
+   }
+
+   /**
+    * Read all the records left; must be called when all producers are done.
+    *
+    * @return the mask of the payloads read (filler records excluded).
+    */
+   int drain() {
+      int mask = 0;
+      while (channel.consumerPosition() != channel.producerPosition()) {
+         mask |= poll(Integer.MAX_VALUE);
+      }
+      return mask;
+   }
+
+   private static int bit(int payload) {
+      switch (payload) {
+         case FILLER:
+            return 0;
+         case 1:
+         case 2:
+            return payload;
+         default:
+            return CORRUPTED;
+      }
+   }
+}
@@ -0,0 +1,52 @@
+package org.jgroups.shm;
+
+import org.openjdk.jcstress.annotations.Actor;
+import org.openjdk.jcstress.annotations.Arbiter;
+import org.openjdk.jcstress.annotations.Description;
+import org.openjdk.jcstress.annotations.JCStressTest;
+import org.openjdk.jcstress.annotations.Outcome;
+import org.openjdk.jcstress.annotations.State;
+import org.openjdk.jcstress.infra.results.II_Result;
+
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE;
+import static org.openjdk.jcstress.annotations.Expect.ACCEPTABLE_INTERESTING;
+
+/**
+ * r1: payloads seen by the consumer while the producers run, r2: payloads seen in total.
+ */
+@JCStressTest
+@Description("The tail is 16 bytes before the end of a 128 bytes buffer, so the first claim of 24 bytes pads the " +
+   "end and wraps around, while the consumer reads (and zeroes) the padding")
+@Outcome(id = "0, 3", expect = ACCEPTABLE, desc = "the consumer read before the commits, or only the padding")
+@Outcome(id = {"1, 3", "2, 3"}, expect = ACCEPTABLE_INTERESTING, desc = "the consumer read one record")
+@Outcome(id = "3, 3", expect = ACCEPTABLE, desc = "the consumer read both records")
+@State
+public class WrapAroundTest extends RingBufferFixture {
+
+   public WrapAroundTest() {
+      super(128);
+      // 7 records of 16 bytes: tail and head at 112
+      advance(7, 8, true);
+   }
+
+   @Actor
+   public void producer1() {
+      offer(1, 16);
+   }
+
+   @Actor
+   public void producer2() {
+      offer(2, 16);
+   }
+
+   @Actor
+   public void consumer(II_Result r) {
+      // a read stops at the end of the buffer: read twice to get past the padding
+      r.r1 = poll(Integer.MAX_VALUE) | poll(Integer.MAX_VALUE);
+   }
+
+   @Arbiter
+   public void arbiter(II_Result r) {
+      r.r2 = r.r1 | drain();
+   }
+}
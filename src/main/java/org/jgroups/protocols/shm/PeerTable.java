@@ -0,0 +1,83 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.shm.SharedMemoryBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable table of the queues of the peers in the current view, rebuilt on every view change. Resolves a
+ * destination with an open-addressing lookup (array accesses and equals() only), and provides the queues of all
+ * peers as an array for multicasts, so that the send path doesn't need to consult maps or sets.
+ * @since  1.1.0
+ */
+public class PeerTable {
+    protected final Address[]            addrs; // open addressing with linear probing; length is a power of 2
+    protected final SharedMemoryBuffer[] bufs;  // bufs[i] is the queue of addrs[i]
+    protected final SharedMemoryBuffer[] peers; // the queues of all peers (excluding ourself)
+    protected final int                  mask;
+
+    public static final PeerTable        EMPTY=new PeerTable(Map.of(), null);
+
+    /**
+     * Creates a table from the given peers. The queue of self (if non-null) is excluded from {@link #peers()},
+     * but can still be looked up
+     */
+    public PeerTable(Map<Address,SharedMemoryBuffer> m, Address self) {
+        int len=Integer.highestOneBit(Math.max(2, m.size()) * 2 - 1) << 1; // load factor <= 0.5
+        addrs=new Address[len];
+        bufs=new SharedMemoryBuffer[len];
+        mask=len-1;
+        int num_peers=0;
+        SharedMemoryBuffer[] tmp=new SharedMemoryBuffer[m.size()];
+        for(Map.Entry<Address,SharedMemoryBuffer> e: m.entrySet()) {
+            Address addr=e.getKey();
+            int i=index(addr);
+            while(addrs[i] != null)
+                i=(i+1) & mask;
+            addrs[i]=addr;
+            bufs[i]=e.getValue();
+            if(!addr.equals(self))
+                tmp[num_peers++]=e.getValue();
+        }
+        peers=num_peers == tmp.length? tmp : Arrays.copyOf(tmp, num_peers);
+    }
+
+    /** Returns the queue of addr, or null if addr is not in the table */
+    public SharedMemoryBuffer get(Address addr) {
+        final Address[] a=addrs;
+        for(int i=index(addr);; i=(i+1) & mask) {
+            Address tmp=a[i];
+            if(tmp == null)
+                return null;
+            if(tmp == addr || tmp.equals(addr))
+                return bufs[i];
+        }
+    }
+
+    /** The addresses in the table, including self (if passed to the constructor) */
+    public List<Address> addresses() {
+        List<Address> l=new ArrayList<>(addrs.length);
+        for(Address addr: addrs)
+            if(addr != null)
+                l.add(addr);
+        return l;
+    }
+
+    public boolean              contains(Address addr) {return get(addr) != null;}
+    /** The queues of all peers, excluding ourself. Must not be modified */
+    public SharedMemoryBuffer[] peers()                {return peers;}
+    public int                  size()                 {return peers.length;}
+
+    public String toString() {
+        return String.format("%d peers (table size: %d)", peers.length, addrs.length);
+    }
+
+    protected int index(Address addr) {
+        int h=addr.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
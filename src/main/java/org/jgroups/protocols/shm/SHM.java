@@ -9,9 +9,20 @@ import org.jgroups.annotations.ManagedAttribute;
 import org.jgroups.annotations.ManagedOperation;
 import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
+import org.jgroups.protocols.NoBundler;
 import org.jgroups.protocols.TP;
+import org.jgroups.protocols.UNICAST3;
+import org.jgroups.protocols.pbcast.NAKACK2;
+import org.jgroups.shm.AdaptiveIdleStrategy;
+import org.jgroups.shm.IdleStrategy;
 import org.jgroups.shm.ManyToOneBoundedChannel;
 import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.shm.SharedMemoryBundler;
+import org.jgroups.shm.SharedMemoryEvents;
+import org.jgroups.shm.SharedMemoryHub;
+import org.jgroups.shm.SharedMemoryPool;
+import org.jgroups.shm.SharedMemoryPoller;
+import org.jgroups.shm.SharedMemorySlab;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.*;
 
@@ -19,11 +30,18 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Transport using shared memory to exchange messages
@@ -32,7 +50,7 @@ import java.util.function.Consumer;
  */
 @MBean(description="Transport which exchanges messages by adding them to shared memory. This works only when all " +
   "members are processes on the same host")
-public class SHM extends TP implements Consumer<ByteBuffer> {
+public class SHM extends TP implements Consumer<ByteBuffer>, SharedMemoryQueues {
 
     @Property(description="Folder under which the memory-mapped files for the queues are created.")
     protected String                                location="/tmp/shm";
@@ -41,15 +59,161 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
     protected int                                   queue_capacity=2 << 22; // ca 8MB
 
     @Property(description="The max time (in millis) a receiver loop should park when idle. 0=default",
-      type=AttributeType.TIME)
+      type=AttributeType.TIME,deprecatedMessage="use idle_max_park instead")
     protected long                                  max_sleep;
 
-    protected SharedMemoryBuffer                    buf;
+    @Property(description="The idle strategy of the receiver loop: busy_spin, spin_yield, sleeping, backoff, " +
+      "adaptive or blocking. Can be changed at runtime via idleStrategy()")
+    protected String                                idle_strategy=IdleStrategy.BACKOFF;
 
-    protected ByteBufferInputStream                 cachedReceiveStream;
+    @Property(description="Number of spins before yielding (spin_yield, backoff)")
+    protected long                                  idle_spins=IdleStrategy.DEFAULT_MAX_SPINS;
+
+    @Property(description="Number of yields before parking (backoff)")
+    protected long                                  idle_yields=IdleStrategy.DEFAULT_MAX_YIELDS;
+
+    @Property(description="Park period (in ns) of sleeping, initial park period of backoff and adaptive")
+    protected long                                  idle_min_park=IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS;
+
+    @Property(description="Max park period (in ns) of backoff, adaptive and blocking. Overridden by max_sleep, if set")
+    protected long                                  idle_max_park=IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS << 6; // 64ms
+
+    @Property(description="The max time (in ns) the adaptive idle strategy spins and yields in an idle period " +
+      "before parking")
+    protected long                                  idle_busy_budget=AdaptiveIdleStrategy.DEFAULT_MAX_SPIN_NS +
+      AdaptiveIdleStrategy.DEFAULT_MAX_YIELD_NS;
+
+    @Property(description="If true, the receiver loop is run by a poller thread shared by all channels of this " +
+      "process, instead of a dedicated thread. The idle_* settings of the last connected channel apply to the poller")
+    protected boolean                               shared_poller;
+
+    @Property(description="Max number of messages the shared poller reads from this channel's queue before moving " +
+      "on to the next queue")
+    protected int                                   poller_msg_budget=SharedMemoryPoller.DEFAULT_MSG_BUDGET;
+
+    @Property(description="If true, small messages to the same member are coalesced into a single queue record")
+    protected boolean                               bundler_enabled;
+
+    @Property(description="Max size of a record containing bundled messages. Messages larger than half of this " +
+      "are not bundled",type=AttributeType.BYTES)
+    protected int                                   max_bundle_size=16_000;
+
+    @Property(description="Max time (in ns) a message is held in a bundle before the bundle is written")
+    protected long                                  max_bundle_time=50_000;
+
+    @Property(description="Messages of at least this size are written once to a shared slab, and only a descriptor " +
+      "is passed through the queue(s) of the receiver(s). 0 disables the slab",type=AttributeType.BYTES)
+    protected int                                   slab_threshold;
+
+    @Property(description="Capacity of the slab (in bytes)",type=AttributeType.BYTES)
+    protected int                                   slab_capacity=1 << 26; // 64MB
+
+    @Property(description="Size of a slab block (in bytes); a message occupies a run of contiguous blocks",
+      type=AttributeType.BYTES)
+    protected int                                   slab_block_size=1 << 16;
+
+    @Property(description="If true, writes to a full queue block until the receiver has made room (instead of " +
+      "dropping the message), and messages carry per-sender sequence numbers which are checked by the receiver. " +
+      "Blocking is bounded by max_block_time: messages dropped then are detected (getSeqnoGaps()), but not " +
+      "retransmitted, so NAKACK2 and UNICAST3 are still required. They rarely have to retransmit though")
+    protected boolean                               lossless;
+
+    @Property(description="Max time (in ms) a write blocks on a full queue in lossless mode. When elapsed (e.g. " +
+      "because the receiver crashed), the message is dropped and further writes to that queue fail without " +
+      "blocking, until the receiver has made room",type=AttributeType.TIME)
+    protected long                                  max_block_time=5000;
+
+    @Property(description="Interval (in ms) at which the fill and the failed writes of the queue are checked, to " +
+      "grow or shrink it. 0 disables resizing",type=AttributeType.TIME)
+    protected long                                  resize_interval;
+
+    @Property(description="Max capacity (in bytes) the queue can grow to",type=AttributeType.BYTES)
+    protected int                                   max_queue_capacity=1 << 28; // 256MB
+
+    @Property(description="The queue's capacity is doubled when it is filled to this fraction, or when writes " +
+      "failed because it was full")
+    protected double                                grow_threshold=0.5;
+
+    @Property(description="The queue's capacity is halved (down to queue_capacity) when its fill has been below " +
+      "this fraction for shrink_delay ms")
+    protected double                                shrink_threshold=0.1;
+
+    @Property(description="Time (in ms) the queue needs to be quiet before it is shrunk",type=AttributeType.TIME)
+    protected long                                  shrink_delay=60_000;
+
+    @Property(description="If true, the queue is zeroed when created, so that all of its pages are resident. " +
+      "Otherwise, pages are allocated by the first writes to them")
+    protected boolean                               prefault_queue=true;
+
+    @Property(description="Time (in ms) after which an empty queue without traffic releases its memory. Pages are " +
+      "allocated again when traffic resumes. Peers' queues which are not written to are also unmapped. " +
+      "0 disables this",type=AttributeType.TIME)
+    protected long                                  idle_reclaim_time;
+
+    @Property(description="If true, the channels of this process (with the same location) share one inbound queue " +
+      "and receiver thread, and a peer process' queue is mapped once, instead of per channel. The queue is created " +
+      "with the queue_capacity, prefault_queue, async_prefault, pool_size and idle_* settings of the first channel, " +
+      "and is neither resized nor reclaimed")
+    protected boolean                               hub;
+
+    @Property(description="If true, messages to members in the same JVM are passed as byte arrays through an " +
+      "on-heap queue, instead of being copied through the memory-mapped queue")
+    protected boolean                               jvm_fast_path=true;
+
+    @Property(description="Alignment (in bytes) of the records in the queue: 8 packs small records densely, 64 " +
+      "(a cache line) or 128 avoid false sharing between producers writing small records concurrently, but waste " +
+      "more capacity. Recorded in the queue, so that producers use the alignment of the receiver")
+    protected int                                   record_alignment=8;
+
+    @Property(description="If true (and prefault_queue is true), the pages of the queue are touched by a background " +
+      "thread, so that connecting doesn't wait until the queue has been zeroed")
+    protected boolean                               async_prefault=true;
+
+    @Property(description="If true, the queues of the members found when connecting are mapped in the background, " +
+      "overlapping with discovery. Queues which are not yet mapped are mapped when first sent to")
+    protected boolean                               async_peer_mapping=true;
+
+    @Property(description="Number of pre-created (and zeroed) queue files kept in a pool under location, which " +
+      "members (e.g. restarted ones) take their queue from instead of creating it. The pool is replenished in the " +
+      "background, and outlives the process. Requires prefault_queue. 0 disables the pool")
+    protected int                                   pool_size;
+
+    protected SharedMemoryBuffer                    buf;  // our queue, or the queue of the hub
+
+    protected SharedMemoryHub                       shm_hub;
+    protected int                                   channel_id; // our channel id in shm_hub
+
+    protected Future<?>                             resize_task;
+    protected long                                  last_full_writes; // accessed by resize_task only
+    protected long                                  last_busy;        // ns; accessed by resize_task only
+
+    protected Future<?>                             reclaim_task;
+    protected long                                  last_write_position; // accessed by reclaim_task only
+    protected long                                  last_write;          // ns; accessed by reclaim_task only
+    protected boolean                               reclaimed;           // accessed by reclaim_task only
+
+    protected SharedMemoryBundler                   bundler;
+
+    protected SharedMemorySlab                      slab;
+
+    protected SharedMemoryPool                      pool;
+
+    // members found by initCache() whose queues haven't been mapped yet (async_peer_mapping)
+    protected final Set<Address>                    unmapped=ConcurrentHashMap.newKeySet();
+    protected Future<?>                             peer_mapping_task;
+
+    // breakdown of the last connect (ns)
+    protected long                                  connect_time, queue_creation_time, peer_listing_time;
+    protected volatile long                         peer_mapping_time; // -1 while mapping in the background
+    protected int                                   peers_found;
+    protected boolean                               queue_from_pool;
+
+    protected ByteBufferInputStream                 cachedReceiveStream; // only accessed by the receiver thread
 
     protected final Map<Address,SharedMemoryBuffer> cache=new ConcurrentHashMap<>();
 
+    protected volatile PeerTable                    peers; // the queues of the current view; null before the first view
+
     protected static final PhysicalAddress          PHYSICAL_ADDRESS=new IpAddress(10000);
 
 
@@ -58,11 +222,143 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
         return cache.values().stream().mapToInt(c -> (int)c.insufficientCapacity()).sum();
     }
 
+    @ManagedAttribute(description="True if writes to a full queue block (for up to max_block_time) instead of " +
+      "dropping the message")
+    public boolean isLossless() {
+        return lossless;
+    }
+
+    @ManagedAttribute(description="Number of writes which blocked on a full queue (lossless mode)")
+    public long getBlockedWrites() {
+        return cache.values().stream().mapToLong(SharedMemoryBuffer::blockedWrites).sum();
+    }
+
+    @ManagedAttribute(description="Number of gaps in the sequence numbers of received messages (lossless mode). " +
+      "Non-zero means that messages were lost")
+    public long getSeqnoGaps() {
+        return buf != null? buf.seqnoGaps() : 0;
+    }
+
+    @ManagedAttribute(description="The current capacity of the queue (changed by resizing)",
+      type=AttributeType.BYTES)
+    public int getCurrentQueueCapacity() {
+        return buf != null? buf.capacity() : 0;
+    }
+
+    @ManagedAttribute(description="Number of times the queue was resized")
+    public long getQueueResizes() {
+        return buf != null? buf.resizes() : 0;
+    }
+
+    @ManagedOperation(description="Replaces the queue with one of the given capacity (rounded up to a power of 2)")
+    public boolean resizeQueue(int capacity) throws IOException {
+        SharedMemoryBuffer b=buf;
+        if(b == null)
+            throw new IllegalStateException("not connected");
+        int old_cap=b.capacity(), cap=Util.getNextHigherPowerOfTwo(capacity);
+        boolean resized=b.resize(cap);
+        if(resized)
+            log.debug("%s: resized queue from %d to %d bytes", local_addr, old_cap, cap);
+        return resized;
+    }
+
+    @ManagedAttribute(description="Memory (in bytes) of the queue which is resident in this process",
+      type=AttributeType.BYTES)
+    public long getResidentQueueMemory() {
+        return buf != null? buf.residentMemory() : 0;
+    }
+
+    @ManagedOperation(description="Prints the memory (in bytes) resident in this process of all mapped queues")
+    public String printResidentMemory() {
+        return cache.entrySet().stream()
+          .map(e -> String.format("%s: %s", e.getKey(), Util.printBytes(e.getValue().residentMemory())))
+          .collect(Collectors.joining("\n"));
+    }
+
+    @ManagedOperation(description="Releases the memory of the queue if it is empty. Pages are allocated again " +
+      "when traffic resumes")
+    public boolean reclaimQueue() throws IOException {
+        SharedMemoryBuffer b=buf;
+        if(b == null)
+            throw new IllegalStateException("not connected");
+        return b.reclaim();
+    }
+
+    @ManagedAttribute(description="Number of messages passed to members in the same JVM through an on-heap queue")
+    public long getJvmLocalWrites() {
+        return cache.values().stream().mapToLong(SharedMemoryBuffer::localWrites).sum();
+    }
+
+    @ManagedAttribute(description="Breakdown of the time of the last connect: creating the queue (taken from the " +
+      "pool or not), prefaulting it (in the background with async_prefault), finding the queues of the other " +
+      "members and mapping them (in the background with async_peer_mapping)")
+    public String getConnectTimes() {
+        SharedMemoryBuffer b=buf;
+        long prefault=b != null? b.prefaultTime() : 0, mapping=peer_mapping_time;
+        return String.format("connect: %s, queue: %s%s, prefault: %s, peers: %d found in %s, mapped in %s",
+                             print(connect_time), print(queue_creation_time), queue_from_pool? " (from pool)" : "",
+                             prefault < 0? "in progress" : prefault == 0? "n/a" : print(prefault),
+                             peers_found, print(peer_listing_time), mapping < 0? "in progress" : print(mapping));
+    }
+
+    @ManagedAttribute(description="The pool of pre-created queue files (null if disabled)")
+    public String getPool() {
+        return pool != null? pool.toString() : null;
+    }
+
+    @ManagedAttribute(description="Number of large messages copied through the queues because the slab was full")
+    public long getSlabFailedAllocations() {
+        return slab != null? slab.failedAllocations() : 0;
+    }
+
+    @ManagedAttribute(description="The idle strategy currently used by the receiver loop")
+    public String getCurrentIdleStrategy() {
+        if(shared_poller)
+            return SharedMemoryPoller.shared().idleStrategy().toString();
+        return buf != null? buf.idleStrategy().toString() : null;
+    }
+
     @ManagedOperation(description="Changes max_sleep")
     public void maxSleep(long ms) {
         this.max_sleep=ms;
-        if(buf != null)
-            buf.maxSleep(ms);
+        applyIdleStrategy();
+    }
+
+    @ManagedOperation(description="Changes the idle strategy of the receiver loop " +
+      "(busy_spin, spin_yield, sleeping, backoff, adaptive or blocking)")
+    public void idleStrategy(String name) {
+        String old=idle_strategy;
+        idle_strategy=Objects.requireNonNull(name);
+        try {
+            applyIdleStrategy();
+        }
+        catch(IllegalArgumentException ex) {
+            idle_strategy=old;
+            throw ex;
+        }
+    }
+
+    @ManagedOperation(description="Applies the current idle_* attributes to the receiver loop, e.g. after " +
+      "changing them at runtime")
+    public void applyIdleStrategy() {
+        IdleStrategy s=createIdleStrategy();
+        if(shared_poller)
+            SharedMemoryPoller.shared().idleStrategy(s);
+        else if(buf != null)
+            buf.idleStrategy(s);
+    }
+
+
+    @Override
+    public SharedMemoryBuffer queue(Address dest) {
+        PeerTable t=peers;
+        return t != null? t.get(dest) : null;
+    }
+
+    @Override
+    public SharedMemoryBuffer[] queues() {
+        PeerTable t=peers;
+        return t != null? t.peers() : PeerTable.EMPTY.peers();
     }
 
 
@@ -76,12 +372,47 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
         File f=new File(location);
         if(!f.exists())
             throw new IllegalArgumentException(String.format("location %s does not exist", location));
+        if(lossless && max_block_time <= 0)
+            throw new IllegalArgumentException(String.format("max_block_time (%d) must be positive", max_block_time));
+        if(resize_interval > 0) {
+            cap=Util.getNextHigherPowerOfTwo(max_queue_capacity);
+            if(cap > ManyToOneBoundedChannel.MAX_SEALABLE_CAPACITY || cap < queue_capacity)
+                throw new IllegalArgumentException(String.format("max_queue_capacity (%d) must be in range [%d .. %d]",
+                                                                 max_queue_capacity, queue_capacity,
+                                                                 ManyToOneBoundedChannel.MAX_SEALABLE_CAPACITY));
+            max_queue_capacity=cap;
+            if(shrink_threshold < 0 || shrink_threshold >= grow_threshold || grow_threshold > 1)
+                throw new IllegalArgumentException(String.format("shrink_threshold (%.2f) and grow_threshold (%.2f) " +
+                                                                   "must be in range [0 .. 1], with shrink_threshold " +
+                                                                   "< grow_threshold", shrink_threshold, grow_threshold));
+        }
+        if(idle_reclaim_time < 0)
+            throw new IllegalArgumentException(String.format("idle_reclaim_time (%d) must be >= 0", idle_reclaim_time));
+        ManyToOneBoundedChannel.checkAlignment(record_alignment);
+        if(pool_size < 0)
+            throw new IllegalArgumentException(String.format("pool_size (%d) must be >= 0", pool_size));
+        if(pool_size > 0 && !prefault_queue)
+            log.warn("pool_size (%d) is ignored as prefault_queue is false", pool_size);
+        if(hub && (resize_interval > 0 || idle_reclaim_time > 0))
+            log.warn("the queue shared by the channels of a hub is neither resized nor reclaimed: resize_interval " +
+                       "(%d) and idle_reclaim_time (%d) don't apply to it", resize_interval, idle_reclaim_time);
         super.init();
+        if(pool_size > 0 && prefault_queue)
+            pool=new SharedMemoryPool(location, queue_capacity + ManyToOneBoundedChannel.TRAILER_LENGTH, pool_size);
+        if(stack.findProtocol(NAKACK2.class) == null || stack.findProtocol(UNICAST3.class) == null)
+            log.warn("messages dropped on full queues (also in lossless mode, after max_block_time) are not " +
+                       "retransmitted without NAKACK2 and UNICAST3");
+        if(lossless && !(getBundler() instanceof NoBundler))
+            log.warn("bundler %s drops messages when its queue is full: use bundler_type=\"no-bundler\" in " +
+                       "lossless mode (and bundler_enabled=true to coalesce messages)",
+                     getBundler().getClass().getSimpleName());
     }
 
     public void resetStats() {
         super.resetStats();
         cache.values().forEach(SharedMemoryBuffer::resetStats);
+        if(slab != null)
+            slab.resetStats();
     }
 
     @Override
@@ -101,25 +432,101 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
             case Event.CONNECT:
             case Event.CONNECT_WITH_STATE_TRANSFER:
                 try {
-                    buf=createBuffer(local_addr, null, true, thread_factory)
-                      .setConsumer(this).deleteFileOnExit(true);
-                    if(max_sleep > 0)
-                        buf.maxSleep(max_sleep);
-                    cache.putIfAbsent(local_addr, buf);
+                    long start=System.nanoTime();
+                    queue_from_pool=false;
+                    String file_name=addressToFilename(local_addr, null);
+                    if(hub) {
+                        shm_hub=SharedMemoryHub.acquire(location, queue_capacity, prefaultMode(), pool, record_alignment,
+                                                        shared_poller? SharedMemoryPoller.shared() : null,
+                                                        poller_msg_budget, thread_factory);
+                        channel_id=shm_hub.register(this);
+                        buf=shm_hub.queue();
+                        shm_hub.publish(file_name, channel_id);
+                        cache.putIfAbsent(local_addr, shm_hub.queue(buf.fileName(), channel_id).localPath(jvm_fast_path));
+                    }
+                    else {
+                        buf=createBuffer(local_addr, null, true, thread_factory)
+                          .deleteFileOnExit(true).localPath(jvm_fast_path);
+                        if(shared_poller)
+                            buf.setConsumer(this, SharedMemoryPoller.shared(), poller_msg_budget);
+                        else
+                            buf.setConsumer(this);
+                        cache.putIfAbsent(local_addr, buf);
+                    }
+                    queue_creation_time=System.nanoTime() - start;
+                    if(pool != null)
+                        getTimer().execute(this::replenishPool);
+                    applyIdleStrategy();
+                    if(bundler_enabled)
+                        bundler=new SharedMemoryBundler(max_bundle_size, max_bundle_time, thread_factory).start();
+                    if(slab_threshold > 0)
+                        slab=new SharedMemorySlab(file_name + SharedMemorySlab.SUFFIX, slab_capacity, slab_block_size);
+                    long listing_start=System.nanoTime();
                     initCache();
+                    peer_listing_time=System.nanoTime() - listing_start;
+                    connect_time=System.nanoTime() - start;
+                    // the queue of a hub is shared: a channel must not resize or reclaim it on its own
+                    if(resize_interval > 0 && shm_hub == null) {
+                        last_full_writes=0;
+                        last_busy=System.nanoTime();
+                        resize_task=getTimer().scheduleWithFixedDelay(this::checkQueueCapacity, resize_interval,
+                                                                      resize_interval, TimeUnit.MILLISECONDS);
+                    }
+                    if(idle_reclaim_time > 0) {
+                        last_write_position=buf.writePosition();
+                        last_write=System.nanoTime();
+                        reclaimed=!prefault_queue;
+                        long interval=Math.max(1, idle_reclaim_time / 2);
+                        reclaim_task=getTimer().scheduleWithFixedDelay(this::reclaimIdleMemory, interval, interval,
+                                                                       TimeUnit.MILLISECONDS);
+                    }
                 }
                 catch(IOException ex) {
                     log.error("failed creating buffer", ex);
                 }
                 break;
             case Event.DISCONNECT:
-                Util.close(buf);
+                if(peer_mapping_task != null) {
+                    peer_mapping_task.cancel(true);
+                    peer_mapping_task=null;
+                }
+                unmapped.clear();
+                if(resize_task != null) {
+                    resize_task.cancel(true);
+                    resize_task=null;
+                }
+                if(reclaim_task != null) {
+                    reclaim_task.cancel(true);
+                    reclaim_task=null;
+                }
+                if(shm_hub != null) {
+                    shm_hub.unregister(channel_id);
+                    Util.close(bundler, slab);
+                    new File(addressToFilename(local_addr, null)).delete();
+                    shm_hub.release();
+                    shm_hub=null;
+                }
+                else
+                    Util.close(bundler, buf, slab);
+                bundler=null;
+                slab=null;
+                peers=null;
                 break;
 
             case Event.VIEW_CHANGE:
                 View v=evt.getArg();
                 Set<Address> keys=cache.keySet();
+                for(Map.Entry<Address,SharedMemoryBuffer> e: cache.entrySet()) {
+                    if(!v.containsMember(e.getKey())) {
+                        peerEvicted(e.getKey(), e.getValue());
+                        e.getValue().unmap(); // the file is deleted by the member (or its next incarnation)
+                        if(buf != null) // the slab of the member which left, if we received messages from it
+                            buf.closeSlab(addressToFilename(e.getKey(), null) + SharedMemorySlab.SUFFIX);
+                    }
+                }
                 keys.retainAll(v.getMembers());
+                if(bundler != null)
+                    bundler.retainAll(cache.values());
                 for(Address mbr: v.getMembersRaw()) {
                     if(!keys.contains(mbr)) {
                         try {
@@ -130,6 +537,13 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
                         }
                     }
                 }
+                Map<Address,SharedMemoryBuffer> view_bufs=new HashMap<>(v.size());
+                for(Address mbr: v.getMembersRaw()) {
+                    SharedMemoryBuffer shm_buf=cache.get(mbr);
+                    if(shm_buf != null)
+                        view_bufs.put(mbr, shm_buf);
+                }
+                peers=new PeerTable(view_bufs, local_addr);
                 break;
         }
         return ret;
@@ -143,12 +557,15 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
 
     @Override
     public void accept(ByteBuffer bb) {
+        if(bb.hasArray()) { // passed by a member in the same JVM
+            receive(null, bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+            return;
+        }
         try {
-            ByteBufferInputStream receiveStream = this.cachedReceiveStream;
-            if (receiveStream == null || receiveStream.buf() != bb) {
-                receiveStream =new ByteBufferInputStream(bb);
-                this.cachedReceiveStream = null;
-            }
+            // bb is the same (read-only) buffer for all messages of a queue, so the stream can be reused
+            ByteBufferInputStream receiveStream=this.cachedReceiveStream;
+            if(receiveStream == null || receiveStream.buf() != bb)
+                this.cachedReceiveStream=receiveStream=new ByteBufferInputStream(bb);
             receive(null, receiveStream, 0);
         }
         catch(Exception ex) {
@@ -159,30 +576,206 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
 
     @Override
     protected void sendTo(Address dest, byte[] buf, int offset, int length) throws Exception {
-        SharedMemoryBuffer shm_buf=getOrCreateBuffer(dest);
-        if(shm_buf == null)
+        PeerTable t=peers;
+        SharedMemoryBuffer shm_buf=t != null? t.get(dest) : null;
+        if(shm_buf == null && (shm_buf=getOrCreateBuffer(dest)) == null) // dest is not (yet) in the view
             throw new IllegalStateException(String.format("buffer for %s not found", dest));
-        shm_buf.write(buf, offset, length);
+        send(shm_buf, buf, offset, length);
+    }
+
+    protected void send(SharedMemoryBuffer shm_buf, byte[] buf, int offset, int length) {
+        if(slab != null && length >= slab_threshold && sendViaSlab(List.of(shm_buf), buf, offset, length))
+            return;
+        SharedMemoryBundler b=bundler;
+        if(b != null)
+            b.send(shm_buf, buf, offset, length);
+        else
+            shm_buf.write(buf, offset, length);
     }
 
 
     @Override
     protected void sendToAll(byte[] buf, int offset, int length) throws Exception {
+        PeerTable t=peers;
+        if(t != null) {
+            SharedMemoryBuffer[] dests=t.peers();
+            if(slab != null && length >= slab_threshold && dests.length > 0
+              && sendViaSlab(Arrays.asList(dests), buf, offset, length))
+                return;
+            for(SharedMemoryBuffer dest: dests)
+                send(dest, buf, offset, length);
+            return;
+        }
+        // before the first view: send to all queues found under location
         Set<Address> mbrs=cache.keySet();
         for(Address dest: mbrs) {
             if(Objects.equals(dest, local_addr))
                 continue;
             sendTo(dest, buf, offset, length);
         }
+        for(Address dest: unmapped) { // not yet mapped by the background task: sendTo() maps them
+            if(mbrs.contains(dest))
+                continue;
+            try {
+                sendTo(dest, buf, offset, length);
+            }
+            catch(IOException ex) {
+                unmapped.remove(dest);
+                log.warn("%s: failed mapping the queue of %s: %s", local_addr, dest, ex);
+            }
+        }
+    }
+
+
+    /**
+     * Writes a message to the slab once and a descriptor to the queue of each destination. Returns false if the
+     * slab was full, and the message needs to be sent through the queues
+     */
+    protected boolean sendViaSlab(Collection<SharedMemoryBuffer> dests, byte[] buf, int offset, int length) {
+        int block=slab.write(buf, offset, length, dests.size());
+        if(block < 0)
+            return false;
+        SharedMemoryBundler b=bundler;
+        for(SharedMemoryBuffer dest: dests) {
+            if(b != null)
+                b.flush(dest); // the descriptor must not overtake messages bundled before it
+            if(!dest.write(slab, block, length))
+                slab.release(block);
+        }
+        return true;
+    }
+
+    protected static void peerEvicted(Address mbr, SharedMemoryBuffer shm_buf) {
+        SharedMemoryEvents.PeerEvicted ev=new SharedMemoryEvents.PeerEvicted();
+        if(ev.shouldCommit()) {
+            ev.member=String.valueOf(mbr);
+            ev.queue=shm_buf.fileName();
+            ev.commit();
+        }
+    }
+
+    /**
+     * Doubles the capacity of the queue when it is filled to grow_threshold, or when producers found it full since
+     * the last check. Halves it (down to queue_capacity) when it has been below shrink_threshold for shrink_delay ms
+     */
+    protected void checkQueueCapacity() {
+        SharedMemoryBuffer b=buf;
+        if(b == null)
+            return;
+        try {
+            int cap=b.capacity();
+            double fill=b.fill();
+            long full_writes=b.fullWrites(), now=System.nanoTime();
+            // the counter starts at 0 in a new queue
+            long failed=full_writes >= last_full_writes? full_writes - last_full_writes : full_writes;
+            last_full_writes=full_writes;
+            if(fill >= grow_threshold || failed > 0) {
+                last_busy=now;
+                if(cap < max_queue_capacity && b.resize(cap << 1)) {
+                    last_full_writes=0;
+                    log.debug("%s: grew queue from %d to %d bytes (fill: %.2f, failed writes: %d)",
+                              local_addr, cap, cap << 1, fill, failed);
+                }
+            }
+            else if(fill > shrink_threshold)
+                last_busy=now;
+            else if(cap > queue_capacity && now - last_busy >= TimeUnit.MILLISECONDS.toNanos(shrink_delay)
+              && b.resize(cap >> 1)) {
+                last_busy=now;
+                last_full_writes=0;
+                log.debug("%s: shrunk queue from %d to %d bytes", local_addr, cap, cap >> 1);
+            }
+        }
+        catch(Exception ex) {
+            log.warn("%s: failed resizing queue: %s", local_addr, ex);
+        }
     }
 
+    /**
+     * Releases the memory of the queue (unless it is shared by the channels of a hub) when nothing has been written
+     * to it for idle_reclaim_time ms, and unmaps the old queues of peers which have been replaced (by a resize or a
+     * reclaim) while we were not sending to them
+     */
+    protected void reclaimIdleMemory() {
+        SharedMemoryBuffer b=buf;
+        if(b == null)
+            return;
+        for(SharedMemoryBuffer q: cache.values())
+            q.followIfResized();
+        if(shm_hub != null)
+            return;
+        try {
+            long pos=b.writePosition(), now=System.nanoTime();
+            if(pos != last_write_position) {
+                last_write_position=pos;
+                last_write=now;
+                reclaimed=false;
+            }
+            else if(!reclaimed && now - last_write >= TimeUnit.MILLISECONDS.toNanos(idle_reclaim_time)
+              && b.reclaim()) {
+                reclaimed=true; // the new queue is not resident until written to
+                last_write_position=b.writePosition();
+                log.debug("%s: released the memory of idle queue (%d bytes)", local_addr, b.capacity());
+            }
+        }
+        catch(Exception ex) {
+            log.warn("%s: failed releasing the memory of the queue: %s", local_addr, ex);
+        }
+    }
+
+    protected IdleStrategy createIdleStrategy() {
+        long max_park=max_sleep > 0? TimeUnit.NANOSECONDS.convert(max_sleep, TimeUnit.MILLISECONDS) : idle_max_park;
+        return IdleStrategy.of(idle_strategy, idle_spins, idle_yields, idle_min_park, max_park, idle_busy_budget);
+    }
 
     protected SharedMemoryBuffer createBuffer(Address addr, String logical_name, boolean create,
                                               ThreadFactory thread_factory) throws IOException {
         String buffer_name=addressToFilename(addr, logical_name);
-        return new SharedMemoryBuffer(buffer_name,
-                                      queue_capacity+ ManyToOneBoundedChannel.TRAILER_LENGTH,
-                                      create, thread_factory);
+        // the peer's channel may be multiplexed over the queue of its process' hub
+        Tuple<String,Integer> hub_queue=create? null : SharedMemoryHub.readDescriptor(buffer_name);
+        SharedMemoryBuffer shm_buf;
+        if(hub_queue != null)
+            shm_buf=shm_hub != null? shm_hub.queue(hub_queue.val1(), hub_queue.val2())
+              : new SharedMemoryBuffer(hub_queue.val1(), queue_capacity + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                       false, thread_factory).channelId(hub_queue.val2());
+        else
+            shm_buf=new SharedMemoryBuffer(buffer_name, queue_capacity+ ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                           create, create? prefault(buffer_name) : SharedMemoryBuffer.Prefault.NONE,
+                                           record_alignment, thread_factory);
+        shm_buf.localPath(jvm_fast_path);
+        return lossless && !create? shm_buf.lossless(max_block_time) : shm_buf;
+    }
+
+    /**
+     * How our queue (file_name) is prefaulted: not at all, by taking a prefaulted file from the pool, in the
+     * background, or by zeroing it
+     */
+    protected SharedMemoryBuffer.Prefault prefault(String file_name) {
+        if(!prefault_queue)
+            return SharedMemoryBuffer.Prefault.NONE;
+        if(pool != null && pool.claim(file_name + SharedMemoryBuffer.CREATE_SUFFIX)) {
+            queue_from_pool=true;
+            return SharedMemoryBuffer.Prefault.DONE;
+        }
+        return prefaultMode();
+    }
+
+    /** How a new queue is prefaulted if it is not taken from the pool */
+    protected SharedMemoryBuffer.Prefault prefaultMode() {
+        if(!prefault_queue)
+            return SharedMemoryBuffer.Prefault.NONE;
+        return async_prefault? SharedMemoryBuffer.Prefault.ASYNC : SharedMemoryBuffer.Prefault.SYNC;
+    }
+
+    protected void replenishPool() {
+        try {
+            int created=pool.replenish();
+            if(created > 0)
+                log.debug("%s: created %d queue files in %s", local_addr, created, pool);
+        }
+        catch(IOException ex) {
+            log.warn("%s: failed replenishing the pool: %s", local_addr, ex);
+        }
     }
 
     protected String addressToFilename(Address addr, String logical_name) {
@@ -213,24 +806,68 @@ public class SHM extends TP implements Consumer<ByteBuffer> {
             SharedMemoryBuffer tmp=cache.putIfAbsent(addr, shm_buf);
             if(tmp != null)
                 shm_buf=tmp;
+            unmapped.remove(addr);
         }
         return shm_buf;
     }
 
-    /** Reads all files under location/group/ and populates cache */
+    /**
+     * Reads all files under location/group/ and populates cache. With async_peer_mapping, the queues are mapped by
+     * a background task (see {@link #mapPeers()}), and the members are added to unmapped
+     */
     protected void initCache() throws IOException {
         String cluster=cluster_name != null? cluster_name.toString() : null;
         Path dir=Path.of(Objects.requireNonNull(location), Objects.requireNonNull(cluster));
         File[] files=dir.toFile().listFiles();
+        int found=0;
         for(File f: files) {
             String tmp=f.getName();
+            if(tmp.endsWith(SharedMemorySlab.SUFFIX) || tmp.endsWith(SharedMemoryBuffer.RESIZE_SUFFIX)
+              || tmp.endsWith(SharedMemoryBuffer.CREATE_SUFFIX) || tmp.endsWith(SharedMemoryHub.TMP_SUFFIX))
+                continue;
             Tuple<Address,String> t=filenameToAddress(tmp);
             String logical_name=t.val2();
             Address uuid=t.val1();
-            if(!cache.containsKey(uuid))
-                cache.putIfAbsent(uuid, createBuffer(uuid, logical_name, false, thread_factory));
+            if(!uuid.equals(local_addr))
+                found++;
+            if(!cache.containsKey(uuid)) {
+                if(async_peer_mapping) {
+                    if(logical_name != null) // getOrCreateBuffer() finds the file via the logical name
+                        NameCache.add(uuid, logical_name);
+                    unmapped.add(uuid);
+                }
+                else
+                    cache.putIfAbsent(uuid, createBuffer(uuid, logical_name, false, thread_factory));
+            }
             addPhysicalAddressToCache(uuid, PHYSICAL_ADDRESS);
         }
+        peers_found=found;
+        peer_mapping_time=0;
+        if(!unmapped.isEmpty()) {
+            peer_mapping_time=-1;
+            peer_mapping_task=getTimer().schedule(this::mapPeers, 0, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /** Maps the queues of the members in unmapped, unless they have been mapped on demand in the meantime */
+    protected void mapPeers() {
+        long start=System.nanoTime();
+        for(Address mbr: unmapped) {
+            if(Thread.currentThread().isInterrupted())
+                return;
+            try {
+                getOrCreateBuffer(mbr);
+            }
+            catch(IOException ex) {
+                unmapped.remove(mbr); // e.g. the member left: VIEW_CHANGE maps it if it is still a member
+                log.warn("%s: failed mapping the queue of %s: %s", local_addr, mbr, ex);
+            }
+        }
+        peer_mapping_time=System.nanoTime() - start;
+    }
+
+    protected static String print(long ns) {
+        return Util.printTime(ns, TimeUnit.NANOSECONDS);
     }
 
 }
@@ -0,0 +1,173 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.protocols.NoBundler;
+import org.jgroups.protocols.TP;
+import org.jgroups.shm.IdleStrategy;
+import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.AverageMinMax;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Flow control for members reachable by shared memory, replacing UFC and MFC. Instead of exchanging credits, a
+ * sender looks at the free capacity of the receiver's queue (consumer position vs producer position) and blocks
+ * until the message fits, leaving min_free of the queue for messages which bypass flow control. Multicasts block
+ * until the queues of all peers have room.
+ * <p>
+ * As the receiver is a different process, it cannot wake up blocked senders: they poll the free capacity, spinning
+ * first, then parking for up to max_park ns. Messages to members not reachable by shared memory (e.g. other hosts
+ * with {@link SharedMemoryLocalTransport}) are passed down unchanged; UFC/MFC can be placed above this protocol for
+ * them.
+ * <p>
+ * The free capacity only reflects messages which have been written to the queue, so the transport should not queue
+ * messages itself: use bundler_type="no-bundler", and SHM's bundler (bundler_enabled) to coalesce messages, which
+ * holds back at most max_bundle_size bytes per destination (see shm-fc.xml).
+ * <p>
+ * Requires {@link SHM} as transport, or a transport whose local transport is {@link SharedMemoryLocalTransport}.
+ * @author Bela Ban
+ * @since  1.1.0
+ */
+@MBean(description="Flow control based on the free capacity of the receivers' shared memory queues")
+public class SHM_FC extends Protocol {
+
+    @Property(description="Max time (in ms) to block a message (a multicast waits for all full queues within " +
+      "this time). When elapsed, the message is sent regardless (and may be " +
+      "dropped by a full queue, or block in SHM's lossless mode)",type=AttributeType.TIME)
+    protected long                 max_block_time=5000;
+
+    @Property(description="Fraction of a queue which is kept free for messages with flag NO_FC (e.g. heartbeats) " +
+      "and for the headers added by the protocols below")
+    protected double               min_free=0.1;
+
+    @Property(description="Max time (in ns) a blocked sender parks between checks of the free capacity")
+    protected long                 max_park=100_000;
+
+    protected SharedMemoryQueues   queues;
+
+    protected final LongAdder      num_blockings=new LongAdder();
+    protected final LongAdder      num_timeouts=new LongAdder();
+    protected final AverageMinMax  avg_block_time=new AverageMinMax(); // ns
+
+    @ManagedAttribute(description="Number of times a sender blocked because a queue was too full",
+      type=AttributeType.SCALAR)
+    public long getNumberOfBlockings() {return num_blockings.sum();}
+
+    @ManagedAttribute(description="Number of times a sender blocked for max_block_time and then sent the message " +
+      "regardless",type=AttributeType.SCALAR)
+    public long getNumberOfTimeouts()  {return num_timeouts.sum();}
+
+    @ManagedAttribute(description="Average time blocked (in ns)")
+    public String getAverageTimeBlocked() {
+        synchronized(avg_block_time) {
+            return avg_block_time.toString();
+        }
+    }
+
+    public void resetStats() {
+        super.resetStats();
+        num_blockings.reset();
+        num_timeouts.reset();
+        synchronized(avg_block_time) {
+            avg_block_time.clear();
+        }
+    }
+
+    public void init() throws Exception {
+        super.init();
+        if(min_free < 0 || min_free >= 1)
+            throw new IllegalArgumentException(String.format("min_free (%.2f) must be in range [0 .. 1)", min_free));
+        if(max_block_time <= 0)
+            throw new IllegalArgumentException(String.format("max_block_time (%d) must be positive", max_block_time));
+    }
+
+    public void start() throws Exception {
+        super.start();
+        TP tp=getTransport();
+        if(tp instanceof SharedMemoryQueues)
+            queues=(SharedMemoryQueues)tp;
+        else if(tp.getLocalTransport() instanceof SharedMemoryQueues)
+            queues=(SharedMemoryQueues)tp.getLocalTransport();
+        else
+            throw new IllegalArgumentException(String.format("%s requires %s or %s as local transport of %s",
+                                                             SHM_FC.class.getSimpleName(), SHM.class.getSimpleName(),
+                                                             SharedMemoryLocalTransport.class.getSimpleName(),
+                                                             tp.getClass().getSimpleName()));
+        if(!(tp.getBundler() instanceof NoBundler))
+            log.warn("%s: messages queued by %s are not accounted for; use bundler_type=\"no-bundler\"",
+                     SHM_FC.class.getSimpleName(), tp.getBundler().getClass().getSimpleName());
+    }
+
+    public Object down(Message msg) {
+        if(msg.isFlagSet(Message.Flag.NO_FC) || msg.isFlagSet(Message.TransientFlag.DONT_BLOCK))
+            return down_prot.down(msg);
+        int length=msg.getLength();
+        Address dest=msg.getDest();
+        if(dest == null)
+            awaitCapacity(queues.queues(), length);
+        else if(!Objects.equals(dest, local_addr)) {
+            SharedMemoryBuffer q=queues.queue(dest);
+            if(q != null && !hasCapacity(q, length))
+                awaitCapacity(new SharedMemoryBuffer[]{q}, length);
+        }
+        return down_prot.down(msg);
+    }
+
+    /**
+     * Blocks until length bytes (plus min_free of the queue) can be written to each of the queues, or max_block_time
+     * elapsed. The queues share a single deadline, so that a multicast blocks for at most max_block_time, regardless
+     * of the number of full queues, and counts as a single blocking (or timeout)
+     */
+    protected void awaitCapacity(SharedMemoryBuffer[] qs, int length) {
+        long start=0, deadline=0;
+        boolean blocked=false;
+        for(SharedMemoryBuffer q: qs) {
+            if(hasCapacity(q, length))
+                continue;
+            if(!blocked) {
+                blocked=true;
+                start=System.nanoTime();
+                deadline=start + TimeUnit.NANOSECONDS.convert(max_block_time, TimeUnit.MILLISECONDS);
+            }
+            if(!awaitCapacity(q, length, deadline)) {
+                num_timeouts.increment(); // the message is sent regardless: the other queues are not waited for
+                break;
+            }
+        }
+        if(blocked) {
+            num_blockings.increment();
+            long time=System.nanoTime() - start;
+            synchronized(avg_block_time) {
+                avg_block_time.add(time);
+            }
+        }
+    }
+
+    /** Blocks until length bytes (plus min_free) can be written to q. Returns false if the deadline passed first */
+    protected boolean awaitCapacity(SharedMemoryBuffer q, int length, long deadline) {
+        IdleStrategy idle=IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
+                                                   IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS, max_park);
+        while(!hasCapacity(q, length)) {
+            if(System.nanoTime() - deadline > 0)
+                return false;
+            idle.idle(0);
+        }
+        return true;
+    }
+
+    /** Whether length bytes can be written to q, leaving min_free of the queue */
+    protected boolean hasCapacity(SharedMemoryBuffer q, int length) {
+        int capacity=q.capacity();
+        int required=(int)Math.min(capacity, q.recordLength(length) + (long)(capacity * min_free));
+        return q.freeCapacity() >= required;
+    }
+
+}
@@ -0,0 +1,89 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.Message;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.conf.ClassConfigurator;
+import org.jgroups.protocols.FRAG2;
+import org.jgroups.protocols.TP;
+import org.jgroups.shm.SharedMemoryBuffer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link FRAG2} which doesn't fragment messages to members reachable by shared memory, unless they are larger than
+ * the destination's queue accepts ({@link SharedMemoryBuffer#maxMessageLength()}, 1/8th of its capacity). Messages
+ * to other members (e.g. on other hosts with {@link SharedMemoryLocalTransport}), and multicasts unless all members
+ * are reachable by shared memory, are fragmented at frag_size, like FRAG2.
+ * <p>
+ * Requires {@link SHM} as transport, or a transport whose local transport is {@link SharedMemoryLocalTransport}
+ * (otherwise it behaves like FRAG2).
+ * @author Bela Ban
+ * @since  1.1.0
+ */
+@MBean(description="Fragments messages larger than the max message size of the destination's shared memory queue, " +
+  "or larger than frag_size for destinations not reachable by shared memory")
+public class SHM_FRAG extends FRAG2 {
+    // added to the length of a message for the headers, addresses etc added when serializing it (same as FRAG2)
+    protected static final int      OVERHEAD=200;
+
+    // the fragment headers need an ID; FRAG2's is registered for FRAG2 only
+    protected static final short    SHM_FRAG_ID=1100;
+
+    protected SharedMemoryQueues    queues;
+
+    protected final LongAdder       num_unfragmented=new LongAdder();
+
+    static {
+        ClassConfigurator.addProtocol(SHM_FRAG_ID, SHM_FRAG.class);
+    }
+
+    @ManagedAttribute(description="Number of messages larger than frag_size sent to members reachable by shared " +
+      "memory without fragmentation",type=AttributeType.SCALAR)
+    public long getNumUnfragmented() {return num_unfragmented.sum();}
+
+    public void resetStats() {
+        super.resetStats();
+        num_unfragmented.reset();
+    }
+
+    public void start() throws Exception {
+        super.start();
+        TP tp=getTransport();
+        if(tp instanceof SharedMemoryQueues)
+            queues=(SharedMemoryQueues)tp;
+        else if(tp.getLocalTransport() instanceof SharedMemoryQueues)
+            queues=(SharedMemoryQueues)tp.getLocalTransport();
+        else
+            log.warn("%s: neither %s nor %s is used, all messages larger than frag_size are fragmented",
+                     SHM_FRAG.class.getSimpleName(), SHM.class.getSimpleName(),
+                     SharedMemoryLocalTransport.class.getSimpleName());
+    }
+
+    public Object down(Message msg) {
+        int length=msg.getLength();
+        if(length > frag_size && queues != null && length + OVERHEAD <= maxLocalLength(msg.getDest())) {
+            num_unfragmented.increment();
+            return down_prot.down(msg);
+        }
+        return super.down(msg);
+    }
+
+    /** The max length of a message to dest (null: all members), or 0 if dest is not reachable by shared memory */
+    protected int maxLocalLength(Address dest) {
+        if(dest != null) {
+            SharedMemoryBuffer q=queues.queue(dest);
+            return q != null? q.maxMessageLength() : 0;
+        }
+        SharedMemoryBuffer[] peers=queues.queues();
+        if(peers.length == 0 || peers.length < members.size() - 1) // not all members are reachable by shared memory
+            return 0;
+        // not cached: a peer's max message length changes when it resizes its queue
+        int max=Integer.MAX_VALUE;
+        for(SharedMemoryBuffer q: peers)
+            max=Math.min(max, q.maxMessageLength());
+        return max;
+    }
+}
@@ -10,8 +10,14 @@ import org.jgroups.annotations.Property;
 import org.jgroups.conf.AttributeType;
 import org.jgroups.protocols.LocalTransport;
 import org.jgroups.protocols.TP;
+import org.jgroups.shm.AdaptiveIdleStrategy;
+import org.jgroups.shm.HostIdentity;
+import org.jgroups.shm.IdleStrategy;
 import org.jgroups.shm.ManyToOneBoundedChannel;
 import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.shm.SharedMemoryBundler;
+import org.jgroups.shm.SharedMemoryPoller;
+import org.jgroups.shm.SharedMemorySlab;
 import org.jgroups.stack.IpAddress;
 import org.jgroups.util.*;
 import org.jgroups.util.UUID;
@@ -25,7 +31,7 @@ import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
@@ -35,7 +41,7 @@ import java.util.function.Consumer;
  * @since  1.0.0
  */
 @MBean(description="Implementation of LocalTransport using shared memory")
-public class SharedMemoryLocalTransport implements LocalTransport, Consumer<ByteBuffer> {
+public class SharedMemoryLocalTransport implements LocalTransport, Consumer<ByteBuffer>, SharedMemoryQueues {
     protected TP                                    tp;
 
     @Property(description="Folder under which the memory-mapped files for the queues are created.")
@@ -44,27 +50,96 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
     @Property(description="Max capacity of a queue (in bytes)",type=AttributeType.BYTES)
     protected int                                   queue_capacity=2 << 22; // ca 8MB
 
+    @Property(description="How same-host members are detected. host_id: a member is local if its queue exists " +
+      "under location and it publishes the same boot id and location inode (works across containers sharing " +
+      "location). ip_address: a member is local if its IP address is one of this host's addresses. host_id falls " +
+      "back to ip_address when the identity cannot be determined, or for members which don't publish one")
+    protected String                                locality=LOCALITY_HOST_ID;
+
     @Property(description="The max time (in millis) a receiver loop should park when idle. 0=default",
-      type=AttributeType.TIME)
+      type=AttributeType.TIME,deprecatedMessage="use idle_max_park instead")
     protected long                                  max_sleep;
 
+    @Property(description="The idle strategy of the receiver loop: busy_spin, spin_yield, sleeping, backoff, " +
+      "adaptive or blocking. Can be changed at runtime via idleStrategy()")
+    protected String                                idle_strategy=IdleStrategy.BACKOFF;
+
+    @Property(description="Number of spins before yielding (spin_yield, backoff)")
+    protected long                                  idle_spins=IdleStrategy.DEFAULT_MAX_SPINS;
+
+    @Property(description="Number of yields before parking (backoff)")
+    protected long                                  idle_yields=IdleStrategy.DEFAULT_MAX_YIELDS;
+
+    @Property(description="Park period (in ns) of sleeping, initial park period of backoff and adaptive")
+    protected long                                  idle_min_park=IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS;
+
+    @Property(description="Max park period (in ns) of backoff, adaptive and blocking. Overridden by max_sleep, if set")
+    protected long                                  idle_max_park=IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS << 6; // 64ms
+
+    @Property(description="The max time (in ns) the adaptive idle strategy spins and yields in an idle period " +
+      "before parking")
+    protected long                                  idle_busy_budget=AdaptiveIdleStrategy.DEFAULT_MAX_SPIN_NS +
+      AdaptiveIdleStrategy.DEFAULT_MAX_YIELD_NS;
+
+    @Property(description="If true, the receiver loop is run by a poller thread shared by all channels of this " +
+      "process, instead of a dedicated thread. The idle_* settings of the last connected channel apply to the poller")
+    protected boolean                               shared_poller;
+
+    @Property(description="Max number of messages the shared poller reads from this channel's queue before moving " +
+      "on to the next queue")
+    protected int                                   poller_msg_budget=SharedMemoryPoller.DEFAULT_MSG_BUDGET;
+
+    @Property(description="If true, small messages to the same member are coalesced into a single queue record")
+    protected boolean                               bundler_enabled;
+
+    @Property(description="Max size of a record containing bundled messages. Messages larger than half of this " +
+      "are not bundled",type=AttributeType.BYTES)
+    protected int                                   max_bundle_size=16_000;
+
+    @Property(description="Max time (in ns) a message is held in a bundle before the bundle is written")
+    protected long                                  max_bundle_time=50_000;
+
+    @Property(description="Messages of at least this size are written once to a shared slab, and only a descriptor " +
+      "is passed through the queue(s) of the receiver(s). 0 disables the slab",type=AttributeType.BYTES)
+    protected int                                   slab_threshold;
+
+    @Property(description="Capacity of the slab (in bytes)",type=AttributeType.BYTES)
+    protected int                                   slab_capacity=1 << 26; // 64MB
+
+    @Property(description="Size of a slab block (in bytes); a message occupies a run of contiguous blocks",
+      type=AttributeType.BYTES)
+    protected int                                   slab_block_size=1 << 16;
+
     protected SharedMemoryBuffer                    buf;
 
-    protected ByteBufferInputStream                 cachedReceiveStream;
+    protected SharedMemoryBundler                   bundler;
+
+    protected SharedMemorySlab                      slab;
+
+    protected ByteBufferInputStream                 cachedReceiveStream; // only accessed by the receiver thread
 
     @ManagedAttribute(description="List of _all_ members of the current view")
-    protected final Set<Address>                    members=new CopyOnWriteArraySet<>();
+    protected volatile Set<Address>                 members=Set.of(); // replaced (not modified) on a view change
 
     protected Collection<InetAddress>               local_addresses;
-    @ManagedAttribute(description="List of members with local addresses (same-host members) of the current view")
-    protected final List<Address>                   local_members=new ArrayList<>();
 
     protected final Map<Address,SharedMemoryBuffer> cache=new ConcurrentHashMap<>();
 
+    protected volatile PeerTable                    peers=PeerTable.EMPTY; // the queues of the local members
+
+    protected HostIdentity                          host_identity; // null if locality is ip_address, or unknown
+
     protected final LongAdder                       num_unicasts=new LongAdder();
     protected final LongAdder                       num_mcasts=new LongAdder();
 
-    protected static final String LOCATION="location", QUEUE_CAPACITY="queue_capacity", MAX_SLEEP="max_sleep";
+    protected static final String LOCATION="location", QUEUE_CAPACITY="queue_capacity", MAX_SLEEP="max_sleep",
+      IDLE_STRATEGY="idle_strategy", IDLE_SPINS="idle_spins", IDLE_YIELDS="idle_yields",
+      IDLE_MIN_PARK="idle_min_park", IDLE_MAX_PARK="idle_max_park", IDLE_BUSY_BUDGET="idle_busy_budget",
+      SHARED_POLLER="shared_poller", POLLER_MSG_BUDGET="poller_msg_budget", BUNDLER_ENABLED="bundler_enabled",
+      MAX_BUNDLE_SIZE="max_bundle_size", MAX_BUNDLE_TIME="max_bundle_time", SLAB_THRESHOLD="slab_threshold",
+      SLAB_CAPACITY="slab_capacity", SLAB_BLOCK_SIZE="slab_block_size", LOCALITY="locality";
+
+    protected static final String LOCALITY_HOST_ID="host_id", LOCALITY_IP_ADDRESS="ip_address";
 
 
 
@@ -79,23 +154,76 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
     @ManagedAttribute(description="Number of multicasts sent via this transport",type=AttributeType.SCALAR)
     public long localMulticasts() {return num_mcasts.sum();}
 
+    @ManagedAttribute(description="List of members with local addresses (same-host members) of the current view")
+    public String getLocalMembers() {return peers.addresses().toString();}
+
+    @ManagedAttribute(description="The host identity published to other members (null if not used)")
+    public String getHostIdentity() {return host_identity != null? host_identity.toString() : null;}
+
     @ManagedOperation(description="Print the local addresses of this host")
     public String getLocalAddresses() {return local_addresses != null? local_addresses.toString() : "null";}
 
+    @ManagedAttribute(description="Number of large messages copied through the queues because the slab was full")
+    public long getSlabFailedAllocations() {
+        return slab != null? slab.failedAllocations() : 0;
+    }
+
+    @ManagedAttribute(description="The idle strategy currently used by the receiver loop")
+    public String getCurrentIdleStrategy() {
+        if(shared_poller)
+            return SharedMemoryPoller.shared().idleStrategy().toString();
+        return buf != null? buf.idleStrategy().toString() : null;
+    }
+
     @ManagedOperation(description="Changes max_sleep")
     public void maxSleep(long ms) {
         this.max_sleep=ms;
-        if(buf != null)
-            buf.maxSleep(ms);
+        applyIdleStrategy();
+    }
+
+    @ManagedOperation(description="Changes the idle strategy of the receiver loop " +
+      "(busy_spin, spin_yield, sleeping, backoff, adaptive or blocking)")
+    public void idleStrategy(String name) {
+        String old=idle_strategy;
+        idle_strategy=Objects.requireNonNull(name);
+        try {
+            applyIdleStrategy();
+        }
+        catch(IllegalArgumentException ex) {
+            idle_strategy=old;
+            throw ex;
+        }
+    }
+
+    @ManagedOperation(description="Applies the current idle_* attributes to the receiver loop, e.g. after " +
+      "changing them at runtime")
+    public void applyIdleStrategy() {
+        IdleStrategy s=createIdleStrategy();
+        if(shared_poller)
+            SharedMemoryPoller.shared().idleStrategy(s);
+        else if(buf != null)
+            buf.idleStrategy(s);
     }
 
     public boolean isLocalMember(Address a) {
-        return local_members != null && local_members.contains(a);
+        return peers.contains(a);
+    }
+
+    @Override
+    public SharedMemoryBuffer queue(Address dest) {
+        return peers.get(dest);
+    }
+
+    @Override
+    public SharedMemoryBuffer[] queues() {
+        return peers.peers();
     }
 
     @Override
     public LocalTransport resetStats() {
         cache.values().forEach(SharedMemoryBuffer::resetStats);
+        if(slab != null)
+            slab.resetStats();
         num_unicasts.reset();
         num_mcasts.reset();
         return this;
@@ -126,12 +254,32 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
         File f=new File(location);
         if(!f.exists())
             throw new IllegalArgumentException(String.format("location %s does not exist", location));
+        switch(locality) {
+            case LOCALITY_HOST_ID:
+                if((host_identity=HostIdentity.local(location)) == null)
+                    tp.getLog().warn("host identity could not be determined, falling back to locality=%s",
+                                     LOCALITY_IP_ADDRESS);
+                break;
+            case LOCALITY_IP_ADDRESS:
+                break;
+            default:
+                throw new IllegalArgumentException(String.format("locality %s not known", locality));
+        }
 
         try {
             buf=createBuffer(tp.getAddress(), null, true, tp.getThreadFactory())
-              .setConsumer(this).deleteFileOnExit(true);
-            if(max_sleep > 0)
-                buf.maxSleep(max_sleep);
+              .deleteFileOnExit(true);
+            if(host_identity != null)
+                buf.hostIdentity(host_identity);
+            if(shared_poller)
+                buf.setConsumer(this, SharedMemoryPoller.shared(), poller_msg_budget);
+            else
+                buf.setConsumer(this);
+            applyIdleStrategy();
+            if(bundler_enabled)
+                bundler=new SharedMemoryBundler(max_bundle_size, max_bundle_time, tp.getThreadFactory()).start();
+            if(slab_threshold > 0)
+                slab=new SharedMemorySlab(buf.fileName() + SharedMemorySlab.SUFFIX, slab_capacity, slab_block_size);
             cache.putIfAbsent(tp.getAddress(), buf);
             initCache();
         }
@@ -143,7 +291,10 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
 
     @Override
     public LocalTransport stop() {
-        Util.close(buf);
+        Util.close(bundler, buf, slab);
+        bundler=null;
+        slab=null;
+        peers=PeerTable.EMPTY;
         return this;
     }
 
@@ -152,30 +303,78 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
     }
 
     public LocalTransport viewChange(View v) {
-        members.clear();
-        members.addAll(v.getMembers());
-        cache.keySet().retainAll(members);
-        local_members.clear();
+        Set<Address> mbrs=new HashSet<>(v.getMembers());
         for(Address mbr: members) {
-            PhysicalAddress pa=tp.getPhysicalAddressFromCache(mbr);
-            if(pa == null || Objects.equals(pa, tp.localPhysicalAddress()))
+            if(!mbrs.contains(mbr))
+                memberLeft(mbr);
+        }
+        members=mbrs;
+        cache.keySet().retainAll(mbrs);
+        if(bundler != null)
+            bundler.retainAll(cache.values());
+        if(host_identity != null) {
+            try {
+                mapQueues(mbrs);
+            }
+            catch(IOException ex) {
+                tp.getLog().warn("failed reading the queues under %s: %s", location, ex);
+            }
+        }
+        Map<Address,SharedMemoryBuffer> local_bufs=new HashMap<>();
+        for(Address mbr: mbrs) {
+            if(Objects.equals(mbr, tp.getAddress()) || !isSameHost(mbr))
                 continue;
-            InetAddress addr=pa instanceof IpAddress? ((IpAddress)pa).getIpAddress() : null;
-            if(addr != null && local_addresses.contains(addr))
-                if(!local_members.contains(mbr))
-                    local_members.add(mbr);
+            try {
+                local_bufs.put(mbr, getOrCreateBuffer(mbr));
+            }
+            catch(IOException ex) {
+                tp.getLog().warn("failed mapping the queue of %s, messages to it will be sent by %s: %s",
+                                 mbr, tp.getClass().getSimpleName(), ex);
+            }
         }
+        peers=new PeerTable(local_bufs, null);
         return this;
     }
 
+    /**
+     * Releases the resources of a member which left: the mapping of its queue (the file is deleted by the member, or
+     * replaced by its next incarnation) and the mapping of its slab, if we received messages from it
+     */
+    protected void memberLeft(Address mbr) {
+        SharedMemoryBuffer shm_buf=cache.remove(mbr);
+        if(shm_buf != null)
+            shm_buf.unmap();
+        if(buf != null) {
+            String queue=shm_buf != null? shm_buf.fileName() : addressToFilename(mbr, null);
+            buf.closeSlab(queue + SharedMemorySlab.SUFFIX);
+        }
+    }
+
+    /**
+     * A member is on the same host if it publishes our host identity in its queue. Members whose queue is not
+     * found or which don't publish an identity (or if we have none) are checked by IP address
+     */
+    protected boolean isSameHost(Address mbr) {
+        if(host_identity != null) {
+            SharedMemoryBuffer shm_buf=cache.get(mbr);
+            HostIdentity id=shm_buf != null? shm_buf.hostIdentity() : null;
+            if(id != null)
+                return id.equals(host_identity);
+        }
+        PhysicalAddress pa=tp.getPhysicalAddressFromCache(mbr);
+        if(pa == null || Objects.equals(pa, tp.localPhysicalAddress()))
+            return false;
+        InetAddress addr=pa instanceof IpAddress? ((IpAddress)pa).getIpAddress() : null;
+        return addr != null && local_addresses.contains(addr);
+    }
+
     @Override
     public void accept(ByteBuffer bb) {
         try {
-            ByteBufferInputStream receiveStream = this.cachedReceiveStream;
-            if (receiveStream == null || receiveStream.buf() != bb) {
-                receiveStream =new ByteBufferInputStream(bb);
-                this.cachedReceiveStream=null;
-            }
+            // bb is the same (read-only) buffer for all messages of a queue, so the stream can be reused
+            ByteBufferInputStream receiveStream=this.cachedReceiveStream;
+            if(receiveStream == null || receiveStream.buf() != bb)
+                this.cachedReceiveStream=receiveStream=new ByteBufferInputStream(bb);
             tp.receive(null, receiveStream, 0);
         }
         catch(Exception ex) {
@@ -193,27 +392,57 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
 
     @Override
     public void sendToAll(byte[] buf, int offset, int length) throws Exception {
-        Set<Address>  mbrs=members;
-        if(mbrs == null || mbrs.isEmpty())
-            mbrs=tp.getLogicalAddressCache().keySet();
-
-        for(Address dest: mbrs) {
-            if(Objects.equals(dest, tp.getAddress()))
-                continue;
-            if(isLocalMember(dest)) // takes null values into account
-                _sendTo(dest, buf, offset, length);
+        SharedMemoryBuffer[] dests=peers.peers();
+        if(dests.length > 0) {
+            if(slab == null || length < slab_threshold || !sendViaSlab(Arrays.asList(dests), buf, offset, length)) {
+                for(SharedMemoryBuffer dest: dests)
+                    send(dest, buf, offset, length);
+            }
         }
         num_mcasts.increment();
     }
 
 
     protected void _sendTo(Address dest, byte[] buf, int offset, int length) throws Exception {
-        SharedMemoryBuffer shm_buf=getOrCreateBuffer(dest);
-        if(shm_buf == null)
+        SharedMemoryBuffer shm_buf=peers.get(dest);
+        if(shm_buf == null && (shm_buf=getOrCreateBuffer(dest)) == null)
             throw new IllegalStateException(String.format("buffer for %s not found", dest));
-        shm_buf.write(buf, offset, length);
+        send(shm_buf, buf, offset, length);
     }
 
+    protected void send(SharedMemoryBuffer shm_buf, byte[] buf, int offset, int length) {
+        if(slab != null && length >= slab_threshold && sendViaSlab(List.of(shm_buf), buf, offset, length))
+            return;
+        SharedMemoryBundler b=bundler;
+        if(b != null)
+            b.send(shm_buf, buf, offset, length);
+        else
+            shm_buf.write(buf, offset, length);
+    }
+
+
+    /**
+     * Writes a message to the slab once and a descriptor to the queue of each destination. Returns false if the
+     * slab was full, and the message needs to be sent through the queues
+     */
+    protected boolean sendViaSlab(Collection<SharedMemoryBuffer> dests, byte[] buf, int offset, int length) {
+        int block=slab.write(buf, offset, length, dests.size());
+        if(block < 0)
+            return false;
+        SharedMemoryBundler b=bundler;
+        for(SharedMemoryBuffer dest: dests) {
+            if(b != null)
+                b.flush(dest); // the descriptor must not overtake messages bundled before it
+            if(!dest.write(slab, block, length))
+                slab.release(block);
+        }
+        return true;
+    }
+
+    protected IdleStrategy createIdleStrategy() {
+        long max_park=max_sleep > 0? TimeUnit.NANOSECONDS.convert(max_sleep, TimeUnit.MILLISECONDS) : idle_max_park;
+        return IdleStrategy.of(idle_strategy, idle_spins, idle_yields, idle_min_park, max_park, idle_busy_budget);
+    }
 
     protected SharedMemoryBuffer createBuffer(Address addr, String logical_name, boolean create,
                                               ThreadFactory thread_factory) throws IOException {
@@ -263,6 +492,51 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
                 case MAX_SLEEP:
                     max_sleep=Long.parseLong(value);
                     break;
+                case IDLE_STRATEGY:
+                    idle_strategy=value;
+                    break;
+                case IDLE_SPINS:
+                    idle_spins=Long.parseLong(value);
+                    break;
+                case IDLE_YIELDS:
+                    idle_yields=Long.parseLong(value);
+                    break;
+                case IDLE_MIN_PARK:
+                    idle_min_park=Long.parseLong(value);
+                    break;
+                case IDLE_MAX_PARK:
+                    idle_max_park=Long.parseLong(value);
+                    break;
+                case IDLE_BUSY_BUDGET:
+                    idle_busy_budget=Long.parseLong(value);
+                    break;
+                case SHARED_POLLER:
+                    shared_poller=Boolean.parseBoolean(value);
+                    break;
+                case POLLER_MSG_BUDGET:
+                    poller_msg_budget=Integer.parseInt(value);
+                    break;
+                case BUNDLER_ENABLED:
+                    bundler_enabled=Boolean.parseBoolean(value);
+                    break;
+                case MAX_BUNDLE_SIZE:
+                    max_bundle_size=Util.readBytesInteger(value);
+                    break;
+                case MAX_BUNDLE_TIME:
+                    max_bundle_time=Long.parseLong(value);
+                    break;
+                case SLAB_THRESHOLD:
+                    slab_threshold=Util.readBytesInteger(value);
+                    break;
+                case SLAB_CAPACITY:
+                    slab_capacity=Util.readBytesInteger(value);
+                    break;
+                case SLAB_BLOCK_SIZE:
+                    slab_block_size=Util.readBytesInteger(value);
+                    break;
+                case LOCALITY:
+                    locality=value;
+                    break;
                 default:
                     throw new IllegalArgumentException(String.format("attribute %s not known", key));
             }
@@ -280,6 +554,24 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
         return shm_buf;
     }
 
+    /** Maps the queues of the given members which are not yet in the cache, and exist under location/group/ */
+    protected void mapQueues(Collection<Address> mbrs) throws IOException {
+        String cluster=tp.getClusterName();
+        Path dir=Path.of(Objects.requireNonNull(location), Objects.requireNonNull(cluster));
+        File[] files=dir.toFile().listFiles();
+        if(files == null)
+            return;
+        for(File f: files) {
+            String tmp=f.getName();
+            if(tmp.endsWith(SharedMemorySlab.SUFFIX) || tmp.endsWith(SharedMemoryBuffer.CREATE_SUFFIX))
+                continue;
+            Tuple<Address,String> t=filenameToAddress(tmp);
+            Address uuid=t.val1();
+            if(mbrs.contains(uuid) && !cache.containsKey(uuid))
+                cache.putIfAbsent(uuid, createBuffer(uuid, t.val2(), false, tp.getThreadFactory()));
+        }
+    }
+
     /** Reads all files under location/group/ and populates cache */
     protected void initCache() throws IOException {
         String cluster=tp.getClusterName();
@@ -287,6 +579,8 @@ public class SharedMemoryLocalTransport implements LocalTransport, Consumer<Byte
         File[] files=dir.toFile().listFiles();
         for(File f: files) {
             String tmp=f.getName();
+            if(tmp.endsWith(SharedMemorySlab.SUFFIX) || tmp.endsWith(SharedMemoryBuffer.CREATE_SUFFIX))
+                continue;
             Tuple<Address,String> t=filenameToAddress(tmp);
             String logical_name=t.val2();
             Address uuid=t.val1();
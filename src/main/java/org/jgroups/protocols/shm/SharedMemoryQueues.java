@@ -0,0 +1,18 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.shm.SharedMemoryBuffer;
+
+/**
+ * Gives protocols above the transport access to the queues of the members reachable by shared memory, e.g. to
+ * look at their free capacity. Implemented by {@link SHM} and {@link SharedMemoryLocalTransport}
+ * @since  1.1.0
+ */
+public interface SharedMemoryQueues {
+
+    /** Returns the queue of dest, or null if dest is not reachable by shared memory (or not in the view) */
+    SharedMemoryBuffer queue(Address dest);
+
+    /** The queues of all members of the current view reachable by shared memory, excluding ourself */
+    SharedMemoryBuffer[] queues();
+}
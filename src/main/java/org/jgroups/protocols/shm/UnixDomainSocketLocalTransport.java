@@ -0,0 +1,385 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.View;
+import org.jgroups.annotations.MBean;
+import org.jgroups.annotations.ManagedAttribute;
+import org.jgroups.annotations.Property;
+import org.jgroups.conf.AttributeType;
+import org.jgroups.protocols.LocalTransport;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Implementation of {@link LocalTransport} based on Unix domain sockets, for hosts where shared memory cannot be used
+ * (e.g. a small /dev/shm, or containers which cannot share memory-mapped files).
+ * <p>
+ * Every member listens on location/cluster/uuid.sock. A member is local if its socket exists and accepts
+ * connections; a socket in a folder mounted by several containers can be connected to from all of them.
+ * Messages to a member are copied to the queue of its connection, and a sender thread per connection writes them
+ * in batches of up to max_batch_size bytes, each message prefixed by its length.
+ * @author Bela Ban
+ * @since  1.1.0
+ */
+@MBean(description="Implementation of LocalTransport using Unix domain sockets")
+public class UnixDomainSocketLocalTransport implements LocalTransport {
+    protected TP                                 tp;
+
+    @Property(description="Folder under which the sockets are created (location/cluster/uuid.sock)")
+    protected String                             location="/tmp/shm";
+
+    @Property(description="Max number of messages queued for a member. Senders block when the queue is full")
+    protected int                                send_queue_size=2000;
+
+    @Property(description="Max number of bytes written to a socket in a single write",type=AttributeType.BYTES)
+    protected int                                max_batch_size=64_000;
+
+    @Property(description="Initial size of the buffer of a receiver, grown for larger messages",
+      type=AttributeType.BYTES)
+    protected int                                recv_buffer_size=128_000;
+
+    @Property(description="Send buffer size of the sockets (SO_SNDBUF). 0 uses the OS default",
+      type=AttributeType.BYTES)
+    protected int                                sock_send_buf_size;
+
+    @Property(description="Receive buffer size of the sockets (SO_RCVBUF). 0 uses the OS default",
+      type=AttributeType.BYTES)
+    protected int                                sock_recv_buf_size;
+
+    protected ServerSocketChannel                srv_ch;
+
+    protected Path                               socket_file;
+
+    protected Thread                             acceptor;
+
+    protected final Set<SocketChannel>           receivers=Collections.synchronizedSet(new HashSet<>());
+
+    protected volatile Map<Address,Connection>   peers=Map.of(); // the connections to the local members
+
+    protected final LongAdder                    num_unicasts=new LongAdder();
+    protected final LongAdder                    num_mcasts=new LongAdder();
+    protected final LongAdder                    num_batches=new LongAdder();
+    protected final LongAdder                    num_batched_msgs=new LongAdder();
+
+    protected static final String                SUFFIX=".sock";
+    protected static final int                   MAX_PATH_LENGTH=107; // sun_path of struct sockaddr_un, minus the NUL
+
+
+    @ManagedAttribute(description="Number of unicasts sent via this transport",type=AttributeType.SCALAR)
+    public long localUnicasts() {return num_unicasts.sum();}
+
+    @ManagedAttribute(description="Number of multicasts sent via this transport",type=AttributeType.SCALAR)
+    public long localMulticasts() {return num_mcasts.sum();}
+
+    @ManagedAttribute(description="Number of writes to the sockets",type=AttributeType.SCALAR)
+    public long numBatches() {return num_batches.sum();}
+
+    @ManagedAttribute(description="Average number of messages per write")
+    public double avgBatchSize() {
+        long batches=num_batches.sum();
+        return batches == 0? 0 : num_batched_msgs.sum() / (double)batches;
+    }
+
+    @ManagedAttribute(description="The local members to which this transport sends")
+    public String getLocalMembers() {return peers.keySet().toString();}
+
+    @Override
+    public boolean isLocalMember(Address a) {
+        return peers.containsKey(a);
+    }
+
+    @Override
+    public LocalTransport resetStats() {
+        num_unicasts.reset();
+        num_mcasts.reset();
+        num_batches.reset();
+        num_batched_msgs.reset();
+        return this;
+    }
+
+
+    @Override
+    public LocalTransport init(TP transport) {
+        this.tp=Objects.requireNonNull(transport);
+        return this;
+    }
+
+    @Override
+    public LocalTransport start() throws Exception {
+        File f=new File(location);
+        if(!f.exists())
+            throw new IllegalArgumentException(String.format("location %s does not exist", location));
+        socket_file=socketPath(tp.getAddress());
+        Files.createDirectories(socket_file.getParent());
+        Files.deleteIfExists(socket_file); // left over by a crashed member
+        srv_ch=ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        srv_ch.bind(UnixDomainSocketAddress.of(socket_file));
+        socket_file.toFile().deleteOnExit();
+        acceptor=tp.getThreadFactory().newThread(this::acceptLoop, "uds-acceptor");
+        acceptor.start();
+        return this;
+    }
+
+    @Override
+    public LocalTransport stop() {
+        Map<Address,Connection> tmp=peers;
+        peers=Map.of();
+        tmp.values().forEach(Util::close);
+        Util.close(srv_ch);
+        synchronized(receivers) {
+            receivers.forEach(Util::close);
+        }
+        if(acceptor != null)
+            Util.interruptAndWaitToDie(acceptor);
+        try {
+            if(socket_file != null)
+                Files.deleteIfExists(socket_file);
+        }
+        catch(IOException ignored) {
+        }
+        return this;
+    }
+
+    @Override
+    public LocalTransport destroy() {
+        return this;
+    }
+
+    /** Connects to the members whose socket exists, and closes the connections to members which left */
+    @Override
+    public LocalTransport viewChange(View v) {
+        Map<Address,Connection> old_peers=peers, new_peers=new HashMap<>();
+        for(Address mbr: v.getMembers()) {
+            if(Objects.equals(mbr, tp.getAddress()))
+                continue;
+            Connection conn=old_peers.get(mbr);
+            if(conn != null && conn.isOpen()) {
+                new_peers.put(mbr, conn);
+                continue;
+            }
+            Path path=socketPath(mbr);
+            if(!Files.exists(path))
+                continue;
+            try {
+                new_peers.put(mbr, new Connection(mbr, path).start());
+            }
+            catch(IOException ex) { // e.g. a socket created on another host, in a shared folder
+                tp.getLog().debug("failed connecting to %s, messages to it will be sent by %s: %s",
+                                  mbr, tp.getClass().getSimpleName(), ex);
+            }
+        }
+        peers=new_peers;
+        for(Map.Entry<Address,Connection> e: old_peers.entrySet()) {
+            if(new_peers.get(e.getKey()) != e.getValue())
+                Util.close(e.getValue());
+        }
+        return this;
+    }
+
+    @Override
+    public void sendTo(Address dest, byte[] buf, int offset, int length) throws Exception {
+        Connection conn=peers.get(dest);
+        if(conn == null)
+            throw new IllegalStateException(String.format("connection to %s not found", dest));
+        conn.send(Arrays.copyOfRange(buf, offset, offset+length));
+        num_unicasts.increment();
+    }
+
+    @Override
+    public void sendToAll(byte[] buf, int offset, int length) throws Exception {
+        Collection<Connection> conns=peers.values();
+        if(!conns.isEmpty()) {
+            byte[] copy=Arrays.copyOfRange(buf, offset, offset+length); // shared by all connections
+            for(Connection conn: conns)
+                conn.send(copy);
+        }
+        num_mcasts.increment();
+    }
+
+    protected Path socketPath(Address addr) {
+        String cluster=tp.getClusterName();
+        Path path=Path.of(Objects.requireNonNull(location), Objects.requireNonNull(cluster),
+                          ((UUID)addr).toStringLong() + SUFFIX);
+        if(path.toString().length() > MAX_PATH_LENGTH)
+            throw new IllegalArgumentException(String.format("path of socket %s is longer than %d chars; " +
+                                                               "use a shorter location or cluster name",
+                                                             path, MAX_PATH_LENGTH));
+        return path;
+    }
+
+    protected void acceptLoop() {
+        while(srv_ch.isOpen()) {
+            try {
+                SocketChannel ch=srv_ch.accept();
+                if(sock_recv_buf_size > 0)
+                    ch.setOption(StandardSocketOptions.SO_RCVBUF, sock_recv_buf_size);
+                receivers.add(ch);
+                tp.getThreadFactory().newThread(() -> readLoop(ch), "uds-receiver").start();
+            }
+            catch(ClosedChannelException closed) {
+                break;
+            }
+            catch(IOException ex) {
+                tp.getLog().warn("failed accepting connection: %s", ex);
+            }
+        }
+    }
+
+    /** Reads messages from a connection and passes them up, until the sender closes the connection */
+    protected void readLoop(SocketChannel ch) {
+        ByteBuffer buf=ByteBuffer.allocate(recv_buffer_size);
+        try {
+            while(ch.read(buf) >= 0) {
+                buf.flip();
+                int len=0;
+                while(buf.remaining() >= Integer.BYTES
+                  && buf.remaining() >= Integer.BYTES + (len=buf.getInt(buf.position()))) {
+                    int pos=buf.position() + Integer.BYTES;
+                    tp.receive(null, buf.array(), buf.arrayOffset() + pos, len);
+                    buf.position(pos + len);
+                }
+                if(buf.remaining() >= Integer.BYTES && Integer.BYTES + len > buf.capacity()) {
+                    ByteBuffer tmp=ByteBuffer.allocate(Util.getNextHigherPowerOfTwo(Integer.BYTES + len));
+                    buf=tmp.put(buf);
+                }
+                else
+                    buf.compact();
+            }
+        }
+        catch(ClosedChannelException ignored) {
+        }
+        catch(Exception ex) {
+            if(ch.isOpen())
+                tp.getLog().warn("failed reading from connection: %s", ex);
+        }
+        finally {
+            receivers.remove(ch);
+            Util.close(ch);
+        }
+    }
+
+
+    /** A connection to a local member, with a queue of messages written by a sender thread */
+    protected class Connection implements Closeable, Runnable {
+        protected final Address               peer;
+        protected final SocketChannel         ch;
+        protected final BlockingQueue<byte[]> queue=new ArrayBlockingQueue<>(send_queue_size);
+        protected final ByteBuffer            write_buf=ByteBuffer.allocateDirect(max_batch_size);
+        protected final ByteBuffer[]          large_msg={ByteBuffer.allocateDirect(Integer.BYTES), null};
+        protected Thread                      sender;
+        protected volatile boolean            running=true;
+
+        protected Connection(Address peer, Path path) throws IOException {
+            this.peer=peer;
+            ch=SocketChannel.open(UnixDomainSocketAddress.of(path));
+            if(sock_send_buf_size > 0)
+                ch.setOption(StandardSocketOptions.SO_SNDBUF, sock_send_buf_size);
+        }
+
+        protected Connection start() {
+            sender=tp.getThreadFactory().newThread(this, "uds-sender-" + peer);
+            sender.start();
+            return this;
+        }
+
+        protected boolean isOpen() {
+            return running;
+        }
+
+        /** Queues a message; blocks while the queue is full, throws an exception when the connection is closed */
+        protected void send(byte[] msg) throws Exception {
+            while(!queue.offer(msg, 100, TimeUnit.MILLISECONDS)) {
+                if(!running)
+                    break;
+            }
+            if(!running)
+                throw new IOException(String.format("connection to %s is closed", peer));
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(running) {
+                    byte[] msg=queue.take();
+                    int msgs=0;
+                    do {
+                        if(Integer.BYTES + msg.length > write_buf.remaining()) {
+                            flush();
+                            if(Integer.BYTES + msg.length > write_buf.capacity()) {
+                                writeLarge(msg);
+                                msgs++;
+                                continue;
+                            }
+                        }
+                        write_buf.putInt(msg.length).put(msg);
+                        msgs++;
+                    }
+                    while((msg=queue.poll()) != null);
+                    flush();
+                    num_batched_msgs.add(msgs);
+                }
+            }
+            catch(InterruptedException | ClosedChannelException ignored) {
+            }
+            catch(IOException ex) {
+                tp.getLog().warn("failed writing to %s, closing connection: %s", peer, ex);
+            }
+            finally {
+                running=false;
+                queue.clear();
+                Util.close(ch);
+            }
+        }
+
+        protected void flush() throws IOException {
+            if(write_buf.position() == 0)
+                return;
+            write_buf.flip();
+            while(write_buf.hasRemaining())
+                ch.write(write_buf);
+            write_buf.clear();
+            num_batches.increment();
+        }
+
+        protected void writeLarge(byte[] msg) throws IOException {
+            large_msg[0].clear().putInt(msg.length).flip();
+            large_msg[1]=ByteBuffer.wrap(msg);
+            while(large_msg[1].hasRemaining())
+                ch.write(large_msg);
+            large_msg[1]=null;
+            num_batches.increment();
+        }
+
+        @Override
+        public void close() {
+            running=false;
+            if(sender != null)
+                sender.interrupt();
+            Util.close(ch);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (queued: %d)", peer, queue.size());
+        }
+    }
+}
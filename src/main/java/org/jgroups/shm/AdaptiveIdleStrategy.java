@@ -0,0 +1,162 @@
+package org.jgroups.shm;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link IdleStrategy} which adapts its spin, yield and park phases to the observed inter-arrival time of messages.
+ * <p>
+ * The expected gap between two messages (and its deviation) is tracked as an exponentially weighted moving average,
+ * similar to the way TCP estimates round-trip times. When the next message is expected within the busy budget, the
+ * strategy spins (and then yields) for about that long, so that it picks the message up without a wake-up. When
+ * traffic is sparser than the budget, spinning would only burn CPU, so it parks right away, starting with a park
+ * period derived from the expected gap and backing off exponentially up to {@code maxParkPeriodNs}.
+ * <p>
+ * The CPU spent per idle period is therefore bounded by {@code maxSpinNs + maxYieldNs}, regardless of the traffic
+ * pattern.
+ * <p>
+ * Instances are not thread-safe and must be used by a single consumer thread.
+ *
+ * @since 1.1.0
+ */
+public class AdaptiveIdleStrategy implements IdleStrategy {
+
+   /**
+    * Default maximum time spent spinning in a single idle period.
+    */
+   public static final long DEFAULT_MAX_SPIN_NS = 25_000L;
+
+   /**
+    * Default maximum time spent yielding in a single idle period, after spinning.
+    */
+   public static final long DEFAULT_MAX_YIELD_NS = 25_000L;
+
+   /**
+    * Samples larger than this are clamped, so that a single long pause doesn't dominate the estimate.
+    */
+   private static final long MAX_SAMPLE_NS = 1_000_000_000L;
+
+   private static final int NOT_IDLE = 0;
+   private static final int SPINNING = 1;
+   private static final int YIELDING = 2;
+   private static final int PARKING = 3;
+
+   private final long maxSpinNs;
+   private final long maxYieldNs;
+   private final long minParkPeriodNs;
+   private final long maxParkPeriodNs;
+
+   private int state = NOT_IDLE;
+   private long lastArrivalNs;
+   private long expectedGapNs;
+   private long gapDeviationNs;
+   private long spinDeadlineNs;
+   private long yieldDeadlineNs;
+   private long parkPeriodNs;
+
+   public AdaptiveIdleStrategy() {
+      this(DEFAULT_MAX_SPIN_NS, DEFAULT_MAX_YIELD_NS, DEFAULT_MIN_PARK_PERIOD_NS, DEFAULT_MAX_PARK_PERIOD_NS);
+   }
+
+   public AdaptiveIdleStrategy(final long maxSpinNs,
+                               final long maxYieldNs,
+                               final long minParkPeriodNs,
+                               final long maxParkPeriodNs) {
+      if (maxSpinNs < 0 || maxYieldNs < 0) {
+         throw new IllegalArgumentException("spin and yield budgets must not be negative");
+      }
+      if (minParkPeriodNs <= 0 || maxParkPeriodNs < minParkPeriodNs) {
+         throw new IllegalArgumentException("invalid park bounds: min=" + minParkPeriodNs + ", max=" + maxParkPeriodNs);
+      }
+      this.maxSpinNs = maxSpinNs;
+      this.maxYieldNs = maxYieldNs;
+      this.minParkPeriodNs = minParkPeriodNs;
+      this.maxParkPeriodNs = maxParkPeriodNs;
+      // assume sparse traffic until we've seen some
+      this.expectedGapNs = maxParkPeriodNs;
+   }
+
+   /**
+    * The current estimate of the time between two messages.
+    */
+   public long expectedGapNs() {
+      return expectedGapNs;
+   }
+
+   /**
+    * The current estimate of the mean deviation of the time between two messages.
+    */
+   public long gapDeviationNs() {
+      return gapDeviationNs;
+   }
+
+   @Override
+   public void idle(final int workCount) {
+      if (workCount > 0) {
+         arrived(workCount);
+      } else {
+         idle();
+      }
+   }
+
+   private void arrived(final int workCount) {
+      final long now = System.nanoTime();
+      if (lastArrivalNs != 0) {
+         final long sample = Math.min(now - lastArrivalNs, MAX_SAMPLE_NS) / workCount;
+         final long error = sample - expectedGapNs;
+         expectedGapNs += error >> 3;
+         gapDeviationNs += (Math.abs(error) - gapDeviationNs) >> 2;
+      }
+      lastArrivalNs = now;
+      state = NOT_IDLE;
+   }
+
+   private void idle() {
+      switch (state) {
+         case NOT_IDLE:
+            startIdlePeriod();
+            break;
+
+         case SPINNING:
+            Thread.onSpinWait();
+            if (System.nanoTime() - spinDeadlineNs >= 0) {
+               state = YIELDING;
+            }
+            break;
+
+         case YIELDING:
+            if (System.nanoTime() - yieldDeadlineNs >= 0) {
+               state = PARKING;
+            } else {
+               Thread.yield();
+            }
+            break;
+
+         case PARKING:
+            LockSupport.parkNanos(parkPeriodNs);
+            parkPeriodNs = Math.min(parkPeriodNs << 1, maxParkPeriodNs);
+            break;
+      }
+   }
+
+   private void startIdlePeriod() {
+      final long now = System.nanoTime();
+      // most arrivals fall within the mean plus 2 deviations
+      final long window = expectedGapNs + (gapDeviationNs << 1);
+      if (window <= maxSpinNs + maxYieldNs) {
+         final long spinNs = Math.min(window, maxSpinNs);
+         spinDeadlineNs = now + spinNs;
+         yieldDeadlineNs = spinDeadlineNs + Math.min(window - spinNs, maxYieldNs);
+         state = SPINNING;
+      } else {
+         // the next message is not expected any time soon: busy waiting would only waste CPU
+         state = PARKING;
+      }
+      parkPeriodNs = Math.max(minParkPeriodNs, Math.min(expectedGapNs >> 3, maxParkPeriodNs));
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%s (expected gap=%,dns +/- %,dns, max spin=%,dns, max yield=%,dns, park=%,d-%,dns)",
+                           ADAPTIVE, expectedGapNs, gapDeviationNs, maxSpinNs, maxYieldNs, minParkPeriodNs, maxParkPeriodNs);
+   }
+}
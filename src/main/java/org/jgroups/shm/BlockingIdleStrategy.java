@@ -0,0 +1,71 @@
+package org.jgroups.shm;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * {@link IdleStrategy} which parks the consumer until a producer wakes it up, or until {@code maxParkPeriodNs}
+ * elapses.
+ * <p>
+ * Only producers in the same JVM can wake up the consumer (see {@link SharedMemoryBuffer}); messages written by
+ * other processes are picked up when the park period elapses, so the max park period bounds their latency.
+ * <p>
+ * Before parking, the consumer announces itself and then re-checks for available work. As producers check for a
+ * parked consumer only after their claim (a CAS on the tail) succeeded, either the consumer sees the claim or the
+ * producer sees the parked consumer, so no wake-up is lost.
+ *
+ * @since 1.1.0
+ */
+public class BlockingIdleStrategy implements IdleStrategy {
+
+   private static final BooleanSupplier NO_WORK = () -> false;
+
+   private final long maxParkPeriodNs;
+   private volatile Thread waiter;
+   private volatile BooleanSupplier workAvailable = NO_WORK;
+
+   public BlockingIdleStrategy(final long maxParkPeriodNs) {
+      if (maxParkPeriodNs <= 0) {
+         throw new IllegalArgumentException("max park period must be positive: " + maxParkPeriodNs);
+      }
+      this.maxParkPeriodNs = maxParkPeriodNs;
+   }
+
+   /**
+    * Sets the check run after announcing the consumer as parked, and before actually parking it.
+    */
+   public BlockingIdleStrategy workAvailable(final BooleanSupplier workAvailable) {
+      this.workAvailable = workAvailable != null ? workAvailable : NO_WORK;
+      return this;
+   }
+
+   @Override
+   public void idle(final int workCount) {
+      if (workCount > 0) {
+         return;
+      }
+      waiter = Thread.currentThread();
+      try {
+         if (!workAvailable.getAsBoolean()) {
+            LockSupport.parkNanos(this, maxParkPeriodNs);
+         }
+      } finally {
+         waiter = null;
+      }
+   }
+
+   /**
+    * Wakes up the consumer if it is parked. Called by producers after committing a message.
+    */
+   public void wakeUp() {
+      final Thread waiter = this.waiter;
+      if (waiter != null) {
+         LockSupport.unpark(waiter);
+      }
+   }
+
+   @Override
+   public String toString() {
+      return String.format("%s (max park=%,dns)", BLOCKING, maxParkPeriodNs);
+   }
+}
@@ -2,13 +2,16 @@ package org.jgroups.shm;
 
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.lang.ref.Reference;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.ReadOnlyBufferException;
 import java.util.Arrays;
+import java.util.function.BooleanSupplier;
 
 import sun.misc.Unsafe;
 
@@ -19,6 +22,8 @@ public class ByteBufferUtils {
    private static final Unsafe UNSAFE;
    private static final long BYTE_BUFFER_ADDRESS_FIELD_OFFSET;
    private static final long ARRAY_BYTE_BASE_OFFSET;
+   private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+   public static final int PAGE_SIZE = 4096;
 
    static {
       Unsafe unsafe = null;
@@ -162,6 +167,45 @@ public class ByteBufferUtils {
       }
    }
 
+   /**
+    * Writes a long to every page of {@code buffer} in [{@code index}, {@code index + length}), so that the pages are
+    * allocated (and mapped writable) before they are needed. A page is only written if its first long is zero, with a
+    * {@code 0 -> 0} CAS: the content never changes, so it is safe while other threads or processes write to it.<br>
+    * It stops early if {@code stop} returns {@code true} (checked every 256 pages), and returns the number of pages
+    * visited.
+    */
+   public static int touchPages(final ByteBuffer buffer, final int index, final int length, final BooleanSupplier stop) {
+      if (!buffer.isDirect() || buffer.isReadOnly()) {
+         throw new IllegalArgumentException("buffer must be direct and writable");
+      }
+      if (index % Long.BYTES != 0) {
+         throw new IllegalArgumentException("index must be aligned to " + Long.BYTES);
+      }
+      final int end = index + length - Long.BYTES;
+      int pages = 0;
+      for (int offset = index; offset <= end; offset += PAGE_SIZE) {
+         if ((pages & 0xff) == 0 && stop.getAsBoolean()) {
+            break;
+         }
+         LONG_VIEW.compareAndSet(buffer, offset, 0L, 0L);
+         pages++;
+      }
+      return pages;
+   }
+
+   /**
+    * Unmaps a memory-mapped {@code buffer} right away, instead of when it is garbage collected. Neither
+    * {@code buffer} nor any of its views (e.g. duplicates) must be accessed afterwards, or the JVM crashes.<br>
+    * Returns {@code false} if {@link Unsafe} is not available, leaving the mapping to the GC.
+    */
+   public static boolean unmap(final ByteBuffer buffer) {
+      if (UNSAFE == null || !buffer.isDirect()) {
+         return false;
+      }
+      UNSAFE.invokeCleaner(buffer);
+      return true;
+   }
+
    private static long address(final ByteBuffer buffer) {
       return UNSAFE.getLong(buffer, BYTE_BUFFER_ADDRESS_FIELD_OFFSET);
    }
@@ -0,0 +1,67 @@
+package org.jgroups.shm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * Identifies a set of processes which can exchange messages via shared memory: the boot id of the kernel (shared
+ * by all containers on a host, but not by different hosts or VMs), plus the inode of the shared location (shared by
+ * all processes which see the same directory, e.g. via a bind mount, but not by those which have their own
+ * {@code /dev/shm} or {@code /tmp}).
+ * <p>
+ * Each member publishes its identity in the metadata of its queue (see {@link SharedMemoryBuffer#hostIdentity()}).
+ * A member whose queue can be mapped and which publishes the same identity is local, regardless of its IP address.
+ * @since  1.1.0
+ */
+public class HostIdentity {
+    protected final long boot_id_msb, boot_id_lsb, location_inode;
+
+    protected static final Path BOOT_ID=Path.of("/proc/sys/kernel/random/boot_id");
+
+    public HostIdentity(long boot_id_msb, long boot_id_lsb, long location_inode) {
+        this.boot_id_msb=boot_id_msb;
+        this.boot_id_lsb=boot_id_lsb;
+        this.location_inode=location_inode;
+    }
+
+    /**
+     * Returns the identity of this process for the given shared location, or null if it cannot be determined
+     * (e.g. on non-Linux systems)
+     */
+    public static HostIdentity local(String location) {
+        try {
+            UUID boot_id=UUID.fromString(Files.readString(BOOT_ID).trim());
+            Object ino=Files.getAttribute(Path.of(Objects.requireNonNull(location)), "unix:ino");
+            return new HostIdentity(boot_id.getMostSignificantBits(), boot_id.getLeastSignificantBits(),
+                                    ((Number)ino).longValue());
+        }
+        catch(IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public long bootIdMsb()       {return boot_id_msb;}
+    public long bootIdLsb()       {return boot_id_lsb;}
+    public long locationInode()   {return location_inode;}
+
+    @Override
+    public boolean equals(Object obj) {
+        if(!(obj instanceof HostIdentity))
+            return false;
+        HostIdentity other=(HostIdentity)obj;
+        return boot_id_msb == other.boot_id_msb && boot_id_lsb == other.boot_id_lsb
+          && location_inode == other.location_inode;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(boot_id_msb, boot_id_lsb, location_inode);
+    }
+
+    public String toString() {
+        return String.format("%s/%d", new UUID(boot_id_msb, boot_id_lsb), location_inode);
+    }
+}
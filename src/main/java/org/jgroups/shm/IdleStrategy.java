@@ -25,8 +25,117 @@ public interface IdleStrategy {
     */
    long DEFAULT_MAX_PARK_PERIOD_NS = 1_000_000L;
 
+   String BUSY_SPIN = "busy_spin";
+   String SPIN_YIELD = "spin_yield";
+   String SLEEPING = "sleeping";
+   String BACKOFF = "backoff";
+   String ADAPTIVE = "adaptive";
+   String BLOCKING = "blocking";
+
    void idle(final int workCount);
 
+   /**
+    * Creates an idle strategy by name; parameters which don't apply to the given strategy are ignored.
+    *
+    * @param name            one of {@link #BUSY_SPIN}, {@link #SPIN_YIELD}, {@link #SLEEPING}, {@link #BACKOFF},
+    *                        {@link #ADAPTIVE} or {@link #BLOCKING}.
+    * @param maxSpins        number of spins before yielding (spin_yield, backoff).
+    * @param maxYields       number of yields before parking (backoff).
+    * @param minParkPeriodNs park period of sleeping, initial park period of backoff and adaptive.
+    * @param maxParkPeriodNs max park period of backoff, adaptive and blocking.
+    * @param busyBudgetNs    max time adaptive spins and yields in an idle period.
+    * @throws IllegalArgumentException if the name is not known.
+    */
+   static IdleStrategy of(final String name,
+                          final long maxSpins,
+                          final long maxYields,
+                          final long minParkPeriodNs,
+                          final long maxParkPeriodNs,
+                          final long busyBudgetNs) {
+      switch (name) {
+         case BUSY_SPIN:
+            return busySpinIdle();
+         case SPIN_YIELD:
+            return spinYieldIdle(maxSpins);
+         case SLEEPING:
+            return sleepingIdle(minParkPeriodNs);
+         case BACKOFF:
+            return backoffIdle(maxSpins, maxYields, minParkPeriodNs, maxParkPeriodNs);
+         case ADAPTIVE:
+            final long spinBudgetNs = busyBudgetNs / 2;
+            return adaptiveIdle(spinBudgetNs, busyBudgetNs - spinBudgetNs, minParkPeriodNs, maxParkPeriodNs);
+         case BLOCKING:
+            return blockingIdle(maxParkPeriodNs);
+         default:
+            throw new IllegalArgumentException("idle strategy " + name + " not known");
+      }
+   }
+
+   /**
+    * Never gives up the CPU: lowest latency, but burns a full core. Only use on dedicated cores.
+    */
+   static IdleStrategy busySpinIdle() {
+      return new IdleStrategy() {
+         @Override
+         public void idle(final int workCount) {
+            if (workCount <= 0) {
+               Thread.onSpinWait();
+            }
+         }
+
+         @Override
+         public String toString() {
+            return BUSY_SPIN;
+         }
+      };
+   }
+
+   /**
+    * Spins {@code maxSpins} times, then yields the CPU on every idle call until work is found.
+    */
+   static IdleStrategy spinYieldIdle(final long maxSpins) {
+      return new IdleStrategy() {
+
+         private long spins;
+
+         @Override
+         public void idle(final int workCount) {
+            if (workCount > 0) {
+               spins = 0;
+            } else if (spins < maxSpins) {
+               spins++;
+               Thread.onSpinWait();
+            } else {
+               Thread.yield();
+            }
+         }
+
+         @Override
+         public String toString() {
+            return String.format("%s (spins=%d)", SPIN_YIELD, maxSpins);
+         }
+      };
+   }
+
+   /**
+    * Parks for a fixed period on every idle call.
+    */
+   static IdleStrategy sleepingIdle(final long parkPeriodNs) {
+      return new IdleStrategy() {
+         @Override
+         public void idle(final int workCount) {
+            if (workCount <= 0) {
+               LockSupport.parkNanos(parkPeriodNs);
+            }
+         }
+
+         @Override
+         public String toString() {
+            return String.format("%s (park=%,dns)", SLEEPING, parkPeriodNs);
+         }
+      };
+   }
+
    static IdleStrategy backoffIdle() {
       return backoffIdle(DEFAULT_MAX_SPINS, DEFAULT_MAX_YIELDS, DEFAULT_MIN_PARK_PERIOD_NS, DEFAULT_MAX_PARK_PERIOD_NS);
    }
@@ -92,6 +201,27 @@ public interface IdleStrategy {
                   break;
             }
          }
+
+         @Override
+         public String toString() {
+            return String.format("%s (spins=%d, yields=%d, park=%,d-%,dns)",
+                                 BACKOFF, maxSpins, maxYields, minParkPeriodNs, maxParkPeriodNs);
+         }
       };
    }
+
+   static IdleStrategy blockingIdle(final long maxParkPeriodNs) {
+      return new BlockingIdleStrategy(maxParkPeriodNs);
+   }
+
+   static IdleStrategy adaptiveIdle() {
+      return new AdaptiveIdleStrategy();
+   }
+
+   static IdleStrategy adaptiveIdle(final long maxSpinNs,
+                                    final long maxYieldNs,
+                                    final long minParkPeriodNs,
+                                    final long maxParkPeriodNs) {
+      return new AdaptiveIdleStrategy(maxSpinNs, maxYieldNs, minParkPeriodNs, maxParkPeriodNs);
+   }
 }
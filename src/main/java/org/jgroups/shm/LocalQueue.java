@@ -0,0 +1,67 @@
+package org.jgroups.shm;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The on-heap queue of a consumer, through which producers in the same JVM pass copies of their records, instead of
+ * writing them to the mapped queue (see {@link SharedMemoryBuffer#localPath(boolean)}). The bytes of the queued
+ * records are bounded by a capacity (that of the mapped queue): a producer reserves room for a record before offering
+ * it, and the reservation fails when the capacity would be exceeded, like a claim on a full queue.
+ * <p>
+ * Producers call {@link #reserve(int, long)} and {@link #offer(int, byte[])}, the consumer {@link #poll()}.
+ * @since  1.1.0
+ */
+public class LocalQueue {
+    protected final Queue<Record> records=new ConcurrentLinkedQueue<>();
+    protected final AtomicLong    bytes=new AtomicLong(); // reserved by producers, released by the consumer
+
+    public boolean isEmpty() {return records.isEmpty();}
+    public long    bytes()   {return bytes.get();}
+
+    /** Reserves room for a record of length bytes. Returns false if the queue would exceed capacity bytes */
+    public boolean reserve(int length, long capacity) {
+        for(;;) {
+            long n=bytes.get();
+            if(n + length > capacity)
+                return false;
+            if(bytes.compareAndSet(n, n + length))
+                return true;
+        }
+    }
+
+    /** Adds a record, for which room has been reserved */
+    public void offer(int msg_type, byte[] data) {
+        records.offer(new Record(msg_type, data));
+    }
+
+    /** Removes the next record and releases its room. Returns null if the queue is empty */
+    public Record poll() {
+        Record r=records.poll();
+        if(r != null)
+            bytes.addAndGet(-r.data.length);
+        return r;
+    }
+
+    public void clear() {
+        records.clear();
+        bytes.set(0);
+    }
+
+    public String toString() {
+        return String.format("%d records (%,d bytes)", records.size(), bytes());
+    }
+
+
+    /** A copy of a record, see {@link SharedMemoryBuffer#writeLocal(SharedMemoryBuffer, int, byte[], int, int)} */
+    public static class Record {
+        protected final int    msg_type;
+        protected final byte[] data;
+
+        protected Record(int msg_type, byte[] data) {
+            this.msg_type=msg_type;
+            this.data=data;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.jgroups.shm;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jgroups.shm.ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY;
+import static org.jgroups.shm.ManyToOneBoundedChannel.claimedIndex;
+import static org.jgroups.shm.SharedMemoryBuffer.MSG_FLAG_SEQUENCED;
+import static org.jgroups.shm.SharedMemoryBuffer.SEQ_HEADER_LENGTH;
+
+/**
+ * The producer side of lossless mode (see {@link SharedMemoryBuffer#lossless(long)}). A claim on a full queue blocks
+ * until the consumer has made room, or max_block_time_ns has elapsed; the message is then dropped. Every record starts
+ * with [seqno (long) | producer id (int)], so that the consumer sees a dropped message as a gap in the seqnos of the
+ * producer. Claims are serialized, so that the records of a producer are in seqno order.
+ * <p>
+ * After a timeout, the sequencer is stalled: further messages are dropped without blocking, until one of them finds
+ * room in the queue.
+ * @since  1.1.0
+ */
+public class LosslessSequencer {
+    protected final int                                   producer_id; // claimed from the queue's metadata
+    protected final AtomicReference<BlockingIdleStrategy> blocked_consumer; // woken up by a blocked write
+    protected volatile long                               max_block_time_ns;
+    protected long                                        seqno;       // last seqno written, guarded by this
+    protected boolean                                     stalled;     // the last write timed out, guarded by this
+    protected final IdleStrategy                          idle;        // backoff of a blocked write, guarded by this
+    protected final LongAdder                             blocked_writes=new LongAdder();
+
+    public LosslessSequencer(int producer_id, long max_block_time_ns,
+                             AtomicReference<BlockingIdleStrategy> blocked_consumer) {
+        this.producer_id=producer_id;
+        this.blocked_consumer=blocked_consumer;
+        maxBlockTime(max_block_time_ns);
+        idle=IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
+                                      IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS, IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS);
+    }
+
+    public int               producerId()    {return producer_id;}
+    public long              maxBlockTime()  {return max_block_time_ns;}
+    public long              blockedWrites() {return blocked_writes.sum();}
+    public synchronized long seqno()         {return seqno;}
+    public synchronized boolean stalled()    {return stalled;}
+    public void              resetStats()    {blocked_writes.reset();}
+
+    public LosslessSequencer maxBlockTime(long ns) {
+        if(ns <= 0)
+            throw new IllegalArgumentException("max_block_time must be positive: " + ns);
+        max_block_time_ns=ns;
+        return this;
+    }
+
+    /**
+     * Claims space for a sequenced record of msg_type in rb, and writes the sequence header. Returns
+     * {@link ManyToOneBoundedChannel#INSUFFICIENT_CAPACITY} if rb was still full after blocking (the message is
+     * dropped), or if rb has been sealed (no seqno is consumed: the caller retries with the successor of rb)
+     */
+    public synchronized long claim(ManyToOneBoundedChannel rb, int msg_type, int length) {
+        final int type=msg_type | MSG_FLAG_SEQUENCED, len=length + SEQ_HEADER_LENGTH;
+        long claim=rb.tryClaim(type, len);
+        if(claim == INSUFFICIENT_CAPACITY && !SharedMemoryBuffer.countFullWrite(rb))
+            return claim; // sealed: the caller switches to the successor, the seqno is used there
+        if(claim == INSUFFICIENT_CAPACITY && !stalled) {
+            blocked_writes.increment();
+            final long deadline=System.nanoTime() + max_block_time_ns;
+            do {
+                wakeUp(blocked_consumer);
+                idle.idle(0);
+                claim=rb.tryClaim(type, len);
+            }
+            while(claim == INSUFFICIENT_CAPACITY && !rb.isSealed() && deadline - System.nanoTime() > 0);
+            idle.idle(1);
+            if(claim == INSUFFICIENT_CAPACITY && rb.isSealed())
+                return claim;
+        }
+        seqno++; // a dropped message consumes a seqno too, so that the consumer detects the loss
+        if(claim == INSUFFICIENT_CAPACITY) {
+            stalled=true;
+            return claim;
+        }
+        stalled=false;
+        rb.buffer().putLong(claimedIndex(claim), seqno).putInt(claimedIndex(claim) + Long.BYTES, producer_id);
+        return claim;
+    }
+
+    /**
+     * Passes a sequenced copy of a message to consumer c, which lives in the same JVM (see
+     * {@link SharedMemoryBuffer#writeLocal(SharedMemoryBuffer, int, byte[], int, int)}). Blocks like
+     * {@link #claim(ManyToOneBoundedChannel, int, int)} while the records queued at c exceed its capacity. Returns
+     * false if the message was dropped
+     */
+    public synchronized boolean writeLocal(SharedMemoryBuffer c, int msg_type, byte[] buf, int offset, int length) {
+        final int len=length + SEQ_HEADER_LENGTH;
+        boolean reserved=c.reserveLocal(len);
+        if(!reserved && !stalled) {
+            blocked_writes.increment();
+            final long deadline=System.nanoTime() + max_block_time_ns;
+            do {
+                wakeUp(c.blocked_consumer);
+                idle.idle(0);
+            }
+            while(!(reserved=c.reserveLocal(len)) && deadline - System.nanoTime() > 0);
+            idle.idle(1);
+        }
+        seqno++;
+        if(!reserved) {
+            stalled=true;
+            return false;
+        }
+        stalled=false;
+        byte[] copy=new byte[len];
+        ByteBuffer.wrap(copy).putLong(seqno).putInt(producer_id).put(buf, offset, length);
+        c.offerLocal(msg_type | MSG_FLAG_SEQUENCED, copy); // under the lock, to keep the order of the seqnos
+        return true;
+    }
+
+    public String toString() {
+        return String.format("producer_id=%d, seqno=%d, max_block_time=%,dns%s",
+                             producer_id, seqno(), max_block_time_ns, stalled()? " (stalled)" : "");
+    }
+
+    protected static void wakeUp(AtomicReference<BlockingIdleStrategy> consumer) {
+        BlockingIdleStrategy blocked=consumer.get();
+        if(blocked != null)
+            blocked.wakeUp();
+    }
+}
@@ -81,10 +81,17 @@ public class ManyToOneBoundedChannel {
       public static final int HEADER_LENGTH = Integer.BYTES * 2;
 
       /**
-       * Alignment as a multiple of bytes for each record.
+       * Default (and minimum) alignment as a multiple of bytes for each record, see
+       * {@link ManyToOneBoundedChannel#ManyToOneBoundedChannel(ByteBuffer, int)}.
        */
       public static final int ALIGNMENT = HEADER_LENGTH;
 
+      /**
+       * Max alignment of records: two cache lines, which also keeps the adjacent-line prefetcher from pulling in the
+       * record of another producer.
+       */
+      public static final int MAX_ALIGNMENT = 128;
+
       private RecordDescriptor() {
       }
 
@@ -147,6 +154,17 @@ public class ManyToOneBoundedChannel {
     */
    public static final int TRAILER_LENGTH;
 
+   /**
+    * Length of the metadata area at the start of the trailer: it is not used by the ring buffer itself, and can be
+    * used to publish information about the buffer to the processes which map it.
+    */
+   public static final int METADATA_LENGTH = CACHE_LINE_LENGTH * 2;
+
+   /**
+    * Max capacity of a ring buffer which can be sealed (see {@link #seal()}).
+    */
+   public static final int MAX_SEALABLE_CAPACITY = 1 << 29;
+
    static {
       int offset = 0;
       offset += (CACHE_LINE_LENGTH * 2);
@@ -197,6 +215,7 @@ public class ManyToOneBoundedChannel {
    private static final VarHandle MSG_STATE_UPDATER = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
    private static final VarHandle SEQUENCES_UPDATER = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
    private final int capacity;
+   private final int alignment;
    private final int maxMsgLength;
    private final int tailPositionIndex;
    private final int headCachePositionIndex;
@@ -204,6 +223,23 @@ public class ManyToOneBoundedChannel {
    private final ByteBuffer buffer;
 
    public ManyToOneBoundedChannel(final ByteBuffer buffer) {
+      this(buffer, ALIGNMENT);
+   }
+
+   /**
+    * Records are aligned to {@code alignment} bytes: with the default ({@link RecordDescriptor#ALIGNMENT}), small records
+    * of different producers share cache lines, and the commit of a record invalidates the line another producer is
+    * still writing its record to. Aligning records to a cache line (64) or two (128) avoids this false sharing, at
+    * the cost of the capacity wasted by padding small records.
+    * <p>
+    * The consumer and all producers must use the same alignment. This class doesn't record it in the buffer:
+    * {@link SharedMemoryBuffer} stores it in the metadata of the queue it creates, and its producers read it from
+    * there.
+    *
+    * @param alignment a power of 2 in range [{@link RecordDescriptor#ALIGNMENT} .. {@link RecordDescriptor#MAX_ALIGNMENT}].
+    */
+   public ManyToOneBoundedChannel(final ByteBuffer buffer, final int alignment) {
+      checkAlignment(alignment);
       if (buffer.isReadOnly()) {
          throw new IllegalArgumentException("buffer cannot be read-only");
       }
@@ -214,16 +250,44 @@ public class ManyToOneBoundedChannel {
       if (capacity % Long.BYTES != 0) {
          throw new IllegalArgumentException("buffer capacity must be a multiple of " + Long.BYTES);
       }
+      if (capacity < alignment) {
+         throw new IllegalArgumentException("buffer capacity must be at least the alignment " + alignment);
+      }
+      this.alignment = alignment;
       maxMsgLength = capacity >> 3;
       tailPositionIndex = capacity + PRODUCER_SEQUENCE_OFFSET;
       headCachePositionIndex = capacity + CONSUMER_CACHE_SEQUENCE_OFFSET;
       headPositionIndex = capacity + CONSUMER_SEQUENCE_OFFSET;
    }
 
+   /**
+    * Check that records can be aligned to {@code alignment}.
+    *
+    * @throws IllegalArgumentException if alignment is not a power of 2 in range
+    *                                  [{@link RecordDescriptor#ALIGNMENT} .. {@link RecordDescriptor#MAX_ALIGNMENT}].
+    */
+   public static void checkAlignment(final int alignment) {
+      if (!isPowerOfTwo(alignment) || alignment < ALIGNMENT || alignment > MAX_ALIGNMENT) {
+         throw new IllegalArgumentException("alignment must be a power of 2 in range [" + ALIGNMENT + " .. " +
+                                               MAX_ALIGNMENT + "]: alignment=" + alignment);
+      }
+   }
+
    public int capacity() {
       return capacity;
    }
 
+   public int alignment() {
+      return alignment;
+   }
+
+   /**
+    * @return the number of bytes a record containing a message of {@code length} bytes takes in the buffer.
+    */
+   public int recordLength(final int length) {
+      return align(length + HEADER_LENGTH, alignment);
+   }
+
    public long tryClaim(final int msgTypeId, final int length) {
       checkTypeId(msgTypeId);
       checkMsgLength(length);
@@ -279,6 +343,7 @@ public class ManyToOneBoundedChannel {
 
       final ByteBuffer buffer = this.buffer;
       final int headPositionIndex = this.headPositionIndex;
+      final int alignment = this.alignment;
       final long head = (long) SEQUENCES_UPDATER.getOpaque(buffer, headPositionIndex);
 
       final int capacity = this.capacity;
@@ -294,7 +359,7 @@ public class ManyToOneBoundedChannel {
                break;
             }
 
-            bytesRead += align(recordLength, ALIGNMENT);
+            bytesRead += align(recordLength, alignment);
 
             final int messageTypeId = (int) MSG_STATE_UPDATER.getOpaque(buffer, typeOffset(recordIndex));
             if (PADDING_MSG_TYPE_ID == messageTypeId) {
@@ -314,6 +379,66 @@ public class ManyToOneBoundedChannel {
       return messagesRead;
    }
 
+   /**
+    * Read a long from the metadata area.
+    *
+    * @param offset within the metadata area, a multiple of {@link Long#BYTES}.
+    * @return the value, or {@code 0} if it has never been written.
+    */
+   public long getMetadata(final int offset) {
+      return (long) SEQUENCES_UPDATER.getVolatile(buffer, metadataIndex(offset));
+   }
+
+   /**
+    * Write a long to the metadata area, with release semantics.
+    *
+    * @param offset within the metadata area, a multiple of {@link Long#BYTES}.
+    * @param value  to be written.
+    */
+   public void putMetadata(final int offset, final long value) {
+      SEQUENCES_UPDATER.setRelease(buffer, metadataIndex(offset), value);
+   }
+
+   /**
+    * Atomically set a long of the metadata area to {@code value} if it's equal to {@code expected}.
+    *
+    * @return {@code true} if successful.
+    */
+   public boolean compareAndSetMetadata(final int offset, final long expected, final long value) {
+      return SEQUENCES_UPDATER.compareAndSet(buffer, metadataIndex(offset), expected, value);
+   }
+
+   /**
+    * Seal the ring buffer: the tail is moved {@code capacity + alignment} bytes ahead of the last claimed record, so
+    * that all subsequent claims fail with {@link #INSUFFICIENT_CAPACITY}, while the records claimed before can still
+    * be committed and read. Requires a capacity of at most 2^29, so that the distance between tail and head doesn't
+    * overflow an int. To be called by the consumer only.
+    *
+    * @return the producer position at which the ring buffer was sealed: it is drained when the consumer position
+    * reaches it.
+    */
+   public long seal() {
+      if (capacity > MAX_SEALABLE_CAPACITY) {
+         throw new IllegalStateException("capacity " + capacity + " exceeds " + MAX_SEALABLE_CAPACITY);
+      }
+      final long sealOffset = capacity + alignment;
+      long tail;
+      do {
+         tail = producerPosition();
+         if (isSealed()) {
+            return tail - sealOffset;
+         }
+      } while (!SEQUENCES_UPDATER.compareAndSet(buffer, tailPositionIndex, tail, tail + sealOffset));
+      return tail;
+   }
+
+   /**
+    * @return {@code true} if {@link #seal()} has been called: the tail is further ahead of the head than capacity.
+    */
+   public boolean isSealed() {
+      return producerPosition() - consumerPosition() > capacity;
+   }
+
    public int maxMsgLength() {
       return maxMsgLength;
    }
@@ -363,7 +488,7 @@ public class ManyToOneBoundedChannel {
    }
 
    private int claimCapacity(final ByteBuffer buffer, final int recordLength) {
-      final int requiredCapacity = align(recordLength, ALIGNMENT);
+      final int requiredCapacity = align(recordLength, alignment);
       final int capacity = this.capacity;
       final int tailPositionIndex = this.tailPositionIndex;
       final int headCachePositionIndex = this.headCachePositionIndex;
@@ -416,6 +541,13 @@ public class ManyToOneBoundedChannel {
       return tailIndex;
    }
 
+   private int metadataIndex(final int offset) {
+      if (offset < 0 || offset > METADATA_LENGTH - Long.BYTES || (offset & (Long.BYTES - 1)) != 0) {
+         throw new IllegalArgumentException("invalid metadata offset " + offset);
+      }
+      return capacity + offset;
+   }
+
    private int computeRecordIndex(final int index) {
       final int recordIndex = index - HEADER_LENGTH;
       if (recordIndex < 0 || recordIndex > (capacity - HEADER_LENGTH)) {
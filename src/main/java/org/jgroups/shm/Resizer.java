@@ -0,0 +1,198 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.Util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jgroups.shm.SharedMemoryBuffer.*;
+
+/**
+ * Replaces the queue of a {@link SharedMemoryBuffer} with a new one, without losing messages (see
+ * {@link SharedMemoryBuffer#resize(int)}). The consumer creates the successor of its queue ({@link #resize}), and
+ * switches to it when the sealed queue has been drained ({@link #switched()}); producers map the successor when
+ * their claim fails on the sealed queue ({@link #follow(ManyToOneBoundedChannel, String)}).
+ * <p>
+ * The mappings of replaced queues are retired, and unmapped unmap_delay ns later ({@link #releaseRetired()}).
+ * The owner of the resizer swaps its queue, file channel and read buffer, under its own lock.
+ * @since  1.1.0
+ */
+public class Resizer {
+    protected final String          file_name;
+    // consumer: the queue which replaces the current one once it has been drained
+    protected volatile Successor    successor;
+    protected final LongAdder       resizes=new LongAdder();
+    // mappings of queues replaced by a resize, unmapped unmap_delay ns after the switch (see releaseRetired())
+    protected final Queue<Retired>  retired=new ConcurrentLinkedQueue<>();
+    protected long                  unmap_delay=SUCCESSOR_TIMEOUT_NS;
+    protected volatile boolean      has_views;   // views share our mappings: they are left to the GC
+
+    public Resizer(String file_name) {
+        this.file_name=file_name;
+    }
+
+    public Successor successor()    {return successor;}
+    public long      resizes()      {return resizes.sum();}
+    public Resizer   hasViews()     {has_views=true; return this;}
+
+    /**
+     * Creates the successor of the consumer's queue old, with the given capacity, and announces it; see
+     * {@link SharedMemoryBuffer#resize(int)} for the steps. Returns null if a resize is still in progress
+     */
+    public synchronized Successor resize(ManyToOneBoundedChannel old, int capacity, boolean prefault)
+      throws IOException {
+        if(successor != null)
+            return null;
+        if(!ManyToOneBoundedChannel.isPowerOfTwo(capacity) || capacity > ManyToOneBoundedChannel.MAX_SEALABLE_CAPACITY)
+            throw new IllegalArgumentException(String.format("capacity (%d) must be a power of 2 <= %d",
+                                                             capacity, ManyToOneBoundedChannel.MAX_SEALABLE_CAPACITY));
+        SharedMemoryEvents.QueueMapped ev=new SharedMemoryEvents.QueueMapped();
+        ev.begin();
+        Path tmp=Paths.get(file_name + RESIZE_SUFFIX), path=Paths.get(file_name);
+        FileChannel ch=FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            int length=capacity + ManyToOneBoundedChannel.TRAILER_LENGTH;
+            ByteBuffer bb=ch.map(FileChannel.MapMode.READ_WRITE, 0, length).order(ByteOrder.BIG_ENDIAN);
+            if(prefault)
+                ByteBufferUtils.zeros(bb, 0, length);
+            ManyToOneBoundedChannel next=new ManyToOneBoundedChannel(bb, old.alignment());
+            long sealed_at=old.seal();
+            for(int offset: new int[]{META_ALIGNMENT, META_PRODUCER_IDS, META_BOOT_ID_LSB, META_LOCATION_INODE,
+                                      META_BOOT_ID_MSB})
+                next.putMetadata(offset, old.getMetadata(offset));
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            old.putMetadata(META_RESIZED, 1);
+            successor=new Successor(ch, next, bb.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN), sealed_at);
+            queueMapped(ev, file_name, capacity, true, prefault);
+            return successor;
+        }
+        catch(IOException | RuntimeException ex) {
+            Util.close(ch);
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+    }
+
+    /** True if the consumer has drained the sealed queue old, and can switch to the successor s */
+    public static boolean drained(ManyToOneBoundedChannel old, Successor s) {
+        return old.consumerPosition() == s.sealed_at;
+    }
+
+    /** Called by the consumer when it has switched from the sealed queue old to the successor */
+    public void switched(ManyToOneBoundedChannel old) {
+        retire(old);
+        successor=null;
+        resizes.increment();
+    }
+
+    /**
+     * Maps the queue which replaced the sealed queue old, once the consumer has announced it. Returns null if no
+     * successor was announced within SUCCESSOR_TIMEOUT_NS, or it could not be mapped. Called by producers
+     */
+    public static Mapping follow(ManyToOneBoundedChannel old, String file_name) {
+        // the consumer seals the queue, then renames the successor to file_name and announces it: wait for that
+        final long deadline=System.nanoTime() + SUCCESSOR_TIMEOUT_NS;
+        while(old.getMetadata(META_RESIZED) == 0) {
+            if(deadline - System.nanoTime() < 0)
+                return null;
+            Thread.onSpinWait();
+        }
+        FileChannel ch=null;
+        SharedMemoryEvents.QueueMapped ev=new SharedMemoryEvents.QueueMapped();
+        ev.begin();
+        try {
+            ch=FileChannel.open(Paths.get(file_name), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer bb=ch.map(FileChannel.MapMode.READ_WRITE, 0, ch.size()).order(ByteOrder.BIG_ENDIAN);
+            ManyToOneBoundedChannel next=ring(bb);
+            queueMapped(ev, file_name, next.capacity(), false, false);
+            return new Mapping(ch, next, bb.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN));
+        }
+        catch(Exception ex) {
+            Util.close(ch);
+            return null;
+        }
+    }
+
+    /**
+     * Queues the mapping of a queue which has been replaced for unmapping. Not done right away, as a thread (e.g. a
+     * write, or the prefault thread) which loaded the old queue before the switch may still access it. A mapping
+     * shared with views is left to the GC, as views switch only on their next write
+     */
+    public void retire(ManyToOneBoundedChannel old) {
+        if(!has_views)
+            retired.add(new Retired(old.buffer(), System.nanoTime()));
+    }
+
+    /**
+     * Unmaps the mappings retired at least unmap_delay ns ago (see {@link #retire(ManyToOneBoundedChannel)}), so that
+     * the memory of a replaced queue is released without waiting for the GC, which may not run for a long time in an
+     * idle JVM
+     */
+    public void releaseRetired() {
+        if(retired.isEmpty())
+            return;
+        long now=System.nanoTime();
+        for(Retired r; (r=retired.peek()) != null && now - r.time >= unmap_delay;) {
+            if(retired.remove(r)) // another thread may have unmapped it
+                ByteBufferUtils.unmap(r.buffer);
+        }
+    }
+
+    /** Closes the successor (if any); retired mappings are left to the GC, as a concurrent write may access them */
+    public void close() {
+        retired.clear();
+        Successor s=successor;
+        if(s != null)
+            Util.close(s.channel);
+    }
+
+    public String toString() {
+        return String.format("resizes=%d, successor=%s, retired=%d", resizes(), successor != null, retired.size());
+    }
+
+
+    /** A mapped queue */
+    public static class Mapping {
+        protected final FileChannel             channel;
+        protected final ManyToOneBoundedChannel rb;
+        protected final ByteBuffer              read_buffer;
+
+        protected Mapping(FileChannel channel, ManyToOneBoundedChannel rb, ByteBuffer read_buffer) {
+            this.channel=channel;
+            this.rb=rb;
+            this.read_buffer=read_buffer;
+        }
+    }
+
+    /** A queue replacing the current one, see {@link SharedMemoryBuffer#resize(int)} */
+    public static class Successor extends Mapping {
+        protected final long sealed_at; // the producer position at which the current queue was sealed
+
+        protected Successor(FileChannel channel, ManyToOneBoundedChannel rb, ByteBuffer read_buffer, long sealed_at) {
+            super(channel, rb, read_buffer);
+            this.sealed_at=sealed_at;
+        }
+    }
+
+    /** The mapping of a replaced queue, see {@link #retire(ManyToOneBoundedChannel)} */
+    protected static class Retired {
+        protected final ByteBuffer buffer;
+        protected final long       time; // System.nanoTime() when the queue was replaced
+
+        protected Retired(ByteBuffer buffer, long time) {
+            this.buffer=buffer;
+            this.time=time;
+        }
+    }
+}
@@ -7,17 +7,26 @@ import org.jgroups.util.Runner;
 import org.jgroups.util.ThreadFactory;
 import org.jgroups.util.Util;
 
+import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.OpenOption;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Consumer;
 
@@ -35,35 +44,252 @@ public class SharedMemoryBuffer implements MessageHandler, Closeable {
     protected final String              file_name;   // name of the shared memory-mapped file (e.g. /tmp/shm/uuid-1
     protected Consumer<ByteBuffer>      consumer;    // a received message calls consumer.receive();
     protected FileChannel               channel;     // the memory-mapped file
-    protected ManyToOneBoundedChannel   rb;
+    protected volatile ManyToOneBoundedChannel rb;  // replaced when the queue is resized
     protected ByteBuffer                readBuffer;
     protected final Runner              runner;
-    protected IdleStrategy              idle_strategy;
+    protected volatile IdleStrategy     idle_strategy; // can be changed at runtime, e.g. via JMX
+    protected SharedMemoryPoller        poller;        // if set, reads are done by the poller instead of runner
     protected boolean                   delete_file_on_exit;
     protected final LongAdder           insufficient_capacity=new LongAdder();
+    // set when the consumer of this file lives in the same JVM and uses a blocking idle strategy
+    protected final AtomicReference<BlockingIdleStrategy> blocked_consumer;
+    // slabs of senders referred to by MSG_TYPE_SLAB records, mapped lazily (shared with views)
+    protected final SlabReader          slab_reader;
+    // lossless mode (producer): writes block on a full queue and carry a sequence number. Null if not lossless
+    protected LosslessSequencer         sequencer;
+    // lossless mode (consumer): the last seqno received from each producer, indexed by producer id
+    protected long[]                    last_seqnos=new long[16];
+    protected final LongAdder           seqno_gaps=new LongAdder();
+    // resizing: the successor of the queue (consumer), and the mappings of replaced queues
+    protected final Resizer             resizer;
+    // multiplexing: the channel id added to the type of the records we write, and the consumers of the channels
+    // (indexed by channel id, copy-on-write) multiplexed over this queue. See SharedMemoryHub
+    protected int                       channel_id;
+    protected SharedMemoryBuffer        parent;      // set if this is a view of a queue for a channel
+    @SuppressWarnings("unchecked")
+    protected volatile Consumer<ByteBuffer>[] channel_consumers=new Consumer[0];
+    // in-JVM fast path: producers in the same JVM as the consumer pass copies of their records through an on-heap
+    // queue instead of the mapped queue, bounded by the capacity of the mapped queue
+    protected boolean                   local_path=true; // producer: use the fast path if the consumer is in this JVM
+    protected final LocalQueue          local_queue=new LocalQueue(); // consumer
+    protected final LongAdder           local_writes=new LongAdder();
+    // time (ns) it took to prefault the queue in the background (Prefault.ASYNC); -1 while in progress, 0 if none
+    protected volatile long             prefault_time;
+
+    /** How the pages of a queue created by its consumer are made resident */
+    public enum Prefault {
+        /** Pages are allocated lazily by the first writes to them */
+        NONE,
+        /** The queue is zeroed by the constructor */
+        SYNC,
+        /** The pages are touched by a background thread (without changing them), while the queue is already in use */
+        ASYNC,
+        /**
+         * The file (file_name + {@link #CREATE_SUFFIX}) already exists and has been zeroed, e.g. it was taken from a
+         * {@link SharedMemoryPool}
+         */
+        DONE
+    }
+
+    /** Record containing a single message */
+    public static final int             MSG_TYPE_SINGLE=1;
+    /** Record containing multiple messages, see {@link SharedMemoryBundler} */
+    public static final int             MSG_TYPE_BUNDLE=2;
+    /** Record containing a descriptor of a message in a {@link SharedMemorySlab} */
+    public static final int             MSG_TYPE_SLAB=3;
+    /**
+     * Set in the type of a record written in lossless mode: the record starts with
+     * [seqno (long) | producer id (int)], followed by the message(s)
+     */
+    public static final int             MSG_FLAG_SEQUENCED=1 << 8;
+    public static final int             SEQ_HEADER_LENGTH=Long.BYTES + Integer.BYTES;
+    /** The channel id is stored in the bits of the type above this shift (0: the queue isn't multiplexed) */
+    public static final int             MSG_CHANNEL_SHIFT=16;
+    public static final int             MAX_CHANNEL_ID=(1 << (Integer.SIZE - 1 - MSG_CHANNEL_SHIFT)) - 1;
+
+    // offsets into the metadata area of the queue (see ManyToOneBoundedChannel.getMetadata())
+    protected static final int          META_BOOT_ID_MSB=0, META_BOOT_ID_LSB=8, META_LOCATION_INODE=16,
+                                        META_PRODUCER_IDS=24, META_FULL_WRITES=32, META_RESIZED=40,
+                                        META_ALIGNMENT=48;
+
+    // suffix of the file of a new queue while it is being created by resize()
+    public static final String          RESIZE_SUFFIX=".resize";
+    // suffix of the file of a new queue while it is being created by its consumer: renamed to file_name once the
+    // metadata (e.g. the alignment) has been written, so that producers never map a queue without it
+    public static final String          CREATE_SUFFIX=".create";
+    // max time a producer waits for the successor of a sealed queue to be announced
+    protected static final long         SUCCESSOR_TIMEOUT_NS=TimeUnit.SECONDS.toNanos(1);
+
+    // consumers of all files mapped by this JVM, used by producers for the in-JVM fast path
+    protected static final Map<String,SharedMemoryBuffer> LOCAL_CONSUMERS=new ConcurrentHashMap<>();
+
+    // blocked consumers (if any) of all files mapped by this JVM, used by producers to wake them up
+    protected static final Map<String,AtomicReference<BlockingIdleStrategy>> BLOCKED_CONSUMERS=new ConcurrentHashMap<>();
 
 
     public SharedMemoryBuffer(String file_name, int buffer_length, boolean create, ThreadFactory f) throws IOException {
+        this(file_name, buffer_length, create, true, f);
+    }
+
+    /**
+     * Creates a queue (consumer) or maps an existing one (producer). If prefault is false, a created queue is not
+     * zeroed: its pages are allocated lazily by the first writes, so that queues which receive little traffic don't
+     * occupy memory
+     */
+    public SharedMemoryBuffer(String file_name, int buffer_length, boolean create, boolean prefault,
+                              ThreadFactory f) throws IOException {
+        this(file_name, buffer_length, create, prefault? Prefault.SYNC : Prefault.NONE, f);
+    }
+
+    /** Creates a queue (consumer) or maps an existing one (producer). prefault only applies to the creation */
+    public SharedMemoryBuffer(String file_name, int buffer_length, boolean create, Prefault prefault,
+                              ThreadFactory f) throws IOException {
+        this(file_name, buffer_length, create, prefault, ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT, f);
+    }
+
+    /**
+     * Creates a queue (consumer) or maps an existing one (producer). prefault and alignment only apply to the
+     * creation: the alignment of the records (see {@link ManyToOneBoundedChannel#ManyToOneBoundedChannel(ByteBuffer, int)})
+     * is recorded in the queue's metadata, and used by the producers
+     */
+    public SharedMemoryBuffer(String file_name, int buffer_length, boolean create, Prefault prefault, int alignment,
+                              ThreadFactory f) throws IOException {
+        ManyToOneBoundedChannel.checkAlignment(alignment);
         this.file_name=file_name;
         // idle stragegy spins, the yields, then parks between 1000ns and 64ms by default
-        IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS,
-                                 IdleStrategy.DEFAULT_MAX_YIELDS,
-                                 IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS,
-                                 IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS<<6);
-        init(buffer_length, create);
+        idle_strategy=IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS,
+                                               IdleStrategy.DEFAULT_MAX_YIELDS,
+                                               IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS,
+                                               IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS<<6);
+        blocked_consumer=BLOCKED_CONSUMERS.computeIfAbsent(file_name, __ -> new AtomicReference<>());
+        slab_reader=new SlabReader();
+        resizer=new Resizer(file_name);
         ThreadFactory tf=f != null? f : new DefaultThreadFactory("runner", true, true);
+        init(buffer_length, create, Objects.requireNonNull(prefault), alignment, tf);
         runner=new Runner(tf, String.format("shm-%s", file_name), this::doWork, null);
     }
 
+    /**
+     * Creates a view of queue, writing the messages of the given channel: the channel id is added to the type of
+     * all records, so that a consumer multiplexing several channels over its queue (see {@link SharedMemoryHub})
+     * can dispatch them. The view shares the mapping of queue, but is a separate producer (e.g. has its own
+     * sequence numbers in lossless mode). Closing a view doesn't close queue
+     */
+    public SharedMemoryBuffer(SharedMemoryBuffer queue, int channel_id) {
+        this.parent=Objects.requireNonNull(queue);
+        queue.resizer.hasViews();
+        this.file_name=queue.file_name;
+        this.resizer=new Resizer(file_name);
+        this.channel_id=checkChannelId(channel_id);
+        this.idle_strategy=queue.idle_strategy;
+        this.blocked_consumer=queue.blocked_consumer;
+        this.slab_reader=queue.slab_reader;
+        this.rb=queue.writeQueue();
+        this.readBuffer=queue.readBuffer;
+        this.runner=null;
+    }
+
 
-    public SharedMemoryBuffer idleStrategy(IdleStrategy s) {idle_strategy=Objects.requireNonNull(s); return this;}
+    public String             fileName()                   {return file_name;}
+    public IdleStrategy       idleStrategy()               {return idle_strategy;}
     public long               insufficientCapacity()       {return insufficient_capacity.sum();}
-    public SharedMemoryBuffer resetStats()                 {insufficient_capacity.reset(); return this;}
+    public int                capacity()                   {return rb.capacity();}
+    /** The number of bytes which can currently be written (the consumer may free more at any time) */
+    public int                freeCapacity() {
+        SharedMemoryBuffer local=localConsumer();
+        if(local != null)
+            return (int)Math.max(0, local.capacity() - local.local_queue.bytes());
+        ManyToOneBoundedChannel q=writeQueue();
+        if(q.isSealed() && followSuccessor(q)) // a sealed queue looks full
+            q=writeQueue();
+        return q.capacity() - q.size();
+    }
+    /** The number of bytes a record containing a message of the given length takes in the queue */
+    public int                recordLength(int length)     {
+        return rb.recordLength(length + headerLength());
+    }
+    /** The alignment (in bytes) of the records in the queue, chosen by the consumer */
+    public int                alignment()                  {return rb.alignment();}
+    /** The max length of a message; follows the queue to its successor if it has been resized */
+    public int                maxMessageLength() {
+        ManyToOneBoundedChannel q=writeQueue();
+        if(q.isSealed() && followSuccessor(q))
+            q=writeQueue();
+        return q.maxMsgLength() - headerLength();
+    }
+    public boolean            lossless()                   {return sequencer != null;}
+    public LosslessSequencer  sequencer()                  {return sequencer;}
+    public long               blockedWrites()              {return sequencer != null? sequencer.blockedWrites() : 0;}
+    public long               seqnoGaps()                  {return seqno_gaps.sum();}
+    /** Number of writes (by all producers) which found the current queue full */
+    public long               fullWrites()                 {return rb.getMetadata(META_FULL_WRITES);}
+    /** The fraction of the queue's capacity currently used */
+    public double             fill()                       {return rb.size() / (double)rb.capacity();}
+    public long               resizes()                    {return resizer.resizes();}
+    /** Time (ns) it took to prefault the queue in the background; -1 while in progress, 0 if not done */
+    public long               prefaultTime()               {return prefault_time;}
+    /** The total number of bytes written to the current queue (changes with every write) */
+    public long               writePosition()              {return writeQueue().producerPosition();}
+    public int                channelId()                  {return channel_id;}
+    /** Number of records passed to a consumer in the same JVM without going through the mapped queue */
+    public long               localWrites()                {return local_writes.sum();}
+    public boolean            localPath()                  {return local_path;}
+    /** Enables or disables the in-JVM fast path of this producer (enabled by default) */
+    public SharedMemoryBuffer localPath(boolean f)         {local_path=f; return this;}
+    public boolean            isView()                     {return parent != null;}
+
+    public SharedMemoryBuffer resetStats() {
+        insufficient_capacity.reset();
+        if(sequencer != null)
+            sequencer.resetStats();
+        seqno_gaps.reset();
+        return this;
+    }
+
+    /**
+     * Switches the producer side of this queue to lossless mode: a write to a full queue blocks until the consumer
+     * has made room, or max_block_time_ms has elapsed (the message is then dropped, and the consumer sees a gap in
+     * the sequence numbers). Writes of the same producer are serialized, so that the consumer sees the sequence
+     * numbers in order. Must be called before the first write
+     */
+    public synchronized SharedMemoryBuffer lossless(long max_block_time_ms) {
+        if(max_block_time_ms <= 0)
+            throw new IllegalArgumentException("max_block_time must be positive: " + max_block_time_ms);
+        long max_block_time_ns=TimeUnit.NANOSECONDS.convert(max_block_time_ms, TimeUnit.MILLISECONDS);
+        if(sequencer != null) {
+            sequencer.maxBlockTime(max_block_time_ns);
+            return this;
+        }
+        // the consumer copies the counter to the successor after sealing the queue: an id claimed from a
+        // sealed queue may not have been copied, so it is claimed again from the successor
+        ManyToOneBoundedChannel q;
+        long id;
+        do {
+            q=rb;
+            do {
+                id=q.getMetadata(META_PRODUCER_IDS);
+            }
+            while(!q.compareAndSetMetadata(META_PRODUCER_IDS, id, id+1));
+        }
+        while(q.isSealed() && followSuccessor(q));
+        sequencer=new LosslessSequencer((int)id + 1, max_block_time_ns, blocked_consumer);
+        return this;
+    }
 
     public SharedMemoryBuffer maxSleep(long m) {
         long max_sleep_ns=TimeUnit.NANOSECONDS.convert(m, TimeUnit.MILLISECONDS);
-        idle_strategy=IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
-                                                IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS, max_sleep_ns);
+        return idleStrategy(IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
+                                                     IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS, max_sleep_ns));
+    }
+
+    /** Changes the idle strategy of the receiver loop; takes effect with the loop's next iteration */
+    public SharedMemoryBuffer idleStrategy(IdleStrategy s) {
+        IdleStrategy old=idle_strategy;
+        idle_strategy=Objects.requireNonNull(s);
+        if(consumer != null)
+            registerBlockedConsumer();
+        if(old instanceof BlockingIdleStrategy && old != s)
+            ((BlockingIdleStrategy)old).wakeUp();
         return this;
     }
 
@@ -76,20 +302,88 @@ public class SharedMemoryBuffer implements MessageHandler, Closeable {
     }
 
     public SharedMemoryBuffer setConsumer(Consumer<ByteBuffer> c) {
+        return setConsumer(c, null, 0);
+    }
+
+    /**
+     * Sets the consumer of the messages of the given channel (null removes it). Messages of channel 0 (written by
+     * producers without channel id) are passed to the consumer set by {@link #setConsumer(Consumer)}, those of
+     * channels without consumer are dropped
+     */
+    public synchronized SharedMemoryBuffer setConsumer(int channel_id, Consumer<ByteBuffer> c) {
+        checkChannelId(channel_id);
+        Consumer<ByteBuffer>[] tmp=channel_consumers;
+        if(channel_id >= tmp.length)
+            tmp=Arrays.copyOf(tmp, channel_id + 1);
+        else
+            tmp=tmp.clone();
+        tmp[channel_id]=c;
+        channel_consumers=tmp;
+        return this;
+    }
+
+    /** Sets the channel id written by this producer, see {@link #SharedMemoryBuffer(SharedMemoryBuffer, int)} */
+    public SharedMemoryBuffer channelId(int id) {
+        this.channel_id=checkChannelId(id);
+        return this;
+    }
+
+    /**
+     * Sets the consumer. If a poller is given, messages are read by the poller's thread (at most msg_budget messages
+     * at a time), otherwise a dedicated receiver loop is started
+     */
+    public SharedMemoryBuffer setConsumer(Consumer<ByteBuffer> c, SharedMemoryPoller p, int msg_budget) {
         consumer=Objects.requireNonNull(c);
-        runner.start();
+        poller=p;
+        LOCAL_CONSUMERS.put(file_name, this);
+        registerBlockedConsumer();
+        if(poller != null)
+            poller.register(this, msg_budget);
+        else
+            runner.start();
+        return this;
+    }
+
+    /** Publishes the identity of the consumer's host in the metadata of the queue. Called by the consumer */
+    public SharedMemoryBuffer hostIdentity(HostIdentity id) {
+        rb.putMetadata(META_BOOT_ID_LSB, id.bootIdLsb());
+        rb.putMetadata(META_LOCATION_INODE, id.locationInode());
+        rb.putMetadata(META_BOOT_ID_MSB, id.bootIdMsb()); // written last: non-zero means the identity is complete
         return this;
     }
 
+    /** Returns the identity published by the consumer of this queue, or null if none has been published */
+    public HostIdentity hostIdentity() {
+        long msb=rb.getMetadata(META_BOOT_ID_MSB);
+        if(msb == 0)
+            return null;
+        return new HostIdentity(msb, rb.getMetadata(META_BOOT_ID_LSB), rb.getMetadata(META_LOCATION_INODE));
+    }
+
     public boolean write(byte[] buf, int offset, int length) {
-        final ManyToOneBoundedChannel rb = this.rb;
-        final long claim = rb.tryClaim(1, length);
+        return write(MSG_TYPE_SINGLE, buf, offset, length);
+    }
+
+    public boolean write(int msg_type, byte[] buf, int offset, int length) {
+        SharedMemoryBuffer local=localConsumer();
+        if(local != null)
+            return writeLocal(local, msg_type, buf, offset, length);
+        ManyToOneBoundedChannel rb;
+        long claim;
+        SharedMemoryEvents.Claim ev=new SharedMemoryEvents.Claim();
+        ev.begin();
+        do {
+            rb=writeQueue();
+            claim=claim(rb, msg_type, length);
+        }
+        while(claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY && rb.isSealed() && followSuccessor(rb));
+        claimEvent(ev, length, claim);
         if(claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
-            insufficient_capacity.increment();
+            failedWrite(length);
             return false;
         }
         try {
-            copyBytes(buf, offset, rb.buffer(), claimedIndex(claim), length);
+            copyBytes(buf, offset, rb.buffer(), claimedIndex(claim) + headerLength(), length);
         }
         catch(Exception ex) {
             rb.abort(claim);
@@ -97,38 +391,482 @@ public class SharedMemoryBuffer implements MessageHandler, Closeable {
         finally {
             rb.commit(claim);
         }
+        BlockingIdleStrategy blocked=blocked_consumer.get();
+        if(blocked != null)
+            blocked.wakeUp();
+        return true;
+    }
+
+    /**
+     * Writes a descriptor of a message which has been written to a slab (see {@link SharedMemorySlab#write} and
+     * {@link SlabReader}). Returns false if the queue was full; the caller then needs to release the block
+     */
+    public boolean write(SharedMemorySlab slab, int block, int length) {
+        final int desc_length=SlabReader.descriptorLength(slab);
+        SharedMemoryBuffer local=localConsumer();
+        if(local != null) {
+            byte[] desc=new byte[desc_length];
+            SlabReader.writeDescriptor(ByteBuffer.wrap(desc), 0, slab, block, length);
+            return writeLocal(local, MSG_TYPE_SLAB, desc, 0, desc.length);
+        }
+        ManyToOneBoundedChannel rb;
+        long claim;
+        SharedMemoryEvents.Claim ev=new SharedMemoryEvents.Claim();
+        ev.begin();
+        do {
+            rb=writeQueue();
+            claim=claim(rb, MSG_TYPE_SLAB, desc_length);
+        }
+        while(claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY && rb.isSealed() && followSuccessor(rb));
+        claimEvent(ev, desc_length, claim);
+        if(claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+            failedWrite(desc_length);
+            return false;
+        }
+        SlabReader.writeDescriptor(rb.buffer(), claimedIndex(claim) + headerLength(), slab, block, length);
+        rb.commit(claim);
+        BlockingIdleStrategy blocked=blocked_consumer.get();
+        if(blocked != null)
+            blocked.wakeUp();
         return true;
     }
 
+    protected void claimEvent(SharedMemoryEvents.Claim ev, int length, long claim) {
+        if(ev.shouldCommit()) {
+            ev.queue=file_name;
+            ev.length=length;
+            ev.succeeded=claim != ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY;
+            ev.commit();
+        }
+    }
+
+    /** Counts a write which failed because the queue was full */
+    protected void failedWrite(int length) {
+        insufficient_capacity.increment();
+        SharedMemoryEvents.FailedClaim ev=new SharedMemoryEvents.FailedClaim();
+        if(ev.shouldCommit()) {
+            ManyToOneBoundedChannel q=rb;
+            ev.queue=file_name;
+            ev.length=length;
+            ev.freeCapacity=q.capacity() - q.size();
+            ev.commit();
+        }
+    }
+
+    /** Returns the consumer of our file if it lives in this JVM and the fast path is enabled, otherwise null */
+    protected SharedMemoryBuffer localConsumer() {
+        return local_path? LOCAL_CONSUMERS.get(file_name) : null;
+    }
+
+    /**
+     * Passes a copy of a record to consumer c, which lives in the same JVM, bypassing the mapped queue. The records
+     * queued at c are bounded by its capacity: when exceeded, the record is dropped, or the write blocks in lossless
+     * mode, as with a full queue
+     */
+    protected boolean writeLocal(SharedMemoryBuffer c, int msg_type, byte[] buf, int offset, int length) {
+        msg_type|=channel_id << MSG_CHANNEL_SHIFT;
+        LosslessSequencer seq=sequencer;
+        if(seq != null) {
+            if(!seq.writeLocal(c, msg_type, buf, offset, length)) {
+                failedWrite(length + SEQ_HEADER_LENGTH);
+                return false;
+            }
+        }
+        else {
+            if(!c.reserveLocal(length)) {
+                failedWrite(length);
+                return false;
+            }
+            c.offerLocal(msg_type, Arrays.copyOfRange(buf, offset, offset + length));
+        }
+        local_writes.increment();
+        return true;
+    }
+
+    /** Reserves room for length bytes in the on-heap queue of this consumer. Returns false if full */
+    protected boolean reserveLocal(int length) {
+        return local_queue.reserve(length, rb.capacity());
+    }
+
+    protected void offerLocal(int msg_type, byte[] data) {
+        local_queue.offer(msg_type, data);
+        BlockingIdleStrategy blocked=blocked_consumer.get();
+        if(blocked != null)
+            blocked.wakeUp();
+    }
+
+    /** Reads at most limit records from the on-heap queue. Called by the consumer */
+    protected int pollLocal(int limit) {
+        int num_msgs=0;
+        LocalQueue.Record r;
+        while(num_msgs < limit && (r=local_queue.poll()) != null) {
+            ByteBuffer bb=ByteBuffer.wrap(r.data);
+            dispatch(r.msg_type, bb, bb, 0, r.data.length);
+            num_msgs++;
+        }
+        return num_msgs;
+    }
+
+    /** True if there are records to be read (by the consumer) */
+    public boolean hasWork() {
+        return rb.size() > 0 || !local_queue.isEmpty();
+    }
+
+    /** The length of the header preceding the message(s) in the records written by this producer */
+    protected int headerLength() {
+        return sequencer != null? SEQ_HEADER_LENGTH : 0;
+    }
+
+    /**
+     * Claims space for a record of msg_type in rb. In lossless mode, the claim is done by the sequencer (see
+     * {@link LosslessSequencer#claim(ManyToOneBoundedChannel, int, int)}). Returns {@link ManyToOneBoundedChannel#INSUFFICIENT_CAPACITY} if rb
+     * was full, or has been sealed (see {@link #resize(int)})
+     */
+    protected long claim(ManyToOneBoundedChannel rb, int msg_type, int length) {
+        msg_type|=channel_id << MSG_CHANNEL_SHIFT;
+        if(sequencer != null)
+            return sequencer.claim(rb, msg_type, length);
+        long claim=rb.tryClaim(msg_type, length);
+        if(claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY)
+            countFullWrite(rb);
+        return claim;
+    }
+
+    /**
+     * Maps the new queue if the current one has been replaced by the consumer. Called periodically by producers
+     * which rarely write to this queue, so that they don't keep the old queue (and its memory) alive
+     */
+    public boolean followIfResized() {
+        resizer.releaseRetired();
+        ManyToOneBoundedChannel q=rb;
+        return consumer == null && q.getMetadata(META_RESIZED) != 0 && followSuccessor(q);
+    }
+
+    /**
+     * The memory (in bytes) of the queue's file which is resident in this process' mappings, read from
+     * /proc/self/smaps. Includes the old queue if it is still mapped after a resize. Returns -1 if not available
+     */
+    public long residentMemory() {
+        return residentMemory(file_name);
+    }
+
+    /** The resident memory (in bytes) of all mappings of the given file (or its deleted predecessors), or -1 */
+    public static long residentMemory(String file_name) {
+        Path smaps=Paths.get("/proc/self/smaps");
+        if(!Files.isReadable(smaps))
+            return -1;
+        String file=Paths.get(file_name).toAbsolutePath().toString();
+        try(BufferedReader in=Files.newBufferedReader(smaps, StandardCharsets.UTF_8)) {
+            long rss=0;
+            boolean match=false;
+            String line;
+            while((line=in.readLine()) != null) {
+                int index=line.indexOf(' ');
+                if(index <= 0)
+                    continue;
+                if(line.charAt(index-1) != ':') { // "<from>-<to> <perms> <offset> <dev> <inode> <path>" starts a mapping
+                    int start=line.indexOf('/');
+                    String path=start >= 0? line.substring(start) : "";
+                    match=path.equals(file) || path.equals(file + " (deleted)");
+                }
+                else if(match && line.startsWith("Rss:")) // "Rss:  <n> kB"
+                    rss+=Long.parseLong(line.substring(index).trim().split(" ")[0]) * 1024;
+            }
+            return rss;
+        }
+        catch(IOException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
+    /** The queue to write to: the consumer writes to its own successor (if any), as it still reads the sealed queue */
+    protected ManyToOneBoundedChannel writeQueue() {
+        Resizer.Successor s=resizer.successor;
+        return s != null? s.rb : rb;
+    }
+
+    /**
+     * Counts a claim which failed because rb was full, so that the consumer can grow the queue. Returns false if rb
+     * has been sealed instead
+     */
+    protected static boolean countFullWrite(ManyToOneBoundedChannel rb) {
+        if(rb.isSealed())
+            return false;
+        long n;
+        do {
+            n=rb.getMetadata(META_FULL_WRITES);
+        }
+        while(!rb.compareAndSetMetadata(META_FULL_WRITES, n, n+1));
+        return true;
+    }
+
+    /**
+     * Maps the queue which replaced the sealed queue old (see {@link #resize(int)}). Returns true if rb has been
+     * replaced (also by another thread), or false if no successor was announced within SUCCESSOR_TIMEOUT_NS (see
+     * {@link Resizer#follow(ManyToOneBoundedChannel, String)})
+     */
+    protected synchronized boolean followSuccessor(ManyToOneBoundedChannel old) {
+        if(rb != old)
+            return true;
+        if(parent != null) { // a view uses the mapping of its parent
+            if(!parent.followSuccessor(old))
+                return false;
+            rb=parent.writeQueue();
+            return true;
+        }
+        if(consumer != null) // a write to our own queue: resize() has set the successor before releasing the lock
+            return resizer.successor != null;
+        Resizer.Mapping next=Resizer.follow(old, file_name);
+        if(next == null)
+            return false;
+        Util.close(channel);
+        channel=next.channel;
+        readBuffer=next.read_buffer; // the old one would keep the old mapping alive
+        resizer.retire(old);
+        rb=next.rb;
+        return true;
+    }
+
+    /**
+     * Replaces the queue with a new one of the given capacity (a power of 2), e.g. to grow it when producers find it
+     * full, or to shrink it after a quiet period. Messages are not lost:
+     * <ol>
+     *     <li>The new queue is created and zeroed under a temporary name</li>
+     *     <li>The current queue is sealed: producers' claims fail from now on, but claimed records are still
+     *         committed and read</li>
+     *     <li>The metadata (host identity, producer ids) is copied to the new queue, which is then atomically renamed
+     *         to file_name. Producers mapping file_name from now on get the new queue</li>
+     *     <li>The successor is announced in the trailer of the sealed queue: a producer whose claim failed because
+     *         the queue was sealed maps file_name and retries (its earlier records precede the retried ones)</li>
+     *     <li>The consumer reads the sealed queue until it has been drained, then switches to the new queue</li>
+     * </ol>
+     * Can be called by any thread of the consumer's process. Returns false if a resize is still in progress
+     */
+    public boolean resize(int capacity) throws IOException {
+        return resize(capacity, true);
+    }
+
+    /**
+     * Releases the memory of an empty queue, by replacing it with a new queue (of the same capacity) whose pages are
+     * allocated lazily when traffic resumes (see {@link #resize(int, boolean)}). The memory of the old queue is
+     * released when the consumer and all producers have switched to the new queue (producers switch on their next
+     * write, or on {@link #followIfResized()}): each of them unmaps its mapping of the old queue unmap_delay ns after
+     * the switch, without waiting for a GC (see {@link Resizer#releaseRetired()}).
+     * Returns false if the queue was not empty, or a resize is in progress
+     */
+    public synchronized boolean reclaim() throws IOException {
+        return rb.size() == 0 && resizer.successor == null && resize(rb.capacity(), false);
+    }
+
+    /**
+     * Replaces the queue with a new one of the given capacity, see {@link #resize(int)}. If prefault is false, the
+     * new queue is not zeroed, so its pages are only allocated when they are written
+     */
+    public synchronized boolean resize(int capacity, boolean prefault) throws IOException {
+        if(consumer == null)
+            throw new IllegalStateException("only the consumer can resize the queue");
+        if(resizer.resize(rb, capacity, prefault) == null)
+            return false;
+        BlockingIdleStrategy blocked=blocked_consumer.get();
+        if(blocked != null)
+            blocked.wakeUp();
+        return true;
+    }
+
+    /** Reads at most limit messages and passes them to the consumer. Returns the number of messages read */
+    public int poll(int limit) {
+        slab_reader.closeEvicted();
+        resizer.releaseRetired();
+        SharedMemoryEvents.ReadBatch ev=new SharedMemoryEvents.ReadBatch();
+        ev.begin();
+        int num_local=local_queue.isEmpty()? 0 : pollLocal(limit);
+        int num_msgs=rb.read(this, limit - num_local);
+        Resizer.Successor s=resizer.successor;
+        if(s != null && num_msgs == 0 && Resizer.drained(rb, s))
+            switchToSuccessor(s);
+        if(num_local + num_msgs > 0 && ev.shouldCommit()) {
+            ev.queue=file_name;
+            ev.records=num_local + num_msgs;
+            ev.commit();
+        }
+        return num_local + num_msgs;
+    }
+
+    /** Called by the consumer when the sealed queue has been drained */
+    protected synchronized void switchToSuccessor(Resizer.Successor s) {
+        Util.close(channel); // the file has already been replaced by the successor
+        channel=s.channel;
+        readBuffer=s.read_buffer;
+        ManyToOneBoundedChannel old=rb;
+        rb=s.rb;
+        resizer.switched(old);
+    }
+
     /**
      * Read from the ringbuffer and call receiver.receive(). As ManyToOneRingBuffer.read() doesn't block until data is
      * available, back off (yield, park etc) until data is available, to avoid burning CPU.
      */
     public void doWork() {
-        int num_msgs=rb.read(this);
-        idle_strategy.idle(num_msgs);
+        int num_msgs=poll(Integer.MAX_VALUE);
+        SharedMemoryEvents.ConsumerPark ev=new SharedMemoryEvents.ConsumerPark();
+        ev.begin();
+        IdleStrategy s=idle_strategy;
+        s.idle(num_msgs);
+        if(num_msgs == 0 && ev.shouldCommit()) {
+            ev.queue=file_name;
+            ev.idleStrategy=s.toString();
+            ev.commit();
+        }
     }
 
     @Override
     public void onMessage(int msg_type, ByteBuffer buf, int offset, int length) {
-        if(msg_type != 1)
+        dispatch(msg_type, buf, readBuffer, offset, length);
+    }
+
+    /** Passes the message(s) of a record in buf to the consumer of its channel; readbuf is a read-only view of buf */
+    protected void dispatch(int msg_type, ByteBuffer buf, ByteBuffer readbuf, int offset, int length) {
+        Consumer<ByteBuffer> c=consumer;
+        int channel=msg_type >>> MSG_CHANNEL_SHIFT;
+        if(channel != 0) {
+            Consumer<ByteBuffer>[] tmp=channel_consumers;
+            c=channel < tmp.length? tmp[channel] : null;
+            msg_type&=(1 << MSG_CHANNEL_SHIFT) - 1;
+        }
+        if((msg_type & MSG_FLAG_SEQUENCED) != 0) {
+            checkSeqno(buf.getInt(offset + Long.BYTES), buf.getLong(offset));
+            msg_type&=~MSG_FLAG_SEQUENCED;
+            offset+=SEQ_HEADER_LENGTH;
+            length-=SEQ_HEADER_LENGTH;
+        }
+        switch(msg_type) {
+            case MSG_TYPE_SINGLE:
+                deliver(c, readbuf, offset, length);
+                break;
+            case MSG_TYPE_BUNDLE:
+                for(int pos=offset, end=offset+length; pos < end;) {
+                    int len=buf.getInt(pos);
+                    pos+=Integer.BYTES;
+                    deliver(c, readbuf, pos, len);
+                    pos+=len;
+                }
+                break;
+            case MSG_TYPE_SLAB:
+                deliverFromSlab(c, buf, offset);
+                break;
+        }
+    }
+
+    /** Counts a gap if seqno doesn't follow the last seqno received from the producer. Called by the consumer */
+    protected void checkSeqno(int producer, long seqno) {
+        if(producer >= last_seqnos.length)
+            last_seqnos=Arrays.copyOf(last_seqnos, Math.max(producer + 1, last_seqnos.length << 1));
+        long last=last_seqnos[producer];
+        if(seqno != last + 1)
+            seqno_gaps.increment();
+        last_seqnos[producer]=seqno;
+    }
+
+    /** Passes a message to consumer c; dropped if c is null (a channel which has no consumer (anymore)) */
+    protected void deliver(Consumer<ByteBuffer> c, ByteBuffer readbuf, int offset, int length) {
+        if(c == null)
             return;
-        final ByteBuffer readbuf = this.readBuffer;
         readbuf.position(offset).limit(offset + length);
+        SharedMemoryEvents.Delivery ev=new SharedMemoryEvents.Delivery();
+        ev.begin();
         try {
-            consumer.accept(readbuf);
+            c.accept(readbuf);
         } finally {
             readbuf.clear();
+            if(ev.shouldCommit()) {
+                ev.queue=file_name;
+                ev.length=length;
+                ev.commit();
+            }
+        }
+    }
+
+    /** Passes a message to the consumer directly from the sender's slab, then releases the block */
+    protected void deliverFromSlab(Consumer<ByteBuffer> c, ByteBuffer buf, int offset) {
+        SharedMemorySlab slab=slab_reader.slab(buf, offset);
+        if(slab == null)
+            return; // the sender has left, or the descriptor is stale: the message is dropped, like on a full queue
+        int block=SlabReader.block(buf, offset);
+        try {
+            deliver(c, slab.readBuffer(), slab.dataOffset(block), SlabReader.length(buf, offset));
+        }
+        finally {
+            slab.release(block);
         }
     }
 
+    /**
+     * Unmaps the slab with the given name (e.g. of a sender which left), if it has been mapped. The slab is closed
+     * by the consumer before it reads the next messages, see {@link SlabReader#evict(String)}
+     */
+    public SharedMemoryBuffer closeSlab(String name) {
+        if(slab_reader.evict(name)) {
+            BlockingIdleStrategy blocked=blocked_consumer.get();
+            if(blocked != null)
+                blocked.wakeUp();
+        }
+        return this;
+    }
+
     public void close() {
-        Util.close(runner, channel);
+        if(parent != null)
+            return; // the mapping is owned by the parent
+        unmap();
         File tmp=new File(file_name);
         tmp.delete();
     }
 
-    protected void init(int buffer_length, boolean create) throws IOException {
+    /** Closes the queue without deleting its file, e.g. the queue of a peer which may still be used by others */
+    public void unmap() {
+        if(parent != null)
+            return;
+        slab_reader.close();
+        resizer.close();
+        if(consumer != null || blocked_consumer.get() == null)
+            BLOCKED_CONSUMERS.remove(file_name, blocked_consumer);
+        LOCAL_CONSUMERS.remove(file_name, this);
+        local_queue.clear();
+        if(poller != null)
+            poller.unregister(this);
+        Util.close(runner, channel);
+    }
+
+    protected static void queueMapped(SharedMemoryEvents.QueueMapped ev, String file_name, long capacity,
+                                      boolean created, boolean prefaulted) {
+        if(ev.shouldCommit()) {
+            ev.queue=file_name;
+            ev.capacity=capacity;
+            ev.created=created;
+            ev.prefaulted=prefaulted;
+            ev.commit();
+        }
+    }
+
+    protected static int checkChannelId(int id) {
+        if(id < 0 || id > MAX_CHANNEL_ID)
+            throw new IllegalArgumentException(String.format("channel id (%d) must be in range [0 .. %d]",
+                                                             id, MAX_CHANNEL_ID));
+        return id;
+    }
+
+    protected void registerBlockedConsumer() {
+        SharedMemoryPoller p=poller;
+        IdleStrategy s=p != null? p.idleStrategy() : idle_strategy;
+        if(s instanceof BlockingIdleStrategy blocking) {
+            blocking.workAvailable(p != null? p::hasWork : this::hasWork);
+            blocked_consumer.set(blocking);
+        }
+        else
+            blocked_consumer.set(null);
+    }
+
+    protected void init(int buffer_length, boolean create, Prefault prefault, int alignment,
+                        ThreadFactory tf) throws IOException {
         try {
             if(delete_file_on_exit) {
                 File tmp=new File(file_name);
@@ -138,21 +876,73 @@ public class SharedMemoryBuffer implements MessageHandler, Closeable {
               new OpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE} :
               new OpenOption[]{StandardOpenOption.READ, StandardOpenOption.WRITE};
 
-            channel=FileChannel.open(Paths.get(file_name), options);
+            SharedMemoryEvents.QueueMapped ev=new SharedMemoryEvents.QueueMapped();
+            ev.begin();
+            // a new queue is created under a temporary name, and replaces an existing file (e.g. of a previous
+            // incarnation) when it has been initialized
+            Path path=Paths.get(create? file_name + CREATE_SUFFIX : file_name);
+            if(create && prefault != Prefault.DONE) // the file is zero-filled on extension
+                Files.deleteIfExists(path);
+            channel=FileChannel.open(path, options);
+            // an existing queue may have been resized by its consumer
+            long size=create? 0 : channel.size();
+            if(size > 0)
+                buffer_length=(int)size;
             ByteBuffer bb=channel.map(FileChannel.MapMode.READ_WRITE, 0, buffer_length)
                .order(ByteOrder.BIG_ENDIAN);
-            // Francesco Nigro: zero the buffer so all pages are in memory
-            ByteBufferUtils.zeros(bb, 0, buffer_length);
-            rb=new ManyToOneBoundedChannel(bb);
+            // Francesco Nigro: zero the buffer so all pages are in memory. Only done by the consumer: a producer
+            // mapping an existing queue would otherwise wipe messages and the trailer (positions, metadata)
+            if(create && prefault == Prefault.SYNC)
+                ByteBufferUtils.zeros(bb, 0, buffer_length);
+            if(create) {
+                rb=new ManyToOneBoundedChannel(bb, alignment);
+                rb.putMetadata(META_ALIGNMENT, alignment);
+                // before the queue becomes visible: a producer in this JVM must not write to the mapped queue and
+                // then switch to the fast path, or the consumer would read its messages out of order
+                LOCAL_CONSUMERS.put(file_name, this);
+                Files.move(path, Paths.get(file_name), StandardCopyOption.ATOMIC_MOVE,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+            else
+                rb=ring(bb);
+            queueMapped(ev, file_name, rb.capacity(), create, create && prefault != Prefault.NONE);
+            if(create && prefault == Prefault.ASYNC)
+                prefaultAsync(bb, tf);
             // readBuffer=bb.asReadOnlyBuffer();
             // eager marshalling of JGroups always uses BIG_ENDIAN
             readBuffer=bb.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN); // default, not really needed...
         }
-        catch(IOException ex) {
-            close();
+        catch(IOException | RuntimeException ex) {
+            if(create) {
+                close();
+                Files.deleteIfExists(Paths.get(file_name + CREATE_SUFFIX));
+            }
+            else // the file is the consumer's live queue: only release our mapping
+                unmap();
             throw ex;
         }
     }
 
+    /** Creates the ring of a mapped queue, with the alignment recorded in its metadata */
+    protected static ManyToOneBoundedChannel ring(ByteBuffer bb) {
+        int alignment=(int)new ManyToOneBoundedChannel(bb).getMetadata(META_ALIGNMENT);
+        // 0: created by a version which didn't record the alignment
+        return alignment == 0? new ManyToOneBoundedChannel(bb) : new ManyToOneBoundedChannel(bb, alignment);
+    }
 
+    /**
+     * Touches all pages of the queue in a background thread. Stops when the queue is closed or replaced (e.g. by
+     * {@link #reclaim()}, which would otherwise be undone)
+     */
+    protected void prefaultAsync(ByteBuffer bb, ThreadFactory tf) {
+        final ManyToOneBoundedChannel q=rb;
+        final FileChannel ch=channel;
+        prefault_time=-1;
+        Thread t=tf.newThread(() -> {
+            long start=System.nanoTime();
+            ByteBufferUtils.touchPages(bb, 0, bb.capacity(), () -> rb != q || !ch.isOpen());
+            prefault_time=System.nanoTime() - start;
+        }, String.format("shm-prefault-%s", file_name));
+        t.start();
+    }
 }
@@ -0,0 +1,207 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.Bits;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Runner;
+import org.jgroups.util.ThreadFactory;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Coalesces small messages to the same {@link SharedMemoryBuffer} into a single record of type
+ * {@link SharedMemoryBuffer#MSG_TYPE_BUNDLE}, which saves the per-record header, alignment padding and tail CAS of
+ * every message. The receiver unpacks the record and passes the messages to its consumer one by one.
+ * <p>
+ * A bundle is written when it reaches max_size bytes, or when its first message has been held for max_time_ns,
+ * whichever comes first. The time limit is enforced by a flusher thread, which parks when no bundle is pending.
+ * Messages larger than half a bundle are written directly (after the pending bundle to the same destination, to
+ * preserve ordering). A bundle is max_size bytes, or the destination's max message length if smaller: when the
+ * destination's queue is shrunk, its bundle shrinks on the next flush, and so does the threshold for direct writes.
+ * <p>
+ * Record layout: a sequence of [length (int) | message (length bytes)].
+ * @since  1.1.0
+ */
+public class SharedMemoryBundler implements Closeable {
+    protected final int                             max_size;    // max size of a bundle record (bytes)
+    protected final long                            max_time_ns; // max time a message is held in a bundle
+    protected final Map<SharedMemoryBuffer,Bundle>  bundles=new ConcurrentHashMap<>();
+    protected final Runner                          flusher;
+    protected volatile Thread                       parked_flusher;
+
+    public SharedMemoryBundler(int max_size, long max_time_ns, ThreadFactory f) {
+        if(max_size <= Integer.BYTES)
+            throw new IllegalArgumentException("max_size must be greater than " + Integer.BYTES + ": " + max_size);
+        if(max_time_ns <= 0)
+            throw new IllegalArgumentException("max_time_ns must be positive: " + max_time_ns);
+        this.max_size=max_size;
+        this.max_time_ns=max_time_ns;
+        ThreadFactory tf=f != null? f : new DefaultThreadFactory("shm-bundler", true, true);
+        flusher=new Runner(tf, "shm-bundler", this::flushExpired, null);
+    }
+
+    public int  maxSize()   {return max_size;}
+    public long maxTimeNs() {return max_time_ns;}
+
+    public SharedMemoryBundler start() {
+        flusher.start();
+        return this;
+    }
+
+    /**
+     * Adds a message to the bundle for the given destination. Returns false if the message (or the bundle it
+     * completed) could not be written because the destination's queue was full
+     */
+    public boolean send(SharedMemoryBuffer dest, byte[] buf, int offset, int length) {
+        Bundle bundle=bundles.get(dest);
+        if(bundle == null)
+            bundle=bundles.computeIfAbsent(Objects.requireNonNull(dest), Bundle::new);
+        return bundle.add(buf, offset, length);
+    }
+
+    /** Writes all pending bundles */
+    public boolean flush() {
+        boolean rc=true;
+        for(Bundle b: bundles.values())
+            rc&=b.flush();
+        return rc;
+    }
+
+    /** Writes the pending bundle to dest, if any */
+    public boolean flush(SharedMemoryBuffer dest) {
+        Bundle b=bundles.get(dest);
+        return b == null || b.flush();
+    }
+
+    /** Drops the bundles of destinations which are not in dests (e.g. members which left) */
+    public SharedMemoryBundler retainAll(Collection<SharedMemoryBuffer> dests) {
+        // a set, as dests is typically Map.values(), whose contains() is linear
+        Set<SharedMemoryBuffer> tmp=dests instanceof Set? (Set<SharedMemoryBuffer>)dests : new HashSet<>(dests);
+        bundles.keySet().retainAll(tmp);
+        return this;
+    }
+
+    public void close() {
+        flusher.stop();
+        flush();
+    }
+
+    /** Called by the flusher thread: writes all expired bundles, then parks until the next one expires */
+    protected void flushExpired() {
+        long now=System.nanoTime(), next_expiry=Long.MAX_VALUE;
+        for(Bundle b: bundles.values()) {
+            long expiry=b.flushIfExpired(now);
+            if(expiry < next_expiry)
+                next_expiry=expiry;
+        }
+        if(next_expiry != Long.MAX_VALUE) {
+            LockSupport.parkNanos(this, next_expiry - now);
+            return;
+        }
+        // nothing pending: announce that we're parked, re-check (a sender might have added a message meanwhile)
+        parked_flusher=Thread.currentThread();
+        try {
+            for(Bundle b: bundles.values())
+                if(b.pending())
+                    return;
+            LockSupport.park(this);
+        }
+        finally {
+            parked_flusher=null;
+        }
+    }
+
+    public String toString() {
+        return String.format("max_size=%d, max_time=%,dns, %d destinations", max_size, max_time_ns, bundles.size());
+    }
+
+
+    protected class Bundle {
+        protected final SharedMemoryBuffer dest;
+        protected byte[]                   buf; // re-sized when the destination's max message length changes
+        protected int                      pos, count;
+        protected long                     first_add_ns;
+
+        protected Bundle(SharedMemoryBuffer dest) {
+            this.dest=dest;
+            this.buf=new byte[Math.min(max_size, dest.maxMessageLength())];
+        }
+
+        protected synchronized boolean pending() {return count > 0;}
+
+        protected synchronized boolean add(byte[] msg, int offset, int length) {
+            boolean rc=true;
+            if(pos + Integer.BYTES + length > buf.length)
+                rc=flush(); // may re-size buf
+            if(Integer.BYTES + length > buf.length >> 1) { // buf.length follows the destination's max message length
+                rc&=flush();
+                return dest.write(msg, offset, length) && rc;
+            }
+            Bits.writeInt(length, buf, pos);
+            System.arraycopy(msg, offset, buf, pos + Integer.BYTES, length);
+            pos+=Integer.BYTES + length;
+            if(count++ == 0) {
+                first_add_ns=System.nanoTime();
+                Thread t=parked_flusher;
+                if(t != null)
+                    LockSupport.unpark(t);
+            }
+            return rc;
+        }
+
+        /** Flushes the bundle if expired. Returns the expiry time of the bundle, or Long.MAX_VALUE if empty */
+        protected synchronized long flushIfExpired(long now) {
+            if(count == 0)
+                return Long.MAX_VALUE;
+            long expiry=first_add_ns + max_time_ns;
+            if(now - expiry < 0)
+                return expiry;
+            flush();
+            return Long.MAX_VALUE;
+        }
+
+        /**
+         * Writes the bundle. If the destination's queue has been shrunk since the messages were added, the bundle
+         * is split into records of the new max message length, and is re-sized
+         */
+        protected synchronized boolean flush() {
+            if(count == 0)
+                return true;
+            int max=dest.maxMessageLength();
+            boolean rc=true;
+            if(pos <= max)
+                rc=write(0, pos, count);
+            else {
+                int start=0, num=0;
+                for(int i=0; i < pos;) {
+                    int next=i + Integer.BYTES + Bits.readInt(buf, i);
+                    if(num > 0 && next - start > max) {
+                        rc&=write(start, i, num);
+                        start=i;
+                        num=0;
+                    }
+                    i=next;
+                    num++;
+                }
+                rc&=write(start, pos, num);
+            }
+            pos=count=0;
+            int size=Math.min(max_size, max);
+            if(size != buf.length)
+                buf=new byte[size];
+            return rc;
+        }
+
+        /** Writes the num messages in buf[from .. to) as one record */
+        protected boolean write(int from, int to, int num) {
+            return num == 1? dest.write(buf, from + Integer.BYTES, to - from - Integer.BYTES)
+              : dest.write(SharedMemoryBuffer.MSG_TYPE_BUNDLE, buf, from, to - from);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.jgroups.shm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of the hot paths of the shared memory transport, to find out where the time of a
+ * latency spike went (claims, full queues, parked consumers, slow processing of received messages).
+ * <p>
+ * All events are disabled by default and have thresholds, so that they can be enabled in production, e.g.
+ * {@code jcmd <pid> JFR.start settings=shm.jfc}, with a settings file enabling {@code org.jgroups.shm.*}. When an
+ * event is disabled, {@code shouldCommit()} costs a field check, and the event instance is eliminated by escape
+ * analysis.
+ * @since  1.1.0
+ */
+public final class SharedMemoryEvents {
+    public static final String CATEGORY="Shared Memory";
+
+    private SharedMemoryEvents() {}
+
+
+    @Name("org.jgroups.shm.FailedClaim")
+    @Label("Failed Claim")
+    @Description("A write failed because the queue was full, or the in-JVM queue of the consumer was full")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class FailedClaim extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Length") @DataAmount
+        public int length;
+
+        @Label("Free Capacity") @DataAmount
+        public int freeCapacity;
+    }
+
+    @Name("org.jgroups.shm.Claim")
+    @Label("Long Claim")
+    @Description("A claim of space in a queue took longer than the threshold, e.g. because of contention on the " +
+      "tail (CAS retries), or because a lossless write blocked on a full queue")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @Threshold("20 us")
+    @StackTrace(false)
+    public static class Claim extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Length") @DataAmount
+        public int length;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("org.jgroups.shm.ConsumerPark")
+    @Label("Consumer Park")
+    @Description("The consumer of a queue (or the shared poller) was idle for longer than the threshold")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    public static class ConsumerPark extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Idle Strategy")
+        public String idleStrategy;
+    }
+
+    @Name("org.jgroups.shm.ReadBatch")
+    @Label("Read Batch")
+    @Description("Reading a batch of records from a queue (and passing them up) took longer than the threshold")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @Threshold("1 ms")
+    @StackTrace(false)
+    public static class ReadBatch extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Records")
+        public int records;
+    }
+
+    @Name("org.jgroups.shm.Delivery")
+    @Label("Slow Delivery")
+    @Description("Passing a message to the consumer (e.g. TP.receive()) took longer than the threshold")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @Threshold("500 us")
+    @StackTrace(false)
+    public static class Delivery extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Length") @DataAmount
+        public int length;
+    }
+
+    @Name("org.jgroups.shm.QueueMapped")
+    @Label("Queue Mapped")
+    @Description("A queue file was created (or replaced by a resize) and/or mapped")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class QueueMapped extends Event {
+        @Label("Queue")
+        public String queue;
+
+        @Label("Capacity") @DataAmount
+        public long capacity;
+
+        @Label("Created")
+        public boolean created;
+
+        @Label("Prefaulted")
+        public boolean prefaulted;
+    }
+
+    @Name("org.jgroups.shm.PeerEvicted")
+    @Label("Peer Queue Evicted")
+    @Description("The queue of a member which left the view was removed from the cache of peer queues")
+    @Category({"JGroups", CATEGORY})
+    @Enabled(false)
+    @StackTrace(false)
+    public static class PeerEvicted extends Event {
+        @Label("Member")
+        public String member;
+
+        @Label("Queue")
+        public String queue;
+    }
+}
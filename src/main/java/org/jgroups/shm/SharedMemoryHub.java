@@ -0,0 +1,197 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.ThreadFactory;
+import org.jgroups.util.Tuple;
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * One inbound queue per process (and location), multiplexing the channels of the process: instead of one queue
+ * (file, mapping and receiver thread) per channel, and one mapping per peer channel, the channels of a process
+ * share one queue, and a process maps the queue of every other process once.
+ * <p>
+ * Every channel registers a consumer and gets a channel id, which producers add to the type of the records they
+ * write (see {@link SharedMemoryBuffer#MSG_CHANNEL_SHIFT}). The consumer of the queue dispatches records to the
+ * consumer of their channel.
+ * <p>
+ * A channel publishes its queue by writing a descriptor ([hub file, channel id]) to the file of its address, in
+ * place of a queue (see {@link #publish(String,int)}). Producers reading a descriptor ({@link #readDescriptor(String)})
+ * write to the hub's queue via a view with the channel id ({@link #queue(String,int)}).
+ * <p>
+ * Hubs are reference counted: {@link #acquire} returns the hub of a location, creating it if needed, and
+ * {@link #release()} closes it when the last channel has released it.
+ * @since  1.1.0
+ */
+public class SharedMemoryHub implements Closeable {
+    protected final String                          location;
+    protected final SharedMemoryBuffer              queue;     // the inbound queue of this process
+    protected final Map<String,SharedMemoryBuffer>  producers=new ConcurrentHashMap<>(); // hub file -> producer
+    protected final BitSet                          channel_ids=new BitSet();
+    protected int                                   next_id=1; // where the search for a free channel id starts
+    protected int                                   refs;      // guarded by HUBS
+
+    /** Directory (under location) of the hub files */
+    public static final String                      HUB_DIR=".hubs";
+    /** Suffix of a descriptor while it is being written */
+    public static final String                      TMP_SUFFIX=".tmp";
+
+    protected static final Map<String,SharedMemoryHub> HUBS=new HashMap<>(); // location -> hub
+
+
+    protected SharedMemoryHub(String location, int capacity, SharedMemoryBuffer.Prefault prefault,
+                              SharedMemoryPool pool, int alignment, SharedMemoryPoller poller, int msg_budget,
+                              ThreadFactory f) throws IOException {
+        this.location=location;
+        File dir=Paths.get(location, HUB_DIR).toFile();
+        if(!dir.exists())
+            dir.mkdirs();
+        String name=String.format("%d-%08x", ProcessHandle.current().pid(), ThreadLocalRandom.current().nextInt());
+        String file_name=Paths.get(dir.getPath(), name).toString();
+        if(pool != null && prefault != SharedMemoryBuffer.Prefault.NONE
+          && pool.claim(file_name + SharedMemoryBuffer.CREATE_SUFFIX))
+            prefault=SharedMemoryBuffer.Prefault.DONE;
+        queue=new SharedMemoryBuffer(file_name, capacity + ManyToOneBoundedChannel.TRAILER_LENGTH, true,
+                                     prefault, alignment, f)
+          .deleteFileOnExit(true);
+        // records of channel 0 are written by producers without channel id, which don't know about hubs: dropped
+        queue.setConsumer(bb -> {}, poller, msg_budget);
+    }
+
+    /**
+     * Returns the hub of location, creating it if needed. The parameters apply to the creation only, so all
+     * channels of a process (and location) sharing the hub should use the same configuration. The queue is taken
+     * from pool (if not null) unless prefault is {@link SharedMemoryBuffer.Prefault#NONE}
+     */
+    public static SharedMemoryHub acquire(String location, int capacity, SharedMemoryBuffer.Prefault prefault,
+                                          SharedMemoryPool pool, int alignment, SharedMemoryPoller poller,
+                                          int msg_budget, ThreadFactory f) throws IOException {
+        Objects.requireNonNull(location);
+        synchronized(HUBS) {
+            SharedMemoryHub hub=HUBS.get(location);
+            if(hub == null)
+                HUBS.put(location, hub=new SharedMemoryHub(location, capacity, prefault, pool, alignment, poller,
+                                                           msg_budget, f));
+            hub.refs++;
+            return hub;
+        }
+    }
+
+    /** Releases the hub; the last channel to release it closes it */
+    public void release() {
+        synchronized(HUBS) {
+            if(--refs > 0)
+                return;
+            HUBS.remove(location, this);
+        }
+        close();
+    }
+
+    public String             location() {return location;}
+    /** The inbound queue of this process, shared by all channels */
+    public SharedMemoryBuffer queue()    {return queue;}
+    public int                refs()     {synchronized(HUBS) {return refs;}}
+
+    /**
+     * Registers the consumer of a channel. Returns the channel id.<br>
+     * Ids are handed out round-robin, so that the id of an unregistered channel is only reused when all other ids
+     * have been used: peers may still have the channel's descriptor, and records of the channel may still be in the
+     * queue, which must not be passed to the consumer of a new channel (possibly of a different cluster)
+     */
+    public synchronized int register(Consumer<ByteBuffer> c) {
+        int id=nextChannelId(next_id);
+        if(id < 0)
+            id=nextChannelId(1);
+        if(id < 0)
+            throw new IllegalStateException(String.format("max number of channels (%d) reached",
+                                                          SharedMemoryBuffer.MAX_CHANNEL_ID));
+        channel_ids.set(id);
+        next_id=id+1;
+        queue.setConsumer(id, Objects.requireNonNull(c));
+        return id;
+    }
+
+    /** The first free channel id >= from, or -1 if none */
+    protected int nextChannelId(int from) {
+        int id=channel_ids.nextClearBit(from);
+        return id <= SharedMemoryBuffer.MAX_CHANNEL_ID? id : -1;
+    }
+
+    /** Removes the consumer of a channel; records of the channel which are still in the queue are dropped */
+    public synchronized void unregister(int channel_id) {
+        queue.setConsumer(channel_id, null);
+        channel_ids.clear(channel_id);
+    }
+
+    /**
+     * Returns a queue for writing the messages of channel channel_id to the hub with the given file. The queue is a
+     * view of a producer shared by all channels of this process (see
+     * {@link SharedMemoryBuffer#SharedMemoryBuffer(SharedMemoryBuffer, int)})
+     */
+    public SharedMemoryBuffer queue(String hub_file, int channel_id) throws IOException {
+        SharedMemoryBuffer producer=hub_file.equals(queue.fileName())? queue : producers.get(hub_file);
+        if(producer == null) {
+            SharedMemoryBuffer tmp=new SharedMemoryBuffer(hub_file, queue.capacity() + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                          false, null);
+            if((producer=producers.putIfAbsent(hub_file, tmp)) == null)
+                producer=tmp;
+        }
+        return new SharedMemoryBuffer(producer, channel_id);
+    }
+
+    /**
+     * Publishes channel channel_id of this hub under file_name (the file of the channel's address), so that peers
+     * write to the hub's queue. The descriptor is written to a temporary file, which is then renamed
+     */
+    public void publish(String file_name, int channel_id) throws IOException {
+        Path tmp=Paths.get(file_name + TMP_SUFFIX);
+        Files.writeString(tmp, String.format("%s\n%d\n", queue.fileName(), channel_id), StandardCharsets.UTF_8);
+        Files.move(tmp, Paths.get(file_name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        new File(file_name).deleteOnExit();
+    }
+
+    /**
+     * Reads the descriptor published under file_name. Returns [hub file, channel id], or null if file_name is not
+     * a descriptor (e.g. a queue)
+     */
+    public static Tuple<String,Integer> readDescriptor(String file_name) {
+        Path path=Paths.get(file_name);
+        try {
+            // queues are larger than their trailer; a queue which is being created can be empty
+            long size=Files.size(path);
+            if(size == 0 || size >= ManyToOneBoundedChannel.TRAILER_LENGTH)
+                return null;
+            String[] lines=Files.readString(path, StandardCharsets.UTF_8).split("\n");
+            return lines.length == 2? new Tuple<>(lines[0], Integer.parseInt(lines[1].trim())) : null;
+        }
+        catch(IOException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    public void close() {
+        producers.values().forEach(SharedMemoryBuffer::unmap); // the queues of other hubs must not be deleted
+        producers.clear();
+        Util.close(queue);
+    }
+
+    public String toString() {
+        return String.format("%s (%d channels, %d producers)", queue.fileName(), channel_ids.cardinality(),
+                             producers.size());
+    }
+}
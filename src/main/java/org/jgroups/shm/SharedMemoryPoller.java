@@ -0,0 +1,137 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Runner;
+import org.jgroups.util.ThreadFactory;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Reads from many {@link SharedMemoryBuffer}s with a single thread, so that a process hosting many channels has one
+ * CPU budget for receiving, instead of one receiver loop per buffer.
+ * <p>
+ * Each iteration reads up to a per-buffer message budget from every registered buffer in turn, so that a busy buffer
+ * cannot starve the others. The idle strategy is only invoked when all buffers were empty.
+ * <p>
+ * The thread is started when the first buffer is registered and stopped when the last one is unregistered.
+ * @since  1.1.0
+ */
+public class SharedMemoryPoller implements Closeable {
+    protected final Runner          runner;
+    protected volatile Entry[]      entries=new Entry[0]; // copy-on-write
+    protected volatile IdleStrategy idle_strategy;
+
+    public static final int         DEFAULT_MSG_BUDGET=64;
+
+    protected static volatile SharedMemoryPoller shared;
+
+
+    public SharedMemoryPoller(ThreadFactory f) {
+        ThreadFactory tf=f != null? f : new DefaultThreadFactory("shm-poller", true, true);
+        idle_strategy=IdleStrategy.backoffIdle(IdleStrategy.DEFAULT_MAX_SPINS,
+                                               IdleStrategy.DEFAULT_MAX_YIELDS,
+                                               IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS,
+                                               IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS<<6);
+        runner=new Runner(tf, "shm-poller", this::doWork, null);
+    }
+
+    /** Returns the poller shared by all channels of this process, creating it if needed */
+    public static SharedMemoryPoller shared() {
+        SharedMemoryPoller p=shared;
+        if(p == null) {
+            synchronized(SharedMemoryPoller.class) {
+                if((p=shared) == null)
+                    shared=p=new SharedMemoryPoller(null);
+            }
+        }
+        return p;
+    }
+
+    public IdleStrategy idleStrategy()    {return idle_strategy;}
+    public int          size()            {return entries.length;}
+    public boolean      isRunning()       {return runner.isRunning();}
+
+    /** Changes the idle strategy; note that this affects all buffers registered with this poller */
+    public SharedMemoryPoller idleStrategy(IdleStrategy s) {
+        IdleStrategy old=idle_strategy;
+        idle_strategy=Objects.requireNonNull(s);
+        for(Entry e: entries)
+            e.buf.registerBlockedConsumer();
+        if(old instanceof BlockingIdleStrategy && old != s)
+            ((BlockingIdleStrategy)old).wakeUp();
+        return this;
+    }
+
+    /**
+     * Registers a buffer. At most msg_budget messages are read from the buffer in a single iteration, before
+     * moving on to the next buffer
+     */
+    public synchronized SharedMemoryPoller register(SharedMemoryBuffer buf, int msg_budget) {
+        Objects.requireNonNull(buf);
+        if(msg_budget <= 0)
+            throw new IllegalArgumentException("msg_budget must be positive: " + msg_budget);
+        for(Entry e: entries)
+            if(e.buf == buf)
+                return this;
+        Entry[] tmp=Arrays.copyOf(entries, entries.length+1);
+        tmp[tmp.length-1]=new Entry(buf, msg_budget);
+        entries=tmp;
+        runner.start();
+        return this;
+    }
+
+    public synchronized SharedMemoryPoller unregister(SharedMemoryBuffer buf) {
+        Entry[] tmp=Arrays.stream(entries).filter(e -> e.buf != buf).toArray(Entry[]::new);
+        if(tmp.length == entries.length)
+            return this;
+        entries=tmp;
+        if(tmp.length == 0)
+            runner.stop();
+        return this;
+    }
+
+    /** Returns true if any of the registered buffers has messages */
+    public boolean hasWork() {
+        for(Entry e: entries)
+            if(e.buf.hasWork())
+                return true;
+        return false;
+    }
+
+    public void doWork() {
+        final Entry[] tmp=entries;
+        int num_msgs=0;
+        for(Entry e: tmp)
+            num_msgs+=e.buf.poll(e.msg_budget);
+        SharedMemoryEvents.ConsumerPark ev=new SharedMemoryEvents.ConsumerPark();
+        ev.begin();
+        IdleStrategy s=idle_strategy;
+        s.idle(num_msgs);
+        if(num_msgs == 0 && ev.shouldCommit()) {
+            ev.queue="shm-poller";
+            ev.idleStrategy=s.toString();
+            ev.commit();
+        }
+    }
+
+    public synchronized void close() {
+        entries=new Entry[0];
+        runner.stop();
+    }
+
+    public String toString() {
+        return String.format("%d buffers, idle strategy: %s", entries.length, idle_strategy);
+    }
+
+    protected static class Entry {
+        protected final SharedMemoryBuffer buf;
+        protected final int                msg_budget;
+
+        protected Entry(SharedMemoryBuffer buf, int msg_budget) {
+            this.buf=buf;
+            this.msg_budget=msg_budget;
+        }
+    }
+}
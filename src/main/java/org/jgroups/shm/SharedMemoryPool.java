@@ -0,0 +1,141 @@
+package org.jgroups.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of pre-created queue files of a given length, so that a (restarted) member can start with a queue whose
+ * pages are already resident, instead of creating and zeroing it while connecting.
+ * <p>
+ * The files live in a directory under the location ({@link #POOL_DIR}) and outlive the process which created them.
+ * A file is created and zeroed under a temporary name, and then renamed into the pool; a member claims a file by
+ * renaming it to the file its queue is created from ({@link #claim(String)}). Renaming is atomic, so every file is
+ * claimed by one member only, also when members of different processes claim files concurrently. The claimed file
+ * is then opened with {@link SharedMemoryBuffer.Prefault#DONE}.
+ * @since  1.1.0
+ */
+public class SharedMemoryPool {
+    protected final Path         dir;
+    protected final int          buffer_length; // the length of the files (capacity plus trailer)
+    protected final int          size;          // the number of files replenish() keeps in the pool
+    protected final String       prefix;        // the names of pooled files of buffer_length start with this
+    protected final LongAdder    claims=new LongAdder(), misses=new LongAdder(), created=new LongAdder();
+
+    /** Directory (under location) of the pool */
+    public static final String   POOL_DIR=".pool";
+    /** Suffix of a file while it is being created */
+    public static final String   TMP_SUFFIX=".tmp";
+
+
+    public SharedMemoryPool(String location, int buffer_length, int size) {
+        if(size < 0)
+            throw new IllegalArgumentException(String.format("size (%d) must be >= 0", size));
+        this.dir=Paths.get(location, POOL_DIR);
+        this.buffer_length=buffer_length;
+        this.size=size;
+        this.prefix=buffer_length + "-";
+        File tmp=dir.toFile();
+        if(!tmp.exists())
+            tmp.mkdirs();
+    }
+
+    public int  size()    {return size;}
+    public long claims()  {return claims.sum();}
+    /** Number of claims which found the pool empty */
+    public long misses()  {return misses.sum();}
+    /** Number of files created by this instance */
+    public long created() {return created.sum();}
+
+    /** The number of files in the pool */
+    public int available() {
+        String[] names=dir.toFile().list((d, name) -> isPooled(name));
+        return names != null? names.length : 0;
+    }
+
+    /**
+     * Moves a file from the pool to file_name (replacing it if it exists). Returns true if a file was claimed, or
+     * false if the pool was empty
+     */
+    public boolean claim(String file_name) {
+        String[] names=dir.toFile().list((d, name) -> isPooled(name));
+        if(names != null) {
+            Path target=Paths.get(file_name);
+            for(String name: names) {
+                try {
+                    Files.move(dir.resolve(name), target, StandardCopyOption.ATOMIC_MOVE);
+                    claims.increment();
+                    return true;
+                }
+                catch(IOException ex) {
+                    // claimed by someone else in the meantime: try the next one
+                }
+            }
+        }
+        misses.increment();
+        return false;
+    }
+
+    /**
+     * Creates files until the pool has size files, and removes temporary files of crashed processes. Returns the
+     * number of files created. Concurrent calls (e.g. by different processes) may create a few files too many
+     */
+    public int replenish() throws IOException {
+        removeStaleFiles();
+        int num=0;
+        for(int i=available(); i < size; i++, num++)
+            createFile();
+        return num;
+    }
+
+    protected void createFile() throws IOException {
+        long pid=ProcessHandle.current().pid();
+        String name=String.format("%s%d-%08x", prefix, pid, ThreadLocalRandom.current().nextInt());
+        Path tmp=dir.resolve(name + TMP_SUFFIX);
+        try(FileChannel ch=FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE)) {
+            ByteBuffer bb=ch.map(FileChannel.MapMode.READ_WRITE, 0, buffer_length);
+            ByteBufferUtils.zeros(bb, 0, buffer_length);
+        }
+        catch(IOException ex) {
+            Files.deleteIfExists(tmp);
+            throw ex;
+        }
+        Files.move(tmp, dir.resolve(name), StandardCopyOption.ATOMIC_MOVE);
+        created.increment();
+    }
+
+    /** Removes temporary files whose creator is not alive anymore */
+    protected void removeStaleFiles() {
+        File[] files=dir.toFile().listFiles((d, name) -> name.endsWith(TMP_SUFFIX));
+        if(files == null)
+            return;
+        for(File f: files) {
+            String[] parts=f.getName().split("-");
+            try {
+                long pid=Long.parseLong(parts[1]);
+                if(ProcessHandle.of(pid).isEmpty())
+                    f.delete();
+            }
+            catch(RuntimeException ignored) {
+            }
+        }
+    }
+
+    protected boolean isPooled(String name) {
+        return name.startsWith(prefix) && !name.endsWith(TMP_SUFFIX);
+    }
+
+    public String toString() {
+        return String.format("%s: %d/%d files of %d bytes (claims: %d, misses: %d)", dir, available(), size,
+                             buffer_length, claims(), misses());
+    }
+}
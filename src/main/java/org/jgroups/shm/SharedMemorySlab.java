@@ -0,0 +1,215 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.jgroups.shm.ByteBufferUtils.copyBytes;
+
+/**
+ * Memory-mapped arena for large messages, shared between processes. A sender writes a large message into a run of
+ * blocks of its own slab once, and passes only a small descriptor (block, generation, length) through the
+ * {@link ManyToOneBoundedChannel} of each receiver (see {@link SharedMemoryBuffer#write(SharedMemorySlab,int,int)}).
+ * Receivers read the message in place and release the block when done, so the cost of a transfer doesn't depend on
+ * the size of the message, or on the number of receivers of a multicast.
+ * <p>
+ * Every block has a refcount, which is set to the number of receivers when a message is written, and decremented by
+ * each receiver. The owner reclaims runs whose refcount dropped to 0 lazily, when it runs out of space. The generation
+ * of a block is incremented on every allocation, so that a receiver can detect a stale descriptor.
+ * <p>
+ * Only the owner (the process which created the slab) allocates; receivers map the slab lazily on the first
+ * descriptor referring to it. Note that a receiver which crashes before releasing a block leaks that block until
+ * the owner restarts.
+ * <p>
+ * Layout: [block size (int) | number of blocks (int) | padding] [refcount (int) | generation (int)]* [blocks]
+ * @since  1.1.0
+ */
+public class SharedMemorySlab implements Closeable {
+    protected final String     file_name;
+    protected final byte[]     name;         // file_name in UTF-8, written into descriptors
+    protected final boolean    owner;
+    protected final int        block_size, num_blocks, data_offset;
+    protected FileChannel      channel;
+    protected ByteBuffer       buf;
+    protected ByteBuffer       read_buf;     // read-only view passed to consumers
+    // the fields below are only used by the owner
+    protected final BitSet     used;         // allocated blocks
+    protected final int[]      run_lengths;  // number of blocks of an allocated run, indexed by its first block
+    protected final LongAdder  failed_allocations=new LongAdder();
+
+    /** Suffix of slab files; SHM's cache ignores files with this suffix */
+    public static final String    SUFFIX=".slab";
+    protected static final int    HEADER_SIZE=64, BLOCK_HEADER_SIZE=Integer.BYTES * 2, PAGE_SIZE=4096;
+    protected static final VarHandle REFCOUNT=MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+
+    /** Creates a slab of capacity bytes, divided into blocks of block_size bytes */
+    public SharedMemorySlab(String file_name, int capacity, int block_size) throws IOException {
+        this(file_name, true, block_size, capacity / block_size);
+    }
+
+    protected SharedMemorySlab(String file_name, boolean owner, int block_size, int num_blocks) throws IOException {
+        if(block_size <= 0 || block_size % Long.BYTES != 0)
+            throw new IllegalArgumentException("block_size must be a positive multiple of " + Long.BYTES + ": " + block_size);
+        if(num_blocks <= 0)
+            throw new IllegalArgumentException("capacity must be at least one block: " + num_blocks);
+        this.file_name=file_name;
+        this.name=file_name.getBytes(StandardCharsets.UTF_8);
+        this.owner=owner;
+        this.block_size=block_size;
+        this.num_blocks=num_blocks;
+        this.data_offset=ManyToOneBoundedChannel.align(HEADER_SIZE + num_blocks * BLOCK_HEADER_SIZE, PAGE_SIZE);
+        this.used=owner? new BitSet(num_blocks) : null;
+        this.run_lengths=owner? new int[num_blocks] : null;
+        long length=(long)data_offset + (long)block_size * num_blocks;
+        if(length > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(String.format("slab size (%,d) must be less than 2GB", length));
+        try {
+            channel=owner?
+              FileChannel.open(Paths.get(file_name), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+              : FileChannel.open(Paths.get(file_name), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buf=channel.map(FileChannel.MapMode.READ_WRITE, 0, length).order(ByteOrder.BIG_ENDIAN);
+            if(owner) {
+                ByteBufferUtils.zeros(buf, 0, data_offset);
+                buf.putInt(0, block_size).putInt(Integer.BYTES, num_blocks);
+            }
+            read_buf=buf.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+        }
+        catch(IOException ex) {
+            close();
+            throw ex;
+        }
+    }
+
+    /** Maps an existing slab created by another process */
+    public static SharedMemorySlab open(String file_name) throws IOException {
+        try(FileChannel ch=FileChannel.open(Paths.get(file_name), StandardOpenOption.READ)) {
+            ByteBuffer hdr=ByteBuffer.allocate(Integer.BYTES * 2);
+            while(hdr.hasRemaining())
+                if(ch.read(hdr, hdr.position()) < 0)
+                    throw new IOException(String.format("slab %s is truncated", file_name));
+            return new SharedMemorySlab(file_name, false, hdr.getInt(0), hdr.getInt(Integer.BYTES));
+        }
+    }
+
+    public String     fileName()             {return file_name;}
+    public int        blockSize()            {return block_size;}
+    public int        numBlocks()            {return num_blocks;}
+    public int        capacity()             {return block_size * num_blocks;}
+    public ByteBuffer readBuffer()           {return read_buf;}
+    public int        dataOffset(int block)  {return data_offset + block * block_size;}
+    public int        generation(int block)  {return buf.getInt(generationOffset(block));}
+    public int        refcount(int block)    {return (int)REFCOUNT.getVolatile(buf, refcountOffset(block));}
+    public long       failedAllocations()    {return failed_allocations.sum();}
+    public SharedMemorySlab resetStats()     {failed_allocations.reset(); return this;}
+
+    /** Returns true if name (in UTF-8) is the file name of this slab */
+    public boolean hasName(ByteBuffer b, int offset, int length) {
+        if(length != name.length)
+            return false;
+        for(int i=0; i < length; i++)
+            if(b.get(offset+i) != name[i])
+                return false;
+        return true;
+    }
+
+    /** The number of blocks currently allocated (including those which have been released but not yet reclaimed) */
+    public synchronized int usedBlocks() {
+        return used != null? used.cardinality() : 0;
+    }
+
+    /**
+     * Copies a message into the slab. The refcount of the allocated run is set to refs, the number of receivers
+     * which will call {@link #release(int)}.
+     * @return The first block of the run, or -1 if the slab has no space left (the caller should then copy the
+     * message through the queue)
+     */
+    public int write(byte[] src, int offset, int length, int refs) {
+        if(!owner)
+            throw new IllegalStateException(String.format("slab %s is owned by a different process", file_name));
+        if(refs <= 0)
+            throw new IllegalArgumentException("refs must be positive: " + refs);
+        int block=allocate(length, refs);
+        if(block < 0) {
+            failed_allocations.increment();
+            return -1;
+        }
+        // the run is exclusively ours until the descriptor has been published (by committing it to a queue)
+        copyBytes(src, offset, buf, dataOffset(block), length);
+        return block;
+    }
+
+    /** Decrements the refcount of a run; the owner reclaims it when it reaches 0 */
+    public void release(int block) {
+        REFCOUNT.getAndAdd(buf, refcountOffset(block), -1);
+    }
+
+    /** Returns true if block is still allocated with the given generation, ie. the descriptor is not stale */
+    public boolean isValid(int block, int generation) {
+        return block >= 0 && block < num_blocks && refcount(block) > 0 && generation(block) == generation;
+    }
+
+    public void close() {
+        Util.close(channel);
+        if(owner)
+            new File(file_name).delete();
+    }
+
+    public String toString() {
+        return String.format("%s: %d blocks of %,d bytes (%d used)", file_name, num_blocks, block_size, usedBlocks());
+    }
+
+    protected synchronized int allocate(int length, int refs) {
+        int blocks=Math.max(1, (length + block_size - 1) / block_size);
+        if(blocks > num_blocks)
+            return -1;
+        int block=findFreeRun(blocks);
+        if(block < 0) {
+            reclaim();
+            if((block=findFreeRun(blocks)) < 0)
+                return -1;
+        }
+        used.set(block, block + blocks);
+        run_lengths[block]=blocks;
+        int gen_offset=generationOffset(block);
+        buf.putInt(gen_offset, buf.getInt(gen_offset) + 1);
+        REFCOUNT.setRelease(buf, refcountOffset(block), refs);
+        return block;
+    }
+
+    /** First fit: returns the first block of a run of blocks free blocks, or -1 */
+    protected int findFreeRun(int blocks) {
+        for(int i=used.nextClearBit(0); i + blocks <= num_blocks;) {
+            int next_used=used.nextSetBit(i);
+            if(next_used < 0 || next_used - i >= blocks)
+                return i;
+            i=used.nextClearBit(next_used);
+        }
+        return -1;
+    }
+
+    /** Frees all runs which have been released by all of their receivers */
+    protected void reclaim() {
+        for(int i=used.nextSetBit(0); i >= 0; i=used.nextSetBit(i)) {
+            int run=run_lengths[i];
+            if((int)REFCOUNT.getAcquire(buf, refcountOffset(i)) <= 0)
+                used.clear(i, i + run);
+            i+=run;
+        }
+    }
+
+    protected static int refcountOffset(int block)   {return HEADER_SIZE + block * BLOCK_HEADER_SIZE;}
+    protected static int generationOffset(int block) {return refcountOffset(block) + Integer.BYTES;}
+}
@@ -0,0 +1,115 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.jgroups.shm.ByteBufferUtils.copyBytes;
+
+/**
+ * The slabs of the senders to a queue, referred to by the records of type {@link SharedMemoryBuffer#MSG_TYPE_SLAB}
+ * (see {@link SharedMemoryBuffer#write(SharedMemorySlab,int,int)}). A slab is mapped on the first descriptor referring
+ * to it, and unmapped when its sender has left ({@link #evict(String)}).
+ * <p>
+ * Only the consumer of the queue maps, reads and unmaps slabs; {@link #evict(String)} can be called by any thread.
+ * <p>
+ * Descriptor: [block (int) | generation (int) | length (int) | slab name length (short) | slab name (UTF-8)]
+ * @since  1.1.0
+ */
+public class SlabReader implements Closeable {
+    protected final Map<String,SharedMemorySlab> slabs=new ConcurrentHashMap<>();
+    protected SharedMemorySlab                   last_slab; // the slab of the last descriptor
+    protected final Queue<String>                evicted=new ConcurrentLinkedQueue<>(); // unmapped by the consumer
+
+    protected static final int                   NAME_OFFSET=Integer.BYTES * 3 + Short.BYTES;
+
+    public int     size()                {return slabs.size();}
+    public boolean isMapped(String name) {return slabs.containsKey(name);}
+
+    /** The length of the descriptor of a message in the given slab */
+    public static int descriptorLength(SharedMemorySlab slab) {
+        return NAME_OFFSET + slab.name.length;
+    }
+
+    /** Writes the descriptor of the message of the given length in a block of slab to buf at index */
+    public static void writeDescriptor(ByteBuffer buf, int index, SharedMemorySlab slab, int block, int length) {
+        buf.putInt(index, block).putInt(index + Integer.BYTES, slab.generation(block))
+          .putInt(index + Integer.BYTES*2, length).putShort(index + Integer.BYTES*3, (short)slab.name.length);
+        copyBytes(slab.name, 0, buf, index + NAME_OFFSET, slab.name.length);
+    }
+
+    public static int block(ByteBuffer buf, int offset)  {return buf.getInt(offset);}
+    public static int length(ByteBuffer buf, int offset) {return buf.getInt(offset + Integer.BYTES*2);}
+
+    /**
+     * Returns the slab of the descriptor at offset in buf, mapping it if needed. Returns null if the slab doesn't
+     * exist anymore (its sender has left), or if the descriptor is stale (the block has been reused)
+     */
+    public SharedMemorySlab slab(ByteBuffer buf, int offset) {
+        int block=buf.getInt(offset), generation=buf.getInt(offset + Integer.BYTES);
+        SharedMemorySlab slab=slab(buf, offset + NAME_OFFSET, buf.getShort(offset + Integer.BYTES*3));
+        return slab != null && slab.isValid(block, generation)? slab : null;
+    }
+
+    /**
+     * Queues the slab with the given name for unmapping, without deleting it (we're not the owner). Returns false if
+     * the slab is not mapped. The consumer unmaps it before it reads the next messages ({@link #closeEvicted()}); a
+     * message referring to the slab which is still in the queue maps it again
+     */
+    public boolean evict(String name) {
+        if(!slabs.containsKey(name))
+            return false;
+        evicted.add(name);
+        return true;
+    }
+
+    /** Unmaps the evicted slabs. Called by the consumer */
+    public void closeEvicted() {
+        String name;
+        while((name=evicted.poll()) != null) {
+            SharedMemorySlab slab=slabs.remove(name);
+            if(slab != null) {
+                if(last_slab == slab)
+                    last_slab=null;
+                slab.close(); // not the owner: the file is kept
+            }
+        }
+    }
+
+    public void close() {
+        slabs.values().forEach(Util::close);
+        slabs.clear();
+        evicted.clear();
+        last_slab=null;
+    }
+
+    public String toString() {
+        return String.format("%d slabs", slabs.size());
+    }
+
+    protected SharedMemorySlab slab(ByteBuffer buf, int offset, int length) {
+        SharedMemorySlab slab=last_slab;
+        if(slab != null && slab.hasName(buf, offset, length))
+            return slab;
+        byte[] tmp=new byte[length];
+        buf.get(offset, tmp);
+        String name=new String(tmp, StandardCharsets.UTF_8);
+        slab=slabs.get(name);
+        if(slab == null) {
+            try {
+                slabs.put(name, slab=SharedMemorySlab.open(name));
+            }
+            catch(IOException ex) {
+                return null;
+            }
+        }
+        return last_slab=slab;
+    }
+}
@@ -0,0 +1,227 @@
+package org.jgroups.tests.perf;
+
+import org.jgroups.shm.AdaptiveIdleStrategy;
+import org.jgroups.shm.IdleStrategy;
+import org.jgroups.shm.ManyToOneBoundedChannel;
+import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.util.Util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the trade-off between pickup latency (time from a message's scheduled send time until the consumer has
+ * it) and the CPU consumed by the consumer thread of a {@link SharedMemoryBuffer}, for different {@link IdleStrategy}
+ * configurations and arrival patterns:
+ * <ul>
+ *     <li>constant: messages at a fixed rate</li>
+ *     <li>bursty: bursts of messages at a fixed rate, separated by gaps</li>
+ *     <li>sparse: exponentially distributed gaps (Poisson arrivals)</li>
+ * </ul>
+ * Every combination is printed as a CSV line (latency percentiles in us, CPU as a percentage of a core), so that
+ * the results can be plotted as a latency/CPU curve per pattern.
+ * <p>
+ * An idle strategy is given as name[:key=value,...], where name is one of the names accepted by
+ * {@link IdleStrategy#of} and keys are spins, yields, min_park, max_park and budget (times in ns, or with a
+ * us/ms suffix), e.g. "backoff:max_park=100us" or "adaptive:budget=20us".
+ */
+public class IdleStrategyPerf {
+    protected static final ThreadMXBean THREAD_MX_BEAN=ManagementFactory.getThreadMXBean();
+    protected static final String[]     DEFAULT_STRATEGIES={
+      "busy_spin", "spin_yield", "sleeping:min_park=50us", "backoff:max_park=100us", "backoff:max_park=1ms",
+      "backoff:max_park=64ms", "adaptive:budget=10us", "adaptive:budget=50us", "adaptive:budget=200us", "blocking"
+    };
+    protected static final String       HEADER="pattern,strategy,msgs,p50_us,p90_us,p99_us,p99.9_us,max_us,cpu_pct";
+
+    /** The result of a run: latencies (ns) and CPU consumed by the consumer as a fraction of the wall time */
+    protected record Result(long[] latencies, double cpu) {}
+
+
+    protected static Result run(String pattern, String strategy, long duration_ns, int rate, int burst_size,
+                                String dir) throws Exception {
+        File file=File.createTempFile("idle-perf", null, new File(dir));
+        SharedMemoryBuffer buf=new SharedMemoryBuffer(file.getPath(), (1 << 20) + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                      true, null).deleteFileOnExit(true)
+          .localPath(false); // measure the mapped queue, not the in-JVM fast path
+        int max_msgs=(int)Math.min(Integer.MAX_VALUE - 8, (duration_ns / 1_000_000_000.0) * rate * 2 + 1024);
+        long[] latencies=new long[max_msgs];
+        int[] count={0};
+        long[] consumer={0, 0, 0}; // thread id, CPU time and wall time at the first message
+        try {
+            buf.idleStrategy(parse(strategy));
+            buf.setConsumer(bb -> {
+                long now=System.nanoTime();
+                if(consumer[0] == 0) {
+                    consumer[0]=Thread.currentThread().getId();
+                    consumer[1]=THREAD_MX_BEAN.getThreadCpuTime(consumer[0]);
+                    consumer[2]=now;
+                }
+                if(count[0] < latencies.length)
+                    latencies[count[0]++]=now - bb.getLong(bb.position());
+            });
+            produce(buf, pattern, duration_ns, rate, burst_size);
+            Util.sleep(100); // let the consumer pick up the last messages
+            long wall=System.nanoTime() - consumer[2], cpu=THREAD_MX_BEAN.getThreadCpuTime(consumer[0]) - consumer[1];
+            return new Result(Arrays.copyOf(latencies, count[0]), (double)cpu / wall);
+        }
+        finally {
+            buf.close();
+        }
+    }
+
+    /** Writes messages containing their scheduled send time, according to the pattern */
+    protected static void produce(SharedMemoryBuffer buf, String pattern, long duration_ns, int rate, int burst_size) {
+        ByteBuffer msg=ByteBuffer.allocate(64);
+        byte[] tmp=msg.array();
+        Random random=new Random(42);
+        long interval=TimeUnit.SECONDS.toNanos(1) / rate, start=System.nanoTime(), end=start + duration_ns;
+        long next=start;
+        for(int i=0; next < end; i++) {
+            waitUntil(next);
+            msg.putLong(0, next);
+            while(!buf.write(tmp, 0, tmp.length))
+                Thread.onSpinWait();
+            switch(pattern) {
+                case "constant":
+                    next+=interval;
+                    break;
+                case "bursty": // messages of a burst are sent back-to-back, bursts at the same average rate
+                    if((i+1) % burst_size == 0)
+                        next+=interval * burst_size;
+                    break;
+                case "sparse":
+                    next+=(long)(-Math.log(1 - random.nextDouble()) * interval);
+                    break;
+                default:
+                    throw new IllegalArgumentException("pattern " + pattern + " not known");
+            }
+        }
+    }
+
+    protected static void waitUntil(long deadline) {
+        long remaining;
+        while((remaining=deadline - System.nanoTime()) > 0) {
+            if(remaining > 100_000)
+                LockSupport.parkNanos(remaining - 50_000);
+            else
+                Thread.onSpinWait();
+        }
+    }
+
+    protected static IdleStrategy parse(String spec) {
+        int index=spec.indexOf(':');
+        String name=index < 0? spec : spec.substring(0, index);
+        long spins=IdleStrategy.DEFAULT_MAX_SPINS, yields=IdleStrategy.DEFAULT_MAX_YIELDS,
+          min_park=IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS, max_park=IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS << 6,
+          budget=AdaptiveIdleStrategy.DEFAULT_MAX_SPIN_NS + AdaptiveIdleStrategy.DEFAULT_MAX_YIELD_NS;
+        if(index >= 0) {
+            for(String kv: spec.substring(index+1).split(",")) {
+                String[] tmp=kv.split("=");
+                if(tmp.length != 2)
+                    throw new IllegalArgumentException("invalid idle strategy attribute: " + kv);
+                long val=parseNanos(tmp[1].trim());
+                switch(tmp[0].trim()) {
+                    case "spins":    spins=val; break;
+                    case "yields":   yields=val; break;
+                    case "min_park": min_park=val; break;
+                    case "max_park": max_park=val; break;
+                    case "budget":   budget=val; break;
+                    default: throw new IllegalArgumentException("invalid idle strategy attribute: " + kv);
+                }
+            }
+        }
+        return IdleStrategy.of(name, spins, yields, min_park, max_park, budget);
+    }
+
+    protected static long parseNanos(String s) {
+        if(s.endsWith("ms"))
+            return TimeUnit.MILLISECONDS.toNanos(Long.parseLong(s.substring(0, s.length() - 2)));
+        if(s.endsWith("us"))
+            return TimeUnit.MICROSECONDS.toNanos(Long.parseLong(s.substring(0, s.length() - 2)));
+        return Long.parseLong(s);
+    }
+
+    protected static String toCsv(String pattern, String strategy, Result r) {
+        long[] l=r.latencies();
+        Arrays.sort(l);
+        return String.format("%s,\"%s\",%d,%.2f,%.2f,%.2f,%.2f,%.2f,%.1f", pattern, strategy, l.length,
+                             percentile(l, 50), percentile(l, 90), percentile(l, 99), percentile(l, 99.9),
+                             l.length > 0? l[l.length-1] / 1000.0 : 0, r.cpu() * 100);
+    }
+
+    protected static double percentile(long[] sorted, double p) {
+        if(sorted.length == 0)
+            return 0;
+        int index=(int)Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1000.0;
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        List<String> patterns=List.of("constant", "bursty", "sparse"), strategies=Arrays.asList(DEFAULT_STRATEGIES);
+        int rate=10_000, burst_size=32;
+        long duration=5000;
+        String dir="/tmp/shm", out=null;
+
+        for(int i=0; i < args.length; i++) {
+            if("-pattern".equals(args[i])) {
+                patterns=Util.parseCommaDelimitedStrings(args[++i]);
+                continue;
+            }
+            if("-idle".equals(args[i])) {
+                strategies=Arrays.asList(args[++i].split(";"));
+                continue;
+            }
+            if("-rate".equals(args[i])) {
+                rate=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if("-burst_size".equals(args[i])) {
+                burst_size=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if("-duration".equals(args[i])) {
+                duration=Long.parseLong(args[++i]);
+                continue;
+            }
+            if("-dir".equals(args[i])) {
+                dir=args[++i];
+                continue;
+            }
+            if("-out".equals(args[i])) {
+                out=args[++i];
+                continue;
+            }
+            System.out.println("IdleStrategyPerf [-pattern constant,bursty,sparse] [-idle <strategy;strategy;...>] " +
+                                 "[-rate <msgs/sec>]\n                 [-burst_size <msgs>] [-duration <ms per run>] " +
+                                 "[-dir <dir>] [-out <CSV file>]");
+            return;
+        }
+        new File(dir).mkdirs();
+        try(PrintWriter csv=out != null? new PrintWriter(new FileWriter(out)) : null) {
+            System.out.println(HEADER);
+            if(csv != null)
+                csv.println(HEADER);
+            for(String pattern: patterns) {
+                for(String strategy: strategies) {
+                    Result r=run(pattern, strategy, TimeUnit.MILLISECONDS.toNanos(duration), rate, burst_size, dir);
+                    String line=toCsv(pattern, strategy, r);
+                    System.out.println(line);
+                    if(csv != null) {
+                        csv.println(line);
+                        csv.flush();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.jgroups.tests.perf;
 
 import org.jgroups.shm.ManyToOneBoundedChannel;
 import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.shm.SharedMemoryBundler;
 import org.jgroups.util.DefaultThreadFactory;
 import org.jgroups.util.ThreadFactory;
 import org.jgroups.util.Util;
@@ -18,16 +19,19 @@ import java.util.function.Consumer;
  */
 public class ManyToOnePerf implements Consumer<ByteBuffer> {
     protected SharedMemoryBuffer buf;
+    protected SharedMemoryBundler bundler; // null unless bundling is enabled (senders only)
     protected final LongAdder    msgs_received=new LongAdder();
     protected final LongAdder    bytes_received=new LongAdder();
     protected byte[]             receive_buffer;
     protected static final long  STATS_INTERVAL=6_000; // interval (ms) at which we print stats
 
     protected void start(int msg_size, int num_threads, boolean sender, String shared_file,
-                         int queue_size, boolean use_vthreads) throws IOException {
+                         int queue_size, boolean use_vthreads, int bundle_size, long bundle_time) throws IOException {
         ThreadFactory tf=new DefaultThreadFactory("runner", true, true)
           .useVThreads(use_vthreads);
         buf=new SharedMemoryBuffer(shared_file, queue_size+ ManyToOneBoundedChannel.TRAILER_LENGTH, !sender, tf);
+        if(sender && bundle_size > 0)
+            bundler=new SharedMemoryBundler(bundle_size, bundle_time * 1000, tf).start();
         if(sender)
             startSenders(msg_size, num_threads, use_vthreads);
         else {
@@ -100,7 +104,9 @@ public class ManyToOnePerf implements Consumer<ByteBuffer> {
         @Override public void run() {
             byte[] buffer=new byte[size];
             for(;;) {
-                if(buf.write(buffer, 0, buffer.length))
+                boolean rc=bundler != null? bundler.send(buf, buffer, 0, buffer.length)
+                  : buf.write(buffer, 0, buffer.length);
+                if(rc)
                     sent.increment();
             }
         }
@@ -109,6 +115,8 @@ public class ManyToOnePerf implements Consumer<ByteBuffer> {
 
     public static void main(String[] args) throws IOException {
         int msg_size=1000, num_threads=100, queue_size=2 << 22;
+        int bundle_size=0;
+        long bundle_time=50; // us
         boolean sender=false, use_vthreads=true;
         String shared_file="/tmp/shm/perftest";
 
@@ -137,8 +145,17 @@ public class ManyToOnePerf implements Consumer<ByteBuffer> {
                 use_vthreads=Boolean.parseBoolean(args[++i]);
                 continue;
             }
+            if("-bundle_size".equals(args[i])) {
+                bundle_size=Integer.parseInt(args[++i]);
+                continue;
+            }
+            if("-bundle_time".equals(args[i])) {
+                bundle_time=Long.parseLong(args[++i]);
+                continue;
+            }
             System.out.println("ManyToOnePerf [-msg_size <bytes>] [-num_threads <threads>] " +
-                                 "[-sender true|false] [-file <shared file>] [-queue_size <bytes>] [-use_vthreads true|false]");
+                                 "[-sender true|false] [-file <shared file>] [-queue_size <bytes>] [-use_vthreads true|false]\n" +
+                                 "             [-bundle_size <bytes> (0 disables bundling)] [-bundle_time <us>]");
             return;
         }
 
@@ -149,7 +166,7 @@ public class ManyToOnePerf implements Consumer<ByteBuffer> {
         }
 
         final ManyToOnePerf test=new ManyToOnePerf();
-        test.start(msg_size, num_threads, sender, shared_file, queue_size, use_vthreads);
+        test.start(msg_size, num_threads, sender, shared_file, queue_size, use_vthreads, bundle_size, bundle_time);
     }
 
 
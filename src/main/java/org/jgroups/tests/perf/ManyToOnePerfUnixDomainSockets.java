@@ -10,6 +10,8 @@ import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
@@ -18,33 +20,33 @@ import java.util.concurrent.atomic.LongAdder;
 /**
  * Tests performance of UNIX domain sockets. Start one receiver with sender=false (this one needs
  * to be started first), and all others with sender=true. The receiver prints stats every N seconds.
+ * With -tcp true, a TCP connection over the loopback interface is used instead, for comparison.
  * @author Bela Ban (belaban@gmail.com)
  */
 public class ManyToOnePerfUnixDomainSockets {
     protected SocketAddress      address;
+    protected boolean            tcp;
     protected final LongAdder    msgs_received=new LongAdder();
     protected final LongAdder    bytes_received=new LongAdder();
     protected static final long  STATS_INTERVAL=10_000; // interval (ms) at which we print stats
 
-    protected void start(int msg_size, int num_threads, boolean sender, String shared_file) throws Exception {
-
-        // To use Unix Domain Sockets, uncomment below
-
-        address=new InetSocketAddress(InetAddress.getLoopbackAddress(), 7800); //UnixDomainSocketAddress.of(shared_file);
+    protected void start(int msg_size, int num_threads, boolean sender, String shared_file, boolean tcp) throws Exception {
+        this.tcp=tcp;
+        address=tcp? new InetSocketAddress(InetAddress.getLoopbackAddress(), 7800) : UnixDomainSocketAddress.of(shared_file);
         if(sender)
             startSenders(msg_size, num_threads);
         else {
             File tmp=new File(shared_file);
+            if(!tcp)
+                tmp.delete(); // left over by a previous run
             tmp.deleteOnExit();
             startReceiver(msg_size);
         }
     }
 
     public void startReceiver(int msg_size) throws Exception {
-
-        // To use Unix Doamin Sockets, uncomment below
-
-        try(var srv_ch=ServerSocketChannel.open(); /*ServerSocketChannel.open(UNIX);*/ var runner=createRunner()) {
+        try(var srv_ch=tcp? ServerSocketChannel.open() : ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            var runner=createRunner()) {
             srv_ch.bind(address);
             runner.start();
             for(;;) {
@@ -166,7 +168,7 @@ public class ManyToOnePerfUnixDomainSockets {
 
     public static void main(String[] args) throws Exception {
         int msg_size=1000, num_threads=100, queue_size=2 << 22;
-        boolean sender=false;
+        boolean sender=false, tcp=false;
         String shared_file="/tmp/shm/perftest";
 
         for(int i=0; i < args.length; i++) {
@@ -182,6 +184,10 @@ public class ManyToOnePerfUnixDomainSockets {
                 sender=Boolean.parseBoolean(args[++i]);
                 continue;
             }
+            if("-tcp".equals(args[i])) {
+                tcp=Boolean.parseBoolean(args[++i]);
+                continue;
+            }
             if("-file".equals(args[i])) {
                 shared_file=args[++i];
                 continue;
@@ -191,7 +197,7 @@ public class ManyToOnePerfUnixDomainSockets {
                 continue;
             }
             System.out.println("ManyToOnePerf [-msg_size <bytes>] [-num_threads <threads>] " +
-                                 "[-sender true|false] [-file <shared file>] [-queue_size <bytes>]");
+                                 "[-sender true|false] [-file <socket file>] [-queue_size <bytes>] [-tcp true|false]");
             return;
         }
 
@@ -202,7 +208,7 @@ public class ManyToOnePerfUnixDomainSockets {
         }
 
         final ManyToOnePerfUnixDomainSockets test=new ManyToOnePerfUnixDomainSockets();
-        test.start(msg_size, num_threads, sender, shared_file);
+        test.start(msg_size, num_threads, sender, shared_file, tcp);
     }
 
 
@@ -0,0 +1,193 @@
+package org.jgroups.tests.perf;
+
+import org.jgroups.shm.IdleStrategy;
+import org.jgroups.shm.ManyToOneBoundedChannel;
+import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the round-trip latency between separate processes exchanging messages via {@link SharedMemoryBuffer}s,
+ * which includes the cross-process cache coherence traffic and the wake-up latency of the idle strategies.
+ * <p>
+ * The launcher (started without -role) runs the pinger and starts N-1 ponger JVMs for every combination of idle
+ * strategy and message size. Pings are sent to all pongers at a fixed rate; the latency of a reply is measured from
+ * the time the ping was <em>supposed</em> to be sent, so that a stalled sender or receiver doesn't hide the latency
+ * of the pings which should have been sent meanwhile (coordinated omission).
+ * <p>
+ * Message layout: [seq (long) | intended send time (long) | padding]. seq -1 terminates a ponger, seq -2 is sent by
+ * a ponger when it is ready.
+ */
+public class PingPongPerf {
+    protected static final int    HEADER=Long.BYTES * 2;
+    protected static final long   STOP=-1, READY=-2;
+    protected static final double[] PERCENTILES={50, 90, 99, 99.9, 99.99};
+
+
+    /** Runs the pinger: sends count pings (after warmup pings) to all pongers at the given rate */
+    protected static long[] ping(String dir, int pongers, int size, int rate, int warmup, int count, int queue_size,
+                                 String idle, List<Process> children) throws Exception {
+        long[] latencies=new long[count * pongers];
+        int[] num_latencies={0};
+        CountDownLatch ready=new CountDownLatch(pongers), done=new CountDownLatch(1);
+        long total_replies=(long)(warmup + count) * pongers;
+        long[] replies={0};
+        SharedMemoryBuffer in=new SharedMemoryBuffer(file(dir, "ping"), queue_size + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                     true, null).deleteFileOnExit(true);
+        in.idleStrategy(IdleStrategy.of(idle, IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
+                                        IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS,
+                                        IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS << 6, 50_000));
+        in.setConsumer(bb -> { // called by a single thread
+            long now=System.nanoTime(), seq=bb.getLong(bb.position()), intended=bb.getLong(bb.position() + Long.BYTES);
+            if(seq == READY) {
+                ready.countDown();
+                return;
+            }
+            if(seq >= warmup)
+                latencies[num_latencies[0]++]=now - intended;
+            if(++replies[0] == total_replies)
+                done.countDown();
+        });
+        for(int i=0; i < pongers; i++)
+            children.add(launchPonger(dir, i, size, queue_size, idle));
+        if(!ready.await(30, TimeUnit.SECONDS))
+            throw new IllegalStateException("pongers did not start within 30s");
+
+        SharedMemoryBuffer[] out=new SharedMemoryBuffer[pongers];
+        for(int i=0; i < pongers; i++)
+            out[i]=new SharedMemoryBuffer(file(dir, "pong-" + i), queue_size + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                          false, null);
+        ByteBuffer msg=ByteBuffer.allocate(Math.max(size, HEADER));
+        byte[] buf=msg.array();
+        long interval=TimeUnit.SECONDS.toNanos(1) / rate, start=System.nanoTime();
+        for(long seq=0; seq < warmup + count; seq++) {
+            long intended=start + seq * interval;
+            while(System.nanoTime() < intended) // a late ping is sent right away, but still measured from intended
+                Thread.onSpinWait();
+            msg.putLong(0, seq).putLong(Long.BYTES, intended);
+            for(SharedMemoryBuffer o: out)
+                while(!o.write(buf, 0, buf.length))
+                    Thread.onSpinWait();
+        }
+        boolean completed=done.await(30, TimeUnit.SECONDS);
+        msg.putLong(0, STOP);
+        for(SharedMemoryBuffer o: out)
+            o.write(buf, 0, buf.length);
+        in.close();
+        if(!completed)
+            throw new IllegalStateException(String.format("received only %,d of %,d replies", replies[0], total_replies));
+        return Arrays.copyOf(latencies, num_latencies[0]);
+    }
+
+    /** Runs a ponger: echoes all pings back to the pinger */
+    protected static void pong(String dir, int id, int size, int queue_size, String idle) throws Exception {
+        SharedMemoryBuffer out=new SharedMemoryBuffer(file(dir, "ping"), queue_size + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                      false, null);
+        SharedMemoryBuffer in=new SharedMemoryBuffer(file(dir, "pong-" + id), queue_size + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                     true, null).deleteFileOnExit(true);
+        in.idleStrategy(IdleStrategy.of(idle, IdleStrategy.DEFAULT_MAX_SPINS, IdleStrategy.DEFAULT_MAX_YIELDS,
+                                        IdleStrategy.DEFAULT_MIN_PARK_PERIOD_NS,
+                                        IdleStrategy.DEFAULT_MAX_PARK_PERIOD_NS << 6, 50_000));
+        byte[] buf=new byte[Math.max(size, HEADER)];
+        CountDownLatch stopped=new CountDownLatch(1);
+        in.setConsumer(bb -> {
+            if(bb.getLong(bb.position()) == STOP) {
+                stopped.countDown();
+                return;
+            }
+            int len=bb.remaining();
+            bb.get(buf, 0, len);
+            while(!out.write(buf, 0, len))
+                Thread.onSpinWait();
+        });
+        ByteBuffer.wrap(buf).putLong(0, READY);
+        out.write(buf, 0, buf.length);
+        stopped.await();
+        in.close();
+    }
+
+    protected static Process launchPonger(String dir, int id, int size, int queue_size, String idle) throws IOException {
+        String java=String.format("%s%sbin%sjava", System.getProperty("java.home"), File.separator, File.separator);
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), PingPongPerf.class.getName(),
+                                  "-role", "pong", "-id", String.valueOf(id), "-dir", dir, "-size", String.valueOf(size),
+                                  "-queue_size", String.valueOf(queue_size), "-idle", idle)
+          .inheritIO().start();
+    }
+
+    protected static String file(String dir, String name) {
+        return new File(dir, name).getPath();
+    }
+
+    protected static void print(String idle, int size, long[] latencies) {
+        Arrays.sort(latencies);
+        StringBuilder sb=new StringBuilder(String.format("%-12s %8d", idle, size));
+        for(double p: PERCENTILES) {
+            int index=(int)Math.min(latencies.length - 1, Math.ceil(p / 100.0 * latencies.length) - 1);
+            sb.append(String.format(" %10.2f", latencies[Math.max(0, index)] / 1000.0));
+        }
+        sb.append(String.format(" %10.2f", latencies[latencies.length - 1] / 1000.0));
+        System.out.println(sb);
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        String role="launcher", dir="/tmp/shm/pingpong", idle="backoff,adaptive,busy_spin", sizes="64,1024,16384";
+        int id=0, jvms=2, rate=10_000, warmup=20_000, count=100_000, queue_size=1 << 20;
+
+        for(int i=0; i < args.length; i++) {
+            switch(args[i]) {
+                case "-role":       role=args[++i]; continue;
+                case "-id":         id=Integer.parseInt(args[++i]); continue;
+                case "-dir":        dir=args[++i]; continue;
+                case "-idle":       idle=args[++i]; continue;
+                case "-size":       sizes=args[++i]; continue;
+                case "-jvms":       jvms=Integer.parseInt(args[++i]); continue;
+                case "-rate":       rate=Integer.parseInt(args[++i]); continue;
+                case "-warmup":     warmup=Integer.parseInt(args[++i]); continue;
+                case "-count":      count=Integer.parseInt(args[++i]); continue;
+                case "-queue_size": queue_size=Util.getNextHigherPowerOfTwo(Integer.parseInt(args[++i])); continue;
+            }
+            System.out.println("PingPongPerf [-idle <strategy,...>] [-size <bytes,...>] [-jvms <number of JVMs, >= 2>]\n" +
+                                 "             [-rate <pings/sec>] [-warmup <pings>] [-count <pings>] [-dir <dir>] " +
+                                 "[-queue_size <bytes>]");
+            return;
+        }
+        new File(dir).mkdirs();
+        if(role.equals("pong")) {
+            pong(dir, id, Integer.parseInt(sizes), queue_size, idle);
+            return;
+        }
+        if(jvms < 2)
+            throw new IllegalArgumentException("jvms must be >= 2: " + jvms);
+
+        System.out.printf("round-trip latency (us) of %,d pings at %,d pings/sec to %d pongers%n", count, rate, jvms - 1);
+        System.out.printf("%-12s %8s %10s %10s %10s %10s %10s %10s%n", "idle", "size", "p50", "p90", "p99", "p99.9",
+                          "p99.99", "max");
+        for(String s: Util.parseCommaDelimitedStrings(idle)) {
+            for(String sz: Util.parseCommaDelimitedStrings(sizes)) {
+                int size=Integer.parseInt(sz);
+                List<Process> children=new ArrayList<>();
+                try {
+                    long[] latencies=ping(dir, jvms - 1, size, rate, warmup, count, queue_size, s, children);
+                    print(s, size, latencies);
+                }
+                finally {
+                    for(Process p: children) {
+                        if(!p.waitFor(5, TimeUnit.SECONDS))
+                            p.destroyForcibly();
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                }
+            }
+        }
+    }
+}
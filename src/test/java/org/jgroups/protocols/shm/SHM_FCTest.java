@@ -0,0 +1,109 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.BytesMessage;
+import org.jgroups.Message;
+import org.jgroups.shm.ManyToOneBoundedChannel;
+import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.Util;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Bela Ban
+ * @since x.y
+ */
+@Test(singleThreaded = true)
+public class SHM_FCTest {
+   private static final int CAPACITY = 1 << 12;
+   private static final long MAX_BLOCK_TIME = 500;
+   private final List<Message> sent = new CopyOnWriteArrayList<>();
+   private File[] files;
+   private SharedMemoryBuffer[] consumers, producers;
+   private SHM_FC fc;
+
+   @BeforeMethod
+   public void start() throws Exception {
+      files = new File[2];
+      consumers = new SharedMemoryBuffer[2];
+      producers = new SharedMemoryBuffer[2];
+      for (int i = 0; i < files.length; i++) {
+         files[i] = File.createTempFile("shm-fc-", ".queue");
+         final int length = CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH;
+         consumers[i] = new SharedMemoryBuffer(files[i].getPath(), length, true, null);
+         producers[i] = new SharedMemoryBuffer(files[i].getPath(), 0, false, null).localPath(false);
+      }
+      sent.clear();
+      fc = new SHM_FC();
+      fc.max_block_time = MAX_BLOCK_TIME;
+      fc.queues = new SharedMemoryQueues() {
+         @Override
+         public SharedMemoryBuffer queue(Address dest) {
+            return producers[0];
+         }
+
+         @Override
+         public SharedMemoryBuffer[] queues() {
+            return producers;
+         }
+      };
+      fc.setDownProtocol(new Protocol() {
+         @Override
+         public Object down(Message msg) {
+            sent.add(msg);
+            return null;
+         }
+      });
+      fc.init();
+   }
+
+   @AfterMethod
+   public void stop() {
+      Util.close(producers);
+      Util.close(consumers);
+      for (File f : files) {
+         f.delete();
+      }
+   }
+
+   /** A multicast to several full queues blocks for max_block_time in total, not max_block_time per queue */
+   public void testMulticastToFullQueues() throws IOException {
+      for (SharedMemoryBuffer q : producers) {
+         fill(q);
+      }
+      final long start = System.nanoTime();
+      fc.down(new BytesMessage(null, new byte[100]));
+      final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertEquals(sent.size(), 1, "the message is sent after max_block_time");
+      Assert.assertTrue(time >= MAX_BLOCK_TIME && time < 2 * MAX_BLOCK_TIME, "blocked for " + time + " ms");
+      Assert.assertEquals(fc.getNumberOfBlockings(), 1);
+      Assert.assertEquals(fc.getNumberOfTimeouts(), 1);
+   }
+
+   /** A multicast blocked by a full queue is sent as soon as the queue has been drained */
+   public void testMulticastToOneFullQueue() throws IOException {
+      fill(producers[1]);
+      final long start = System.nanoTime();
+      consumers[1].setConsumer(bb -> {});
+      fc.down(new BytesMessage(null, new byte[100]));
+      final long time = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      Assert.assertEquals(sent.size(), 1);
+      Assert.assertTrue(time < MAX_BLOCK_TIME, "blocked for " + time + " ms");
+      Assert.assertEquals(fc.getNumberOfTimeouts(), 0, "the consumer should have drained the queue");
+   }
+
+   private static void fill(SharedMemoryBuffer q) {
+      final byte[] buf = new byte[100];
+      while (q.write(buf, 0, buf.length)) {
+      }
+   }
+}
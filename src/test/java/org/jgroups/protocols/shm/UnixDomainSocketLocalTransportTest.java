@@ -0,0 +1,160 @@
+package org.jgroups.protocols.shm;
+
+import org.jgroups.Address;
+import org.jgroups.PhysicalAddress;
+import org.jgroups.View;
+import org.jgroups.protocols.TP;
+import org.jgroups.util.AsciiString;
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * @author Bela Ban
+ * @since x.y
+ */
+@Test(singleThreaded = true)
+public class UnixDomainSocketLocalTransportTest {
+   private static final int RECV_BUFFER_SIZE = 1024;
+   private static final int MAX_BATCH_SIZE = 2048;
+   private Path location;
+   private Member a, b;
+
+   @BeforeMethod
+   public void start() throws Exception {
+      location = Files.createTempDirectory("uds");
+      a = new Member("A");
+      b = new Member("B");
+      final View view = View.create(a.tp.getAddress(), 1, a.tp.getAddress(), b.tp.getAddress());
+      a.transport.viewChange(view);
+      b.transport.viewChange(view);
+      Assert.assertTrue(a.transport.isLocalMember(b.tp.getAddress()));
+      Assert.assertTrue(b.transport.isLocalMember(a.tp.getAddress()));
+   }
+
+   @AfterMethod
+   public void stop() throws IOException {
+      a.transport.stop();
+      b.transport.stop();
+      try (Stream<Path> files = Files.walk(location)) {
+         files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+      }
+   }
+
+   /**
+    * Small messages are written in batches, medium ones span batches and the receiver's buffer (compacted), and large
+    * ones exceed the receiver's buffer (grown) and the batch size (written directly)
+    */
+   public void testMessageSizes() throws Exception {
+      final List<byte[]> sent = new ArrayList<>();
+      int seqno = 0;
+      for (int i = 0; i < 50; i++) {
+         for (int j = 0; j < 20; j++) {
+            sent.add(message(++seqno, 10 + j * 5));
+         }
+         sent.add(message(++seqno, 700));
+         sent.add(message(++seqno, 700));
+         if (i % 5 == 0) {
+            sent.add(message(++seqno, RECV_BUFFER_SIZE * (2 + i / 5)));
+         }
+      }
+      for (byte[] msg : sent) {
+         a.transport.sendTo(b.tp.getAddress(), msg, 0, msg.length);
+         b.transport.sendTo(a.tp.getAddress(), msg, 0, msg.length);
+      }
+      assertReceived(b, sent);
+      assertReceived(a, sent);
+      Assert.assertEquals(a.transport.localUnicasts(), sent.size());
+      Assert.assertTrue(a.transport.avgBatchSize() > 1, "small messages should be batched");
+   }
+
+   public void testSendToAll() throws Exception {
+      final List<byte[]> sent = new ArrayList<>();
+      for (int i = 1; i <= 100; i++) {
+         final byte[] msg = message(i, i % 10 == 0 ? MAX_BATCH_SIZE * 2 : 100);
+         sent.add(msg);
+         a.transport.sendToAll(msg, 0, msg.length);
+      }
+      assertReceived(b, sent);
+      Assert.assertTrue(a.received.isEmpty());
+      Assert.assertEquals(a.transport.localMulticasts(), 100);
+   }
+
+   /** A message of the given length, starting with seqno and followed by bytes derived from it */
+   private static byte[] message(int seqno, int length) {
+      final byte[] msg = new byte[length];
+      ByteBuffer.wrap(msg).putInt(seqno);
+      for (int i = Integer.BYTES; i < length; i++) {
+         msg[i] = (byte) (seqno + i);
+      }
+      return msg;
+   }
+
+   private static void assertReceived(Member m, List<byte[]> expected) {
+      Util.waitUntilTrue(10_000, 10, () -> m.received.size() >= expected.size());
+      Assert.assertEquals(m.received.size(), expected.size());
+      for (int i = 0; i < expected.size(); i++) {
+         Assert.assertTrue(Arrays.equals(m.received.get(i), expected.get(i)), "message #" + (i + 1) + " differs");
+      }
+   }
+
+   private class Member {
+      private final StubTransport tp;
+      private final UnixDomainSocketLocalTransport transport = new UnixDomainSocketLocalTransport();
+      private final List<byte[]> received = new CopyOnWriteArrayList<>();
+
+      private Member(String name) throws Exception {
+         tp = new StubTransport(received);
+         tp.setAddress(UUID.randomUUID());
+         tp.setThreadFactory(new DefaultThreadFactory("uds-" + name, true, true));
+         transport.location = location.toString();
+         transport.recv_buffer_size = RECV_BUFFER_SIZE;
+         transport.max_batch_size = MAX_BATCH_SIZE;
+         transport.init(tp).start();
+      }
+   }
+
+   /** Collects the messages passed up by the local transport */
+   private static class StubTransport extends TP {
+      private final List<byte[]> received;
+
+      private StubTransport(List<byte[]> received) {
+         this.received = received;
+         cluster_name = new AsciiString("uds-test");
+      }
+
+      @Override
+      public boolean supportsMulticasting() {
+         return false;
+      }
+
+      @Override
+      protected PhysicalAddress getPhysicalAddress() {
+         return null;
+      }
+
+      @Override
+      public void sendUnicast(PhysicalAddress dest, byte[] data, int offset, int length) {
+      }
+
+      @Override
+      public void receive(Address sender, byte[] data, int offset, int length) {
+         received.add(Arrays.copyOfRange(data, offset, offset + length));
+      }
+   }
+}
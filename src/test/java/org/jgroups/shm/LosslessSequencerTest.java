@@ -0,0 +1,89 @@
+package org.jgroups.shm;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.jgroups.shm.ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY;
+
+/**
+ * @author Bela Ban
+ * @since x.y
+ */
+@Test(singleThreaded = true)
+public class LosslessSequencerTest {
+   private static final int CAPACITY = 1 << 10;
+   private static final int PRODUCER_ID = 3;
+   private static final long MAX_BLOCK_TIME = TimeUnit.MILLISECONDS.toNanos(100);
+   private ManyToOneBoundedChannel rb;
+   private LosslessSequencer sequencer;
+
+   @BeforeMethod
+   public void create() {
+      rb = new ManyToOneBoundedChannel(ByteBuffer.allocateDirect(CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH));
+      sequencer = new LosslessSequencer(PRODUCER_ID, MAX_BLOCK_TIME, new AtomicReference<>());
+   }
+
+   /**
+    * A claim on a full queue blocks for max_block_time and drops the message; the following ones are dropped without
+    * blocking until the queue has room again. Dropped messages consume a seqno, so the next record shows the gap
+    */
+   public void testStallAndGap() {
+      int written = 0;
+      while (claim()) {
+         written++;
+      }
+      Assert.assertEquals(sequencer.blockedWrites(), 1);
+      Assert.assertTrue(sequencer.stalled());
+
+      final long start = System.nanoTime();
+      Assert.assertFalse(claim());
+      Assert.assertTrue(System.nanoTime() - start < MAX_BLOCK_TIME, "a stalled sequencer must not block");
+      Assert.assertEquals(sequencer.blockedWrites(), 1);
+      Assert.assertEquals(sequencer.seqno(), written + 2);
+
+      Assert.assertEquals(read().size(), written);
+      Assert.assertTrue(claim());
+      Assert.assertFalse(sequencer.stalled());
+      Assert.assertEquals(read(), List.of((long) written + 3));
+   }
+
+   /** A claim on a sealed queue fails right away, and doesn't consume a seqno: it is used for the successor */
+   public void testSealed() {
+      Assert.assertTrue(claim());
+      rb.seal();
+      Assert.assertFalse(claim());
+      Assert.assertEquals(sequencer.seqno(), 1);
+      Assert.assertFalse(sequencer.stalled());
+      Assert.assertEquals(sequencer.blockedWrites(), 0);
+      Assert.assertEquals(rb.getMetadata(SharedMemoryBuffer.META_FULL_WRITES), 0);
+   }
+
+   private boolean claim() {
+      final long claim = sequencer.claim(rb, SharedMemoryBuffer.MSG_TYPE_SINGLE, 100);
+      if (claim == INSUFFICIENT_CAPACITY) {
+         return false;
+      }
+      rb.commit(claim);
+      return true;
+   }
+
+   /** Reads all records, checking their sequence header. Returns their seqnos */
+   private List<Long> read() {
+      final List<Long> seqnos = new ArrayList<>();
+      while (rb.size() > 0) { // a read stops at the end of the ring
+         rb.read((type, buf, offset, length) -> {
+            Assert.assertEquals(type, SharedMemoryBuffer.MSG_TYPE_SINGLE | SharedMemoryBuffer.MSG_FLAG_SEQUENCED);
+            Assert.assertEquals(buf.getInt(offset + Long.BYTES), PRODUCER_ID);
+            seqnos.add(buf.getLong(offset));
+         });
+      }
+      return seqnos;
+   }
+}
@@ -0,0 +1,511 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.Util;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * @author Bela Ban
+ * @since x.y
+ */
+@Test(singleThreaded = true)
+public class SharedMemoryBufferTest {
+   private static final int CAPACITY = 1 << 16;
+   private static final long MAX_BLOCK_TIME = 500;
+   private File file;
+
+   @DataProvider(name = "localPath")
+   public static Object[][] localPath() {
+      return new Object[][]{{false}, {true}};
+   }
+
+   @BeforeMethod
+   public void createFile() throws IOException {
+      file = File.createTempFile("shm-", ".queue");
+   }
+
+   @AfterMethod
+   public void deleteFile() {
+      file.delete();
+   }
+
+   /**
+    * A producer in the same JVM which maps the queue before the consumer is set must use the on-heap path from the
+    * first message, otherwise the consumer reads the messages written to the mapped queue after the later ones
+    */
+   public void testLocalPathBeforeConsumer() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).lossless(1000);
+      try {
+         for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         consumer.setConsumer(bb -> received.add(bb.getInt()));
+         for (int i = 101; i <= 200; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         Util.waitUntilTrue(5000, 10, () -> received.size() == 200);
+         Assert.assertEquals(producer.localWrites(), 200);
+         assertInOrder(received, 200);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /**
+    * In lossless mode, a write to a full queue blocks for max_block_time, and then drops the message; further writes
+    * are dropped without blocking (stalled), until the consumer has made room. The consumer sees the dropped messages
+    * as a gap in the seqnos
+    */
+   @Test(dataProvider = "localPath")
+   public void testStalledWritesAndSeqnoGap(boolean localPath) throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null)
+         .localPath(localPath).lossless(MAX_BLOCK_TIME);
+      try {
+         // no consumer yet: fill the queue, until a write times out
+         int last = 0;
+         long start = System.nanoTime();
+         while (write(producer, last + 1)) {
+            last++;
+         }
+         Assert.assertTrue(System.nanoTime() - start >= MAX_BLOCK_TIME * 1_000_000);
+         Assert.assertEquals(producer.blockedWrites(), 1);
+
+         start = System.nanoTime();
+         Assert.assertFalse(write(producer, last + 2));
+         Assert.assertTrue(System.nanoTime() - start < MAX_BLOCK_TIME * 1_000_000, "a stalled write must not block");
+         Assert.assertEquals(producer.blockedWrites(), 1);
+         Assert.assertEquals(producer.localWrites(), localPath ? last : 0);
+
+         consumer.setConsumer(bb -> received.add(bb.getInt()));
+         final int written = last;
+         Util.waitUntilTrue(5000, 10, () -> received.size() == written);
+         assertInOrder(received, written);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+
+         // the consumer has made room: the next write succeeds, and the consumer detects the 2 dropped messages
+         Assert.assertTrue(write(producer, last + 3));
+         Util.waitUntilTrue(5000, 10, () -> received.size() == written + 1);
+         Assert.assertEquals((int) received.get(written), last + 3);
+         Assert.assertEquals(consumer.seqnoGaps(), 1);
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /** Seqnos are checked per producer: interleaved writes of several producers are not gaps, dropped ones are */
+   public void testSeqnoGapPerProducer() throws IOException {
+      final SharedMemoryBuffer consumer = createQueue();
+      try {
+         consumer.checkSeqno(1, 1);
+         consumer.checkSeqno(2, 1);
+         consumer.checkSeqno(1, 2);
+         consumer.checkSeqno(2, 2);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+         consumer.checkSeqno(1, 4);
+         Assert.assertEquals(consumer.seqnoGaps(), 1);
+         consumer.checkSeqno(2, 3);
+         consumer.checkSeqno(1, 5);
+         Assert.assertEquals(consumer.seqnoGaps(), 1);
+         consumer.checkSeqno(100, 1); // producer ids beyond the initial table
+         consumer.checkSeqno(100, 3);
+         Assert.assertEquals(consumer.seqnoGaps(), 2);
+      } finally {
+         Util.close(consumer);
+      }
+   }
+
+   /**
+    * A producer writing across a resize: its writes to the sealed queue fail, and it switches to the successor. The
+    * consumer drains the sealed queue before switching to the successor, so the messages are received in order
+    */
+   public void testWriteAcrossSeal() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null)
+         .localPath(false).lossless(MAX_BLOCK_TIME);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt()); // read by this thread, see pollAll()
+         for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         Assert.assertTrue(consumer.resize(CAPACITY << 1));
+         Assert.assertFalse(consumer.resize(CAPACITY << 2), "the sealed queue has not been drained yet");
+         for (int i = 101; i <= 200; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         Assert.assertEquals(producer.capacity(), CAPACITY << 1);
+         Assert.assertEquals(consumer.capacity(), CAPACITY, "the consumer still reads the sealed queue");
+
+         Assert.assertEquals(consumer.poll(Integer.MAX_VALUE), 100);
+         Assert.assertEquals(consumer.resizes(), 0);
+         pollAll(consumer);
+         Assert.assertEquals(consumer.resizes(), 1);
+         Assert.assertEquals(consumer.capacity(), CAPACITY << 1);
+         assertInOrder(received, 200);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /**
+    * Two lossless producers in this JVM, one on the on-heap path and one on the mapped queue, writing across a shrink:
+    * the consumer receives the messages of each producer in order and without gaps, and the on-heap records are then
+    * bounded by the capacity of the new queue
+    */
+   public void testLocalAndMappedProducersAcrossResize() throws IOException {
+      final int offset = 1000; // added to the values of the mapped producer
+      final List<Integer> local = new CopyOnWriteArrayList<>(), mapped = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer localProducer = new SharedMemoryBuffer(file.getPath(), 0, false, null)
+         .lossless(MAX_BLOCK_TIME);
+      final SharedMemoryBuffer mappedProducer = new SharedMemoryBuffer(file.getPath(), 0, false, null)
+         .localPath(false).lossless(MAX_BLOCK_TIME);
+      try {
+         consumer.consumer = bb -> {
+            final int value = bb.getInt();
+            if (value > offset) {
+               mapped.add(value - offset);
+            } else {
+               local.add(value);
+            }
+         };
+         Assert.assertNotEquals(localProducer.sequencer().producerId(), mappedProducer.sequencer().producerId());
+         for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(write(localProducer, i));
+            Assert.assertTrue(write(mappedProducer, offset + i));
+         }
+         Assert.assertTrue(consumer.resize(CAPACITY >> 2));
+         for (int i = 101; i <= 200; i++) {
+            Assert.assertTrue(write(localProducer, i));
+            Assert.assertTrue(write(mappedProducer, offset + i));
+         }
+         pollAll(consumer);
+         assertInOrder(local, 200);
+         assertInOrder(mapped, 200);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+         Assert.assertEquals(consumer.resizes(), 1);
+         Assert.assertEquals(localProducer.localWrites(), 200);
+         Assert.assertEquals(mappedProducer.localWrites(), 0);
+         Assert.assertEquals(mappedProducer.capacity(), CAPACITY >> 2);
+         Assert.assertEquals(localProducer.freeCapacity(), CAPACITY >> 2);
+      } finally {
+         Util.close(localProducer, mappedProducer, consumer);
+      }
+   }
+
+   /**
+    * A view (see {@link SharedMemoryHub}) writing across a resize follows the successor through its parent. The
+    * mapping of the old queue is shared with the view, so the parent leaves it to the GC instead of unmapping it
+    */
+   public void testViewAcrossResize() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      final SharedMemoryBuffer view = new SharedMemoryBuffer(producer, 1).localPath(false).lossless(MAX_BLOCK_TIME);
+      try {
+         consumer.consumer = bb -> Assert.fail("channel 0 must not receive the messages of channel 1");
+         consumer.setConsumer(1, bb -> received.add(bb.getInt()));
+         for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(write(view, i));
+         }
+         Assert.assertTrue(consumer.resize(CAPACITY << 1));
+         for (int i = 101; i <= 200; i++) {
+            Assert.assertTrue(write(view, i));
+         }
+         pollAll(consumer);
+         assertInOrder(received, 200);
+         Assert.assertEquals(consumer.seqnoGaps(), 0);
+         Assert.assertEquals(view.capacity(), CAPACITY << 1);
+         Assert.assertEquals(producer.capacity(), CAPACITY << 1);
+         Assert.assertTrue(producer.resizer.retired.isEmpty(), "a mapping shared with views must be left to the GC");
+      } finally {
+         Util.close(view, producer, consumer);
+      }
+   }
+
+   /**
+    * The consumer announces the successor (META_RESIZED) after sealing the queue: a producer finding the queue
+    * sealed waits for the announcement for up to 1s, after which the write fails. A later write maps the successor
+    */
+   public void testProducerWaitsForSuccessor() throws Exception {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         Assert.assertTrue(write(producer, 1));
+         Assert.assertTrue(consumer.resize(CAPACITY >> 1));
+         final ManyToOneBoundedChannel sealed = consumer.rb;
+         sealed.putMetadata(SharedMemoryBuffer.META_RESIZED, 0); // not announced yet
+
+         long start = System.nanoTime();
+         Assert.assertFalse(write(producer, 2));
+         Assert.assertTrue(System.nanoTime() - start >= SharedMemoryBuffer.SUCCESSOR_TIMEOUT_NS);
+         Assert.assertEquals(producer.capacity(), CAPACITY);
+
+         final Thread announcer = new Thread(() -> {
+            Util.sleep(200);
+            sealed.putMetadata(SharedMemoryBuffer.META_RESIZED, 1);
+         });
+         announcer.start();
+         Assert.assertTrue(write(producer, 3));
+         announcer.join();
+         Assert.assertEquals(producer.capacity(), CAPACITY >> 1);
+
+         pollAll(consumer);
+         Assert.assertEquals(received, List.of(1, 3));
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /** A bundle which was filled before the destination's queue was shrunk is split into records which fit */
+   public void testBundleAfterShrink() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      final SharedMemoryBundler bundler = new SharedMemoryBundler(CAPACITY, TimeUnit.SECONDS.toNanos(10), null);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         final byte[] msg = new byte[100];
+         for (int i = 1; i <= 40; i++) {
+            ByteBuffer.wrap(msg).putInt(i);
+            Assert.assertTrue(bundler.send(producer, msg, 0, msg.length));
+         }
+         Assert.assertTrue(consumer.resize(CAPACITY >> 3));
+         Assert.assertTrue(bundler.flush());
+         Assert.assertEquals(producer.maxMessageLength(), CAPACITY >> 6);
+         Assert.assertEquals(bundler.bundles.get(producer).buf.length, CAPACITY >> 6);
+         pollAll(consumer);
+         assertInOrder(received, 40);
+      } finally {
+         Util.close(bundler, producer, consumer);
+      }
+   }
+
+   /**
+    * Messages larger than half a bundle are written directly; as the bundle is re-sized to the destination's max message
+    * length when its queue is shrunk, so is the threshold
+    */
+   public void testDirectWriteThresholdAfterShrink() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      final SharedMemoryBundler bundler = new SharedMemoryBundler(CAPACITY, TimeUnit.SECONDS.toNanos(10), null);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         final byte[] msg = new byte[600];
+         ByteBuffer.wrap(msg).putInt(1);
+         Assert.assertTrue(bundler.send(producer, msg, 0, msg.length));
+         final SharedMemoryBundler.Bundle bundle = bundler.bundles.get(producer);
+         Assert.assertEquals(bundle.buf.length, CAPACITY >> 3);
+         Assert.assertTrue(bundle.pending(), "should have been bundled");
+
+         Assert.assertTrue(consumer.resize(CAPACITY >> 3));
+         Assert.assertTrue(bundler.flush());
+         Assert.assertEquals(bundle.buf.length, CAPACITY >> 6);
+         ByteBuffer.wrap(msg).putInt(2);
+         Assert.assertTrue(bundler.send(producer, msg, 0, msg.length));
+         Assert.assertFalse(bundle.pending(), "should have been written directly");
+         pollAll(consumer);
+         assertInOrder(received, 2);
+      } finally {
+         Util.close(bundler, producer, consumer);
+      }
+   }
+
+   /** The alignment chosen by the consumer is recorded in the queue, used by its producers, and kept by a resize */
+   public void testAlignmentRoundTrip() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue(64);
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         Assert.assertEquals(consumer.rb.getMetadata(SharedMemoryBuffer.META_ALIGNMENT), 64);
+         Assert.assertEquals(consumer.alignment(), 64);
+         Assert.assertEquals(producer.alignment(), 64);
+         Assert.assertEquals(producer.recordLength(Integer.BYTES), 64);
+         for (int i = 1; i <= 100; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         Assert.assertEquals(producer.writePosition(), 100 * 64);
+
+         Assert.assertTrue(consumer.resize(CAPACITY << 1));
+         for (int i = 101; i <= 200; i++) {
+            Assert.assertTrue(write(producer, i));
+         }
+         Assert.assertEquals(producer.alignment(), 64);
+         pollAll(consumer);
+         Assert.assertEquals(consumer.alignment(), 64);
+         assertInOrder(received, 200);
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /**
+    * A producer uses the alignment of the queue, not the one it was created with; a queue which doesn't record its
+    * alignment (created by an older version) uses the default one
+    */
+   public void testAlignmentMismatch() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue(128);
+      SharedMemoryBuffer producer = null, legacy = null;
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         producer = new SharedMemoryBuffer(file.getPath(), 0, false, SharedMemoryBuffer.Prefault.NONE, 8, null)
+            .localPath(false);
+         Assert.assertEquals(producer.alignment(), 128);
+         Assert.assertTrue(write(producer, 1));
+         Assert.assertEquals(producer.writePosition(), 128);
+         pollAll(consumer);
+         Assert.assertEquals(received, List.of(1));
+
+         consumer.rb.putMetadata(SharedMemoryBuffer.META_ALIGNMENT, 0);
+         legacy = new SharedMemoryBuffer(file.getPath(), 0, false, SharedMemoryBuffer.Prefault.NONE, 64, null);
+         Assert.assertEquals(legacy.alignment(), ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT);
+
+         consumer.rb.putMetadata(SharedMemoryBuffer.META_ALIGNMENT, 24);
+         Assert.expectThrows(IllegalArgumentException.class, () -> new SharedMemoryBuffer(file.getPath(), 0, false, null));
+         Assert.assertTrue(file.exists(), "a producer failing to open the queue must not delete it");
+         Assert.assertTrue(write(producer, 2));
+      } finally {
+         Util.close(legacy, producer, consumer);
+      }
+   }
+
+   /** A failed creation removes the temporary file the queue was created under */
+   public void testFailedCreation() {
+      final File tmp = new File(file.getPath() + SharedMemoryBuffer.CREATE_SUFFIX);
+      Assert.expectThrows(IllegalStateException.class, () -> new SharedMemoryBuffer(file.getPath(), 1000, true, null));
+      Assert.assertFalse(tmp.exists());
+      Assert.expectThrows(IllegalArgumentException.class,
+                          () -> new SharedMemoryBuffer(file.getPath(), CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH,
+                                                       true, SharedMemoryBuffer.Prefault.NONE, 3, null));
+      Assert.assertFalse(tmp.exists());
+   }
+
+   /** The consumer unmaps the slab of a sender which left, without deleting it; the sender's slab is unaffected */
+   public void testCloseSlab() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      final String name = file.getPath() + SharedMemorySlab.SUFFIX;
+      final SharedMemorySlab slab = new SharedMemorySlab(name, 1 << 16, 1 << 12);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         final byte[] msg = ByteBuffer.allocate(8192).putInt(1).array();
+         final int block = slab.write(msg, 0, msg.length, 1);
+         Assert.assertTrue(producer.write(slab, block, msg.length));
+         pollAll(consumer);
+         Assert.assertEquals(received, List.of(1));
+         Assert.assertTrue(consumer.slab_reader.isMapped(name));
+         Assert.assertEquals(slab.refcount(block), 0, "the consumer must have released the block");
+
+         consumer.closeSlab(name + ".unknown");
+         Assert.assertTrue(consumer.slab_reader.evicted.isEmpty());
+         consumer.closeSlab(name);
+         consumer.poll(Integer.MAX_VALUE);
+         Assert.assertEquals(consumer.slab_reader.size(), 0);
+         Assert.assertNull(consumer.slab_reader.last_slab);
+         Assert.assertTrue(new File(name).exists());
+
+         // a later message from the slab maps it again
+         Assert.assertTrue(producer.write(slab, slab.write(msg, 0, msg.length, 1), msg.length));
+         pollAll(consumer);
+         Assert.assertEquals(received, List.of(1, 1));
+         Assert.assertTrue(consumer.slab_reader.isMapped(name));
+      } finally {
+         Util.close(producer, consumer, slab);
+      }
+   }
+
+   /**
+    * The consumer and the producers unmap the queue replaced by a reclaim (unmap_delay after switching to the new
+    * queue), rather than leaving the mappings to the GC, which may not run for a long time
+    */
+   public void testReclaimUnmapsOldQueue() throws IOException {
+      final List<Integer> received = new CopyOnWriteArrayList<>();
+      final SharedMemoryBuffer consumer = createQueue();
+      final SharedMemoryBuffer producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+      try {
+         consumer.consumer = bb -> received.add(bb.getInt());
+         consumer.resizer.unmap_delay = producer.resizer.unmap_delay = 0;
+         Assert.assertTrue(write(producer, 1));
+         pollAll(consumer);
+         Assert.assertEquals(mappings(false), 2);
+         Assert.assertEquals(mappings(true), 0);
+
+         Assert.assertTrue(consumer.reclaim());
+         Assert.assertEquals(mappings(false), 1, "the new queue is only mapped by the consumer");
+         Assert.assertEquals(mappings(true), 2);
+
+         Assert.assertTrue(write(producer, 2)); // maps the new queue
+         pollAll(consumer);
+         producer.followIfResized();
+         Assert.assertEquals(received, List.of(1, 2));
+         Assert.assertEquals(mappings(false), 2);
+         Assert.assertEquals(mappings(true), 0, "the old queue should have been unmapped");
+      } finally {
+         Util.close(producer, consumer);
+      }
+   }
+
+   /** Reads until the consumer has switched to the successor of its queue (if any), and the queue is empty */
+   private static void pollAll(SharedMemoryBuffer consumer) {
+      for (;;) {
+         final boolean switching = consumer.resizer.successor() != null;
+         if (consumer.poll(Integer.MAX_VALUE) == 0 && !switching) {
+            return;
+         }
+      }
+   }
+
+   private SharedMemoryBuffer createQueue() throws IOException {
+      return new SharedMemoryBuffer(file.getPath(), CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH, true, null);
+   }
+
+   private SharedMemoryBuffer createQueue(int alignment) throws IOException {
+      return new SharedMemoryBuffer(file.getPath(), CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH, true,
+                                    SharedMemoryBuffer.Prefault.NONE, alignment, null);
+   }
+
+   /** The number of mappings of the queue file (or of a replaced queue file if deleted) in this process */
+   private long mappings(boolean deleted) throws IOException {
+      final String path = file.getAbsolutePath() + (deleted ? " (deleted)" : "");
+      try (Stream<String> lines = Files.lines(Paths.get("/proc/self/maps"))) {
+         return lines.filter(l -> l.endsWith(" " + path)).count();
+      }
+   }
+
+   private static boolean write(SharedMemoryBuffer producer, int value) {
+      final byte[] buf = ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+      return producer.write(buf, 0, buf.length);
+   }
+
+   private static void assertInOrder(List<Integer> received, int expected) {
+      Assert.assertEquals(received.size(), expected);
+      for (int i = 0; i < expected; i++) {
+         Assert.assertEquals((int) received.get(i), i + 1);
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package org.jgroups.shm;
+
+import org.jgroups.util.DefaultThreadFactory;
+import org.jgroups.util.Util;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * @author Bela Ban
+ * @since x.y
+ */
+@Test(singleThreaded = true)
+public class SharedMemoryHubTest {
+   private static final int CAPACITY = 1 << 16;
+   private Path location;
+   private SharedMemoryHub hub;
+
+   @BeforeMethod
+   public void start() throws IOException {
+      location = Files.createTempDirectory("hub");
+      hub = SharedMemoryHub.acquire(location.toString(), CAPACITY, SharedMemoryBuffer.Prefault.NONE, null,
+                                    ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT, null, 64,
+                                    new DefaultThreadFactory("hub", true, true));
+   }
+
+   @AfterMethod
+   public void stop() throws IOException {
+      hub.release();
+      try (Stream<Path> files = Files.walk(location)) {
+         files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+      }
+   }
+
+   /**
+    * The id of an unregistered channel is not handed out to the next channel: records written with it (e.g. by a
+    * peer which hasn't read the new descriptor yet) are dropped, instead of being passed to the new channel
+    */
+   public void testUnregisterThenRegister() throws IOException {
+      final List<Integer> old_received = new CopyOnWriteArrayList<>(), received = new CopyOnWriteArrayList<>();
+      final int old_id = hub.register(bb -> old_received.add(bb.getInt()));
+      final SharedMemoryBuffer old_queue = hub.queue(hub.queue().fileName(), old_id);
+      Assert.assertTrue(write(old_queue, 1));
+      Util.waitUntilTrue(5000, 10, () -> old_received.size() == 1);
+      hub.unregister(old_id);
+
+      final int id = hub.register(bb -> received.add(bb.getInt()));
+      Assert.assertNotEquals(id, old_id);
+      final SharedMemoryBuffer queue = hub.queue(hub.queue().fileName(), id);
+      Assert.assertTrue(write(old_queue, 2)); // a stale producer
+      Assert.assertTrue(write(queue, 3));
+      Util.waitUntilTrue(5000, 10, () -> !received.isEmpty());
+      Assert.assertEquals(received, List.of(3));
+      Assert.assertEquals(old_received, List.of(1));
+   }
+
+   /** Ids are handed out round-robin: freed ids are reused after all others, ids in use are never handed out */
+   public void testChannelIdsWrapAround() {
+      final int first = hub.register(bb -> {});
+      hub.next_id = SharedMemoryBuffer.MAX_CHANNEL_ID;
+      Assert.assertEquals(hub.register(bb -> {}), SharedMemoryBuffer.MAX_CHANNEL_ID);
+      Assert.assertEquals(hub.register(bb -> {}), first + 1, "the id in use must be skipped");
+      hub.unregister(first);
+      Assert.assertEquals(hub.register(bb -> {}), first + 2);
+   }
+
+   private static boolean write(SharedMemoryBuffer producer, int value) {
+      final byte[] buf = ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+      return producer.write(buf, 0, buf.length);
+   }
+}
@@ -0,0 +1,129 @@
+package org.jgroups.protocols.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Address;
+import org.jgroups.shm.ManyToOneBoundedChannel;
+import org.jgroups.shm.SharedMemoryBuffer;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the cost of resolving the destination queue(s) of a send: the map/set/list lookups used by the transports
+ * before (a {@link ConcurrentHashMap} per unicast; iterating a {@link CopyOnWriteArraySet} and calling
+ * {@code List.contains()} on the local members per multicast) against a {@link PeerTable}.
+ * The messages are not written, so only the lookup cost is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2)
+public class PeerTableBenchmark {
+
+   @Param({"10", "100", "500"})
+   private int members;
+
+   private File dir;
+   private Address self;
+   private Address[] addresses;
+   private final List<SharedMemoryBuffer> buffers = new ArrayList<>();
+   private final Map<Address, SharedMemoryBuffer> cache = new ConcurrentHashMap<>();
+   private final Set<Address> viewMembers = new CopyOnWriteArraySet<>();
+   private final List<Address> localMembers = new ArrayList<>();
+   private PeerTable table;
+   private int next;
+
+   @Setup
+   public void setup() throws IOException {
+      dir = Files.createTempDirectory("peer-table").toFile();
+      addresses = new Address[members];
+      final Map<Address, SharedMemoryBuffer> localBuffers = new HashMap<>();
+      for (int i = 0; i < members; i++) {
+         final Address addr = UUID.randomUUID();
+         addresses[i] = addr;
+         viewMembers.add(addr);
+         if (i == 0) {
+            self = addr;
+            continue;
+         }
+         // a small queue is enough: only the lookup is measured
+         final SharedMemoryBuffer buffer = new SharedMemoryBuffer(new File(dir, String.valueOf(i)).getPath(),
+                                                                  4096 + ManyToOneBoundedChannel.TRAILER_LENGTH, true, null);
+         buffers.add(buffer);
+         cache.put(addr, buffer);
+         localMembers.add(addr);
+         localBuffers.put(addr, buffer);
+      }
+      table = new PeerTable(localBuffers, null);
+   }
+
+   @TearDown
+   public void tearDown() {
+      buffers.forEach(Util::close);
+      dir.delete();
+   }
+
+   private Address nextDestination() {
+      int i = next + 1;
+      if (i == members) {
+         i = 1;
+      }
+      next = i;
+      return addresses[i];
+   }
+
+   @Benchmark
+   public SharedMemoryBuffer unicastMap() {
+      return cache.get(nextDestination());
+   }
+
+   @Benchmark
+   public SharedMemoryBuffer unicastPeerTable() {
+      return table.get(nextDestination());
+   }
+
+   @Benchmark
+   public void multicastMap(Blackhole bh) {
+      for (Address dest : viewMembers) {
+         if (Objects.equals(dest, self)) {
+            continue;
+         }
+         if (localMembers.contains(dest)) {
+            bh.consume(cache.get(dest));
+         }
+      }
+   }
+
+   @Benchmark
+   public void multicastPeerTable(Blackhole bh) {
+      for (SharedMemoryBuffer dest : table.peers()) {
+         bh.consume(dest);
+      }
+   }
+}
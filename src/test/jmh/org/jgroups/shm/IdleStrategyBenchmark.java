@@ -0,0 +1,96 @@
+package org.jgroups.shm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the pickup latency of a message (time from the producer's commit until the consumer has seen it) for
+ * different {@link IdleStrategy} implementations and inter-arrival gaps. The gap is inserted before each invocation,
+ * outside of the measured time, so that the consumer goes idle as it would with real traffic.
+ * <p>
+ * This benchmark only measures latency; the CPU consumed by the consumer thread (the other side of the trade-off)
+ * is measured by {@code org.jgroups.tests.perf.IdleStrategyPerf}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2)
+@Threads(1)
+public class IdleStrategyBenchmark {
+
+   @Param({"backoff", "adaptive"})
+   private String idleStrategy;
+
+   @Param({"0", "10000", "100000", "1000000"})
+   private long gapNs;
+
+   private ManyToOneBoundedChannel channel;
+   private Thread consumerThread;
+   private volatile boolean running;
+   private volatile long pickedUp;
+   private long sent;
+
+   @Setup
+   public void setup() {
+      channel = JGroupsChannelFactory.createManyToOneBoundedChannel(Long.BYTES, 1024);
+      final IdleStrategy strategy = switch (idleStrategy) {
+         case "backoff" -> IdleStrategy.backoffIdle();
+         case "adaptive" -> IdleStrategy.adaptiveIdle();
+         default -> throw new UnsupportedOperationException("unsupported idle strategy " + idleStrategy);
+      };
+      final ManyToOneBoundedChannel.MessageHandler handler = (msgTypeId, buffer, index, length) ->
+         pickedUp = buffer.getLong(index);
+      running = true;
+      consumerThread = new Thread(() -> {
+         while (running) {
+            strategy.idle(channel.read(handler));
+         }
+      }, "consumer");
+      consumerThread.start();
+   }
+
+   @TearDown
+   public void tearDown() throws InterruptedException {
+      running = false;
+      consumerThread.join();
+   }
+
+   @Setup(Level.Invocation)
+   public void pause() {
+      if (gapNs > 0) {
+         LockSupport.parkNanos(gapNs);
+      }
+   }
+
+   @Benchmark
+   public long pickup() {
+      final long seq = ++sent;
+      long claim;
+      while ((claim = channel.tryClaim(1, Long.BYTES)) == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+         Thread.onSpinWait();
+      }
+      channel.buffer().putLong(ManyToOneBoundedChannel.claimedIndex(claim), seq);
+      channel.commit(claim);
+      while (pickedUp != seq) {
+         Thread.onSpinWait();
+      }
+      return seq;
+   }
+}
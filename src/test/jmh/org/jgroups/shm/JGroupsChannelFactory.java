@@ -8,10 +8,14 @@ import org.agrona.BitUtil;
 final class JGroupsChannelFactory {
 
    public static ManyToOneBoundedChannel createManyToOneBoundedChannel(int expectedEntrySize, int capacity) {
+      return createManyToOneBoundedChannel(expectedEntrySize, capacity, ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT);
+   }
+
+   public static ManyToOneBoundedChannel createManyToOneBoundedChannel(int expectedEntrySize, int capacity, int alignment) {
       final int entries = Math.max(8, capacity);
-      final int entryCapacity = BitUtil.align(expectedEntrySize + ManyToOneBoundedChannel.RecordDescriptor.HEADER_LENGTH, ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT);
+      final int entryCapacity = BitUtil.align(expectedEntrySize + ManyToOneBoundedChannel.RecordDescriptor.HEADER_LENGTH, alignment);
       final int dataCapacity = BitUtil.findNextPositivePowerOfTwo(entryCapacity * entries);
       final int bufferCapacity = dataCapacity + ManyToOneBoundedChannel.TRAILER_LENGTH;
-      return new ManyToOneBoundedChannel(ByteBuffer.allocateDirect(bufferCapacity).order(ByteOrder.nativeOrder()));
+      return new ManyToOneBoundedChannel(ByteBuffer.allocateDirect(bufferCapacity).order(ByteOrder.nativeOrder()), alignment);
    }
 }
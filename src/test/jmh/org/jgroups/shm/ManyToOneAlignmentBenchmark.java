@@ -0,0 +1,148 @@
+package org.jgroups.shm;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of many concurrent producers writing small records to a {@link ManyToOneBoundedChannel}, depending on the
+ * alignment of the records (see {@link ManyToOneBoundedChannel#ManyToOneBoundedChannel(java.nio.ByteBuffer, int)}):
+ * with 8 bytes, the records of different producers share cache lines and the commit of one producer invalidates the
+ * line another one is writing; with 64 or 128 bytes, they don't, but small records waste capacity.
+ * <p>
+ * As a failed claim (ring buffer full) isn't retried, the throughput of the group includes the failed claims; the
+ * producers report (as rates, to be compared with each other):
+ * <ul>
+ *    <li>{@code offersMade}/{@code offersFailed}: successful and failed claims; {@code offersMade} is the throughput
+ *    of the producers</li>
+ *    <li>{@code payloadBytes}: bytes of the claimed records (header and message)</li>
+ *    <li>{@code recordBytes}: bytes of the claimed records including the alignment padding; the waste is
+ *    {@code 1 - payloadBytes / recordBytes}</li>
+ * </ul>
+ * The number of producers is set with {@code -tg 1,<producers>} (the thread counts of receive and send).
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2)
+public class ManyToOneAlignmentBenchmark {
+
+   @Param({"8", "64", "128"})
+   private int alignment;
+
+   @Param({"16", "100", "1000"})
+   private int bytes;
+
+   /**
+    * The capacity of the ring buffer in records (of {@code bytes}, aligned to 8).
+    */
+   @Param({"1024"})
+   private int records;
+
+   private final int sentinelValue = -1;
+
+   private ManyToOneBoundedChannel channel;
+   private ManyToOneBoundedChannel.MessageHandler handler;
+   private int payloadLength;
+   private int recordLength;
+
+   @Setup
+   public void setup() {
+      if (bytes < 4) {
+         throw new IllegalArgumentException("cannot configure less then 4 bytes per ring buffer entry");
+      }
+      channel = JGroupsChannelFactory.createManyToOneBoundedChannel(bytes, records, alignment);
+      handler = (msgTypeId, buffer, index, length) -> {
+         if (buffer.getInt(index) != sentinelValue) {
+            throw new RuntimeException("CANNOT HAPPEN!");
+         }
+      };
+      payloadLength = bytes + ManyToOneBoundedChannel.RecordDescriptor.HEADER_LENGTH;
+      recordLength = channel.recordLength(bytes);
+   }
+
+   @AuxCounters
+   @State(Scope.Thread)
+   public static class PollCounters {
+
+      public long pollsFailed;
+      public long pollsMade;
+
+      int polled(int done) {
+         if (done == 0) {
+            pollsFailed++;
+            Thread.onSpinWait();
+         } else {
+            pollsMade += done;
+         }
+         return done;
+      }
+   }
+
+   @AuxCounters
+   @State(Scope.Thread)
+   public static class OfferCounters {
+
+      public long offersFailed;
+      public long offersMade;
+      public long payloadBytes;
+      public long recordBytes;
+
+      void record(int payloadLength, int recordLength) {
+         offersMade++;
+         payloadBytes += payloadLength;
+         recordBytes += recordLength;
+      }
+   }
+
+   @Benchmark
+   @Group
+   @GroupThreads(4)
+   public long send(OfferCounters counters) {
+      final ManyToOneBoundedChannel channel = this.channel;
+      // don't retry: the consumer can stop before the producers at the end of an iteration
+      final long claim = channel.tryClaim(1, bytes);
+      if (claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+         counters.offersFailed++;
+         Thread.onSpinWait();
+         return claim;
+      }
+      channel.buffer().putInt(ManyToOneBoundedChannel.claimedIndex(claim), sentinelValue);
+      channel.commit(claim);
+      counters.record(payloadLength, recordLength);
+      return claim;
+   }
+
+   @Benchmark
+   @Group
+   @GroupThreads(1)
+   public int receive(PollCounters counters) {
+      return counters.polled(channel.read(handler));
+   }
+
+   @TearDown(Level.Iteration)
+   public void emptyRingBuffer() {
+      synchronized (handler) {
+         while (channel.size() != 0) {
+            channel.read(handler);
+         }
+      }
+   }
+}
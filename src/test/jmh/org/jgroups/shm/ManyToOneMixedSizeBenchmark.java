@@ -0,0 +1,209 @@
+package org.jgroups.shm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+import org.agrona.BitUtil;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RecordDescriptor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Like {@link ManyToOneStreamBenchmark}, but with message sizes drawn from a {@link SizeDistribution} (e.g. small acks
+ * mixed with large fragments), and with ring buffers only {@code ringSizeFactor} times larger than the largest record,
+ * so that the producer wraps around often and pads the end of the buffer.
+ * <p>
+ * Besides the throughput of the send/receive group, the producer reports (as rates, to be compared with each other):
+ * <ul>
+ *    <li>{@code offersMade}/{@code offersFailed}: successful and failed claims (ring buffer full)</li>
+ *    <li>{@code recordBytes}: bytes of the claimed records (aligned, including headers)</li>
+ *    <li>{@code paddingBytes}: bytes lost to padding at the end of the buffer; the waste is
+ *    {@code paddingBytes / (recordBytes + paddingBytes)}</li>
+ * </ul>
+ * Padding is computed from the producer position, which is exact as there is a single producer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Dagrona.disable.bounds.checks=true", "--add-exports=java.base/jdk.internal.misc=ALL-UNNAMED"})
+public class ManyToOneMixedSizeBenchmark {
+
+   private static final int SAMPLES = 1 << 16;
+   private static final long SEED = 42;
+
+   @Param({"agrona", "jgroups"})
+   private String ringBufferType;
+
+   @Param({"uniform:30:1024", "bimodal:30:61440:90", "histogram:30x50:100x20:1000x20:8192x8:61440x2"})
+   private String sizes;
+
+   /**
+    * The capacity of the ring buffer as a multiple of the largest record; 8 is the smallest one allowing it.
+    */
+   @Param({"8", "64"})
+   private int ringSizeFactor;
+
+   private final int sentinelValue = -1;
+
+   private int[] samples;
+   private int next;
+
+   private ToIntFunction<OfferCounters> sendOperation;
+   private ToIntFunction<PollCounters> receiveOperation;
+   private BooleanSupplier isEmpty;
+
+   @Setup
+   public void setup() {
+      final SizeDistribution distribution = SizeDistribution.parse(sizes);
+      samples = distribution.samples(SAMPLES, SEED);
+      for (int size : samples) {
+         if (size < 4) {
+            throw new IllegalArgumentException("cannot configure less then 4 bytes per ring buffer entry: " + sizes);
+         }
+      }
+      final int maxBytes = distribution.max();
+
+      switch (ringBufferType) {
+         case "agrona":
+            final ManyToOneRingBuffer agronaRingBuffer = AgronaRingBufferFactory.createManyToOneRingBuffer(maxBytes, ringSizeFactor);
+            sendOperation = counters -> {
+               final int bytes = nextSize();
+               final long tail = agronaRingBuffer.producerPosition();
+               int index;
+               while ((index = agronaRingBuffer.tryClaim(1, bytes)) < 0) {
+                  counters.offersFailed++;
+                  backoff();
+               }
+               agronaRingBuffer.buffer().putInt(index, sentinelValue);
+               agronaRingBuffer.commit(index);
+               counters.record(agronaRingBuffer.producerPosition() - tail,
+                               BitUtil.align(bytes + RecordDescriptor.HEADER_LENGTH, RecordDescriptor.ALIGNMENT));
+               return index;
+            };
+            final MessageHandler agronaHandler = (msgTypeId, buffer, index, length) -> {
+               if (buffer.getInt(index) != sentinelValue) {
+                  throw new RuntimeException("CANNOT HAPPEN!");
+               }
+            };
+            receiveOperation = counters -> counters.polled(agronaRingBuffer.read(agronaHandler));
+            isEmpty = () -> agronaRingBuffer.size() == 0;
+            break;
+         case "jgroups":
+            final ManyToOneBoundedChannel jgroupsChannel = JGroupsChannelFactory.createManyToOneBoundedChannel(maxBytes, ringSizeFactor);
+            sendOperation = counters -> {
+               final int bytes = nextSize();
+               final long tail = jgroupsChannel.producerPosition();
+               long claim;
+               while ((claim = jgroupsChannel.tryClaim(1, bytes)) < 0) {
+                  counters.offersFailed++;
+                  backoff();
+               }
+               final int index = ManyToOneBoundedChannel.claimedIndex(claim);
+               jgroupsChannel.buffer().putInt(index, sentinelValue);
+               jgroupsChannel.commit(claim);
+               counters.record(jgroupsChannel.producerPosition() - tail,
+                               ManyToOneBoundedChannel.align(bytes + ManyToOneBoundedChannel.RecordDescriptor.HEADER_LENGTH,
+                                                             ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT));
+               return index;
+            };
+            final ManyToOneBoundedChannel.MessageHandler handler = (msgTypeId, buffer, index, length) -> {
+               if (buffer.getInt(index) != sentinelValue) {
+                  throw new RuntimeException("CANNOT HAPPEN!");
+               }
+            };
+            receiveOperation = counters -> counters.polled(jgroupsChannel.read(handler));
+            isEmpty = () -> jgroupsChannel.size() == 0;
+            break;
+         default:
+            throw new UnsupportedOperationException("unsupported ring buffer type");
+      }
+   }
+
+   private int nextSize() {
+      final int size = samples[next];
+      next = (next + 1) & (SAMPLES - 1);
+      return size;
+   }
+
+   @AuxCounters
+   @State(Scope.Thread)
+   public static class PollCounters {
+
+      public long pollsFailed;
+      public long pollsMade;
+
+      int polled(int done) {
+         if (done == 0) {
+            pollsFailed++;
+            Thread.onSpinWait();
+         } else {
+            pollsMade += done;
+         }
+         return done;
+      }
+   }
+
+   @AuxCounters
+   @State(Scope.Thread)
+   public static class OfferCounters {
+
+      public long offersFailed;
+      public long offersMade;
+      public long recordBytes;
+      public long paddingBytes;
+
+      /**
+       * @param claimed      by how much the producer position advanced.
+       * @param recordLength the aligned length of the record.
+       */
+      void record(long claimed, int recordLength) {
+         offersMade++;
+         recordBytes += recordLength;
+         paddingBytes += claimed - recordLength;
+      }
+   }
+
+   @Benchmark
+   @Group
+   public int send(OfferCounters counters) {
+      return sendOperation.applyAsInt(counters);
+   }
+
+   @Benchmark
+   @Group
+   public int receive(PollCounters counters) {
+      return receiveOperation.applyAsInt(counters);
+   }
+
+   @TearDown(Level.Iteration)
+   public void emptyRingBuffer() {
+      synchronized (receiveOperation) {
+         final PollCounters dummy = new PollCounters();
+         while (!isEmpty.getAsBoolean()) {
+            receiveOperation.applyAsInt(dummy);
+         }
+      }
+   }
+
+   protected void backoff() {
+      Thread.onSpinWait();
+   }
+}
@@ -0,0 +1,194 @@
+package org.jgroups.shm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import static org.jgroups.shm.ManyToOneBoundedChannel.RecordDescriptor.ALIGNMENT;
+import static org.jgroups.shm.ManyToOneBoundedChannel.RecordDescriptor.HEADER_LENGTH;
+import static org.jgroups.shm.ManyToOneBoundedChannel.RecordDescriptor.lengthOffset;
+import static org.jgroups.shm.ManyToOneBoundedChannel.RecordDescriptor.typeOffset;
+
+/**
+ * Measures the parts of the consumer side of {@link ManyToOneBoundedChannel} and {@link SharedMemoryBuffer} in
+ * isolation, on heap, direct and memory-mapped buffers:
+ * <ul>
+ *    <li>{@code read}: {@link ManyToOneBoundedChannel#read} of a batch of records (scan, zeroing and head publication)</li>
+ *    <li>{@code scan}: the record scan of {@code read()} only, without consuming the records</li>
+ *    <li>{@code zeros}: {@link ByteBufferUtils#zeros} of the block of records read in a batch</li>
+ *    <li>{@code publishHead}: the release store of the consumer position</li>
+ *    <li>{@code onMessage}: the position/limit handling of {@link SharedMemoryBuffer#onMessage} around the consumer</li>
+ * </ul>
+ * The cost of {@code read} is roughly {@code scan + zeros + publishHead + records * onMessage}.
+ * {@code read} and {@code scan} consume records written (outside of the measurement) before each invocation; use
+ * {@code records=1} as a baseline for the timing overhead of the per-invocation fixtures.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2)
+public class ReadPathBenchmarks {
+
+   private static final int CAPACITY = 1 << 20;
+   private static final VarHandle MSG_STATE = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+   private static final VarHandle SEQUENCES = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+   /**
+    * The ring buffer and the buffer it's built on.
+    */
+   @State(Scope.Thread)
+   public static class Ring {
+
+      @Param({"heap", "direct", "mapped"})
+      String bufferType;
+
+      @Param({"64", "1024"})
+      int bytes;
+
+      @Param({"1", "32", "256"})
+      int records;
+
+      File file;
+      ManyToOneBoundedChannel channel;
+      SharedMemoryBuffer sharedMemoryBuffer;
+      ByteBuffer buffer;
+      int blockLength;
+      int headIndex;
+      long head;
+      ManyToOneBoundedChannel.MessageHandler handler;
+
+      @Setup
+      public void setup(Blackhole bh) throws IOException {
+         buffer = switch (bufferType) {
+            case "heap" -> ByteBuffer.allocate(CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH);
+            case "direct" -> ByteBuffer.allocateDirect(CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH);
+            case "mapped" -> map(CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH);
+            default -> throw new UnsupportedOperationException("unsupported buffer type " + bufferType);
+         };
+         channel = new ManyToOneBoundedChannel(buffer);
+         handler = (msgTypeId, buf, index, length) -> bh.consume(index);
+         blockLength = records * ManyToOneBoundedChannel.align(bytes + HEADER_LENGTH, ALIGNMENT);
+         // the metadata area has the same alignment as the consumer position, but isn't used by the ring buffer
+         headIndex = CAPACITY;
+
+         // onMessage() is invoked directly on a mapped SharedMemoryBuffer, whose consumer only reads one byte
+         final File sharedFile = File.createTempFile("read-path-shm", null);
+         sharedFile.deleteOnExit();
+         sharedMemoryBuffer = new SharedMemoryBuffer(sharedFile.getPath(), CAPACITY + ManyToOneBoundedChannel.TRAILER_LENGTH, true, null);
+         sharedMemoryBuffer.consumer = bb -> bh.consume(bb.get(bb.position()));
+      }
+
+      ByteBuffer map(int length) throws IOException {
+         file = File.createTempFile("read-path", null);
+         file.deleteOnExit();
+         try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+         }
+      }
+
+      @TearDown
+      public void tearDown() {
+         sharedMemoryBuffer.close();
+         if (file != null) {
+            file.delete();
+         }
+      }
+   }
+
+   /**
+    * A {@link Ring} which is filled with a batch of records before each invocation, and drained afterwards
+    * ({@code read()} stops at the end of the buffer, so a batch which wraps around needs more than one).
+    * It extends {@link Ring} rather than depending on it, as arguments of fixture methods aren't shared with the
+    * benchmark method.
+    */
+   @State(Scope.Thread)
+   public static class Batch extends Ring {
+
+      private static final ManyToOneBoundedChannel.MessageHandler NOOP = (msgTypeId, buf, index, length) -> {
+      };
+
+      @Setup(Level.Invocation)
+      public void fill() {
+         final ManyToOneBoundedChannel channel = this.channel;
+         for (int i = 0; i < records; i++) {
+            final long claim = channel.tryClaim(1, bytes);
+            if (claim == ManyToOneBoundedChannel.INSUFFICIENT_CAPACITY) {
+               throw new IllegalStateException("ring buffer is full");
+            }
+            channel.commit(claim);
+         }
+      }
+
+      @TearDown(Level.Invocation)
+      public void consume() {
+         while (channel.consumerPosition() != channel.producerPosition()) {
+            channel.read(NOOP);
+         }
+      }
+   }
+
+   @Benchmark
+   public int read(Batch batch) {
+      return batch.channel.read(batch.handler);
+   }
+
+   /**
+    * The record scan of {@link ManyToOneBoundedChannel#read}, with the same memory accesses.
+    */
+   @Benchmark
+   public int scan(Batch batch) {
+      final ByteBuffer buffer = batch.buffer;
+      final int start = (int) batch.channel.consumerPosition() & (CAPACITY - 1);
+      final int maxBlockLength = CAPACITY - start;
+      int bytesRead = 0, count = 0;
+      while (bytesRead < maxBlockLength) {
+         final int recordIndex = start + bytesRead;
+         final int recordLength = (int) MSG_STATE.getAcquire(buffer, lengthOffset(recordIndex));
+         if (recordLength <= 0) {
+            break;
+         }
+         bytesRead += ManyToOneBoundedChannel.align(recordLength, ALIGNMENT);
+         if ((int) MSG_STATE.getOpaque(buffer, typeOffset(recordIndex)) != ManyToOneBoundedChannel.PADDING_MSG_TYPE_ID) {
+            count++;
+         }
+      }
+      return count;
+   }
+
+   @Benchmark
+   public void zeros(Ring ring) {
+      ByteBufferUtils.zeros(ring.buffer, 0, ring.blockLength);
+   }
+
+   @Benchmark
+   public void publishHead(Ring ring) {
+      SEQUENCES.setRelease(ring.buffer, ring.headIndex, ring.head += ring.blockLength);
+   }
+
+   @Benchmark
+   public void onMessage(Ring ring) {
+      ring.sharedMemoryBuffer.onMessage(SharedMemoryBuffer.MSG_TYPE_SINGLE, ring.sharedMemoryBuffer.rb.buffer(), HEADER_LENGTH, ring.bytes);
+   }
+}
@@ -0,0 +1,140 @@
+package org.jgroups.shm;
+
+import java.io.DataInput;
+import java.io.File;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.jgroups.Address;
+import org.jgroups.BytesMessage;
+import org.jgroups.JChannel;
+import org.jgroups.Message;
+import org.jgroups.protocols.shm.SHM;
+import org.jgroups.protocols.shm.SharedMemoryLocalTransport;
+import org.jgroups.stack.IpAddress;
+import org.jgroups.stack.Protocol;
+import org.jgroups.util.ByteArrayDataOutputStream;
+import org.jgroups.util.MessageBatch;
+import org.jgroups.util.UUID;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the receive path: a marshalled message is written to a memory-mapped {@link SharedMemoryBuffer} and read
+ * back through {@link SharedMemoryBuffer#onMessage} and the transport's {@code accept()}.
+ * <ul>
+ *    <li>{@code receive=transport}: {@code TP.receive()} is overridden to only read the version and flags, so this
+ *    measures the transport portion up to the point where the message would be unmarshalled. Run with
+ *    {@code -prof gc}: {@code gc.alloc.rate.norm} is expected to be 0 B/op</li>
+ *    <li>{@code receive=stack}: the real {@code TP.receive()} unmarshals the message and passes it up directly
+ *    (message_processing_policy=direct) to a protocol which discards it. This includes the allocations of the
+ *    message itself (message, payload, headers), which are passed up the stack and therefore not avoidable by the
+ *    transport</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2)
+public class ReceivePathBenchmark {
+
+   @Param({"SHM", "SharedMemoryLocalTransport"})
+   private String transport;
+
+   @Param({"100", "1000"})
+   private int bytes;
+
+   @Param({"transport", "stack"})
+   private String receive;
+
+   private File file;
+   private SharedMemoryBuffer buffer;
+   private SharedMemoryBuffer producer;
+   private byte[] marshalledMessage;
+   private JChannel channel;
+
+   @Setup
+   public void setup(Blackhole blackhole) throws Exception {
+      file = File.createTempFile("receive-path", null);
+      file.deleteOnExit();
+      buffer = new SharedMemoryBuffer(file.getPath(), (1 << 20) + ManyToOneBoundedChannel.TRAILER_LENGTH, true, null);
+      // writes to the mapped queue, like a producer in another process (the consumer is in this JVM)
+      producer = new SharedMemoryBuffer(file.getPath(), 0, false, null).localPath(false);
+
+      final SHM shm = switch (receive) {
+         case "transport" -> new SHM() {
+            @Override
+            public void receive(Address sender, DataInput in, int ignoredLength) throws Exception {
+               blackhole.consume(in.readShort()); // version
+               blackhole.consume(in.readByte());  // flags
+            }
+         };
+         case "stack" -> stack(blackhole);
+         default -> throw new UnsupportedOperationException("unsupported receive " + receive);
+      };
+      // set directly, so that no receiver thread is started: the benchmark thread reads the buffer itself
+      buffer.consumer = switch (transport) {
+         case "SHM" -> shm;
+         case "SharedMemoryLocalTransport" -> localTransport(shm);
+         default -> throw new UnsupportedOperationException("unsupported transport " + transport);
+      };
+
+      final ByteArrayDataOutputStream out = new ByteArrayDataOutputStream(bytes + 64);
+      Util.writeMessage(new BytesMessage(null, new byte[bytes]).setSrc(UUID.randomUUID()), out, false);
+      marshalledMessage = out.getBuffer().bytes();
+   }
+
+   @TearDown
+   public void tearDown() {
+      Util.close(producer, buffer, channel);
+   }
+
+   @Benchmark
+   public int writeAndReceive() {
+      producer.write(marshalledMessage, 0, marshalledMessage.length);
+      return buffer.poll(1);
+   }
+
+   /** An initialized (not connected) stack of SHM and a protocol discarding the messages passed up */
+   private SHM stack(Blackhole blackhole) throws Exception {
+      final SHM shm = new SHM() {
+         {
+            // set when connecting: until then, TP.receive() drops the messages of a null sender as its own
+            local_physical_addr = new IpAddress(InetAddress.getLoopbackAddress(), 7800);
+         }
+      }.setMessageProcessingPolicy("direct");
+      channel = new JChannel(shm, new Protocol() {
+         @Override
+         public Object up(Message msg) {
+            blackhole.consume(msg);
+            return null;
+         }
+
+         @Override
+         public void up(MessageBatch batch) {
+            blackhole.consume(batch);
+         }
+      });
+      return shm;
+   }
+
+   private static SharedMemoryLocalTransport localTransport(SHM tp) {
+      final SharedMemoryLocalTransport transport = new SharedMemoryLocalTransport();
+      transport.init(tp);
+      return transport;
+   }
+}
@@ -0,0 +1,160 @@
+package org.jgroups.shm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Message sizes drawn from a distribution, given as a spec which can be used as a JMH {@code @Param} value (no commas):
+ * <ul>
+ *    <li>{@code fixed:<size>}</li>
+ *    <li>{@code uniform:<min>:<max>}</li>
+ *    <li>{@code bimodal:<small>:<large>:<percentage of small>}, e.g. acks mixed with fragments</li>
+ *    <li>{@code histogram:<size>x<weight>:...}, e.g. {@code histogram:30x60:1000x30:60000x10}</li>
+ *    <li>{@code histogram:@<file>}: a recorded histogram, one {@code <size> <count>} pair per line ({@code #} starts
+ *    a comment)</li>
+ * </ul>
+ * Samples are precomputed with a fixed seed, so that all ring buffer types see the same sequence of sizes.
+ */
+final class SizeDistribution {
+
+   private final int[] sizes;
+   private final long[] cumulativeWeights;
+
+   private SizeDistribution(int[] sizes, long[] weights) {
+      if (sizes.length == 0) {
+         throw new IllegalArgumentException("empty size distribution");
+      }
+      this.sizes = sizes;
+      this.cumulativeWeights = new long[weights.length];
+      long total = 0;
+      for (int i = 0; i < weights.length; i++) {
+         if (sizes[i] < 0 || weights[i] < 0) {
+            throw new IllegalArgumentException("negative size or weight: " + sizes[i] + "x" + weights[i]);
+         }
+         total += weights[i];
+         cumulativeWeights[i] = total;
+      }
+      if (total == 0) {
+         throw new IllegalArgumentException("all weights are 0");
+      }
+   }
+
+   public static SizeDistribution parse(String spec) {
+      final String[] parts = spec.split(":");
+      switch (parts[0]) {
+         case "fixed":
+            checkFields(spec, parts, 2);
+            return new SizeDistribution(new int[]{Integer.parseInt(parts[1])}, new long[]{1});
+         case "uniform": {
+            checkFields(spec, parts, 3);
+            final int min = Integer.parseInt(parts[1]), max = Integer.parseInt(parts[2]);
+            if (min > max) {
+               throw new IllegalArgumentException("min > max: " + spec);
+            }
+            final int[] sizes = new int[max - min + 1];
+            final long[] weights = new long[sizes.length];
+            for (int i = 0; i < sizes.length; i++) {
+               sizes[i] = min + i;
+               weights[i] = 1;
+            }
+            return new SizeDistribution(sizes, weights);
+         }
+         case "bimodal": {
+            checkFields(spec, parts, 4);
+            final int small = Integer.parseInt(parts[3]);
+            if (small < 0 || small > 100) {
+               throw new IllegalArgumentException("percentage must be in [0..100]: " + spec);
+            }
+            return new SizeDistribution(new int[]{Integer.parseInt(parts[1]), Integer.parseInt(parts[2])},
+                                        new long[]{small, 100 - small});
+         }
+         case "histogram":
+            if (parts.length == 2 && parts[1].startsWith("@")) {
+               return histogram(readHistogram(Path.of(parts[1].substring(1))));
+            }
+            if (parts.length < 2) {
+               throw new IllegalArgumentException("histogram without buckets: " + spec);
+            }
+            return histogram(List.of(parts).subList(1, parts.length));
+         default:
+            throw new IllegalArgumentException("unknown size distribution: " + spec);
+      }
+   }
+
+   private static void checkFields(String spec, String[] parts, int expected) {
+      if (parts.length != expected) {
+         throw new IllegalArgumentException("expected " + (expected - 1) + " values: " + spec);
+      }
+   }
+
+   /**
+    * @param buckets {@code <size>x<weight>} pairs.
+    */
+   private static SizeDistribution histogram(List<String> buckets) {
+      final int[] sizes = new int[buckets.size()];
+      final long[] weights = new long[buckets.size()];
+      for (int i = 0; i < sizes.length; i++) {
+         final String bucket = buckets.get(i);
+         final int x = bucket.indexOf('x');
+         if (x < 0) {
+            throw new IllegalArgumentException("expected <size>x<weight>: " + bucket);
+         }
+         sizes[i] = Integer.parseInt(bucket.substring(0, x).trim());
+         weights[i] = Long.parseLong(bucket.substring(x + 1).trim());
+      }
+      return new SizeDistribution(sizes, weights);
+   }
+
+   private static List<String> readHistogram(Path file) {
+      try {
+         return Files.readAllLines(file).stream()
+            .map(line -> line.replaceAll("#.*", "").trim())
+            .filter(line -> !line.isEmpty())
+            .map(line -> line.replaceAll("\\s+", "x"))
+            .toList();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   public int max() {
+      int max = 0;
+      for (int size : sizes) {
+         max = Math.max(max, size);
+      }
+      return max;
+   }
+
+   /**
+    * @return {@code count} sizes drawn from this distribution, starting from {@code seed}.
+    */
+   public int[] samples(int count, long seed) {
+      final SplittableRandom random = new SplittableRandom(seed);
+      final long total = cumulativeWeights[cumulativeWeights.length - 1];
+      final int[] samples = new int[count];
+      for (int i = 0; i < count; i++) {
+         samples[i] = sizes[bucket(random.nextLong(total))];
+      }
+      return samples;
+   }
+
+   /**
+    * @return the first bucket whose cumulative weight is greater than {@code r}.
+    */
+   private int bucket(long r) {
+      int low = 0, high = cumulativeWeights.length - 1;
+      while (low < high) {
+         final int mid = (low + high) >>> 1;
+         if (cumulativeWeights[mid] <= r) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+      return low;
+   }
+}
@@ -0,0 +1,140 @@
+package org.jgroups.tests.perf;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jgroups.Address;
+import org.jgroups.JChannel;
+import org.jgroups.blocks.MethodCall;
+import org.jgroups.blocks.RequestOptions;
+import org.jgroups.blocks.RpcDispatcher;
+import org.jgroups.util.Util;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end comparison of the transports, using real {@link JChannel} stacks whose members all run in this JVM
+ * (on the same host):
+ * <ul>
+ *    <li>{@code unicast}/{@code multicast}: throughput of async RPCs sent by the first member (to the last member, or
+ *    to all members); the flow control protocols of the stacks throttle the sender to the rate at which the
+ *    receivers deliver</li>
+ *    <li>{@code rpc}: latency of a synchronous RPC from the first to the last member</li>
+ * </ul>
+ * All messages are sent via {@link RpcDispatcher}, as most applications do. {@code local-tcp.xml} and
+ * {@code local-uds.xml} differ only in the local transport (shared memory vs Unix domain sockets).
+ * Run with {@code -prof gc} for the allocation per message ({@code gc.alloc.rate.norm}), and with
+ * {@code -rf json} for results which can be compared across releases (see {@code bin/transport_jmh.sh}).
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.net.preferIPv4Stack=true", "-Djgroups.bind_addr=loopback",
+   "-Djgroups.tcp.port_range=10"})
+@Threads(1)
+public class TransportBenchmark {
+
+   @Param({"shm.xml", "shm-fc.xml", "tcp.xml", "nio.xml", "local-udp.xml", "local-tcp.xml", "local-uds.xml"})
+   private String config;
+
+   @Param({"2", "4"})
+   private int members;
+
+   @Param({"100", "1000", "10000"})
+   private int size;
+
+   private static final long DRAIN_TIMEOUT_MS = 30_000;
+
+   private JChannel[] channels;
+   private RpcDispatcher[] dispatchers;
+   private final LongAdder received = new LongAdder();
+   private long expected;
+   private Address target;
+   private byte[] payload;
+   private MethodCall call;
+   private final RequestOptions async = RequestOptions.ASYNC();
+   private final RequestOptions sync = RequestOptions.SYNC();
+
+   @Setup
+   public void setup() throws Exception {
+      new File("/tmp/shm").mkdirs();
+      final String cluster = "transport-bench-" + System.nanoTime();
+      channels = new JChannel[members];
+      dispatchers = new RpcDispatcher[members];
+      for (int i = 0; i < members; i++) {
+         channels[i] = new JChannel(config).name(String.valueOf((char) ('A' + i)));
+         dispatchers[i] = new RpcDispatcher(channels[i], this);
+         channels[i].connect(cluster);
+      }
+      Util.waitUntilAllChannelsHaveSameView(30_000, 100, channels);
+      target = channels[members - 1].getAddress();
+      payload = new byte[size];
+      call = new MethodCall("ping", new Object[]{payload}, new Class[]{byte[].class});
+   }
+
+   @TearDown
+   public void tearDown() {
+      for (int i = members - 1; i >= 0; i--) {
+         Util.close(dispatchers[i], channels[i]);
+      }
+   }
+
+   /**
+    * Waits until all messages sent in this iteration have been delivered, so that they are accounted to it.
+    */
+   @TearDown(Level.Iteration)
+   public void drain() {
+      final long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+      while (received.sum() < expected && System.currentTimeMillis() < deadline) {
+         Util.sleep(1);
+      }
+      if (received.sum() < expected) {
+         throw new IllegalStateException(String.format("received %,d messages, expected %,d", received.sum(), expected));
+      }
+   }
+
+   /**
+    * Invoked by all benchmarks.
+    */
+   public void ping(byte[] ignored) {
+      received.increment();
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.Throughput)
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void unicast() throws Exception {
+      dispatchers[0].callRemoteMethod(target, call, async);
+      expected++;
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.Throughput)
+   @OutputTimeUnit(TimeUnit.SECONDS)
+   public void multicast() throws Exception {
+      dispatchers[0].callRemoteMethods(null, call, async);
+      expected += members;
+   }
+
+   @Benchmark
+   @BenchmarkMode(Mode.SampleTime)
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public Object rpc() throws Exception {
+      final Object rsp = dispatchers[0].callRemoteMethod(target, call, sync);
+      expected++;
+      return rsp;
+   }
+}